@@ -0,0 +1,41 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that wraps every task with the transaction that is current on the
+ * submitting thread.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#wrap(Executor)
+ * 
+ */
+final class ContextExecutor implements Executor {
+	private final TelemetryContext m_context;
+	private final Executor m_delegate;
+
+	ContextExecutor(TelemetryContext context, Executor delegate) {
+		m_context = context;
+		m_delegate = delegate;
+	}
+
+	public void execute(Runnable command) {
+		m_delegate.execute(m_context.wrap(command));
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An executor service that wraps every task with the transaction that is
+ * current on the submitting thread. Tasks are wrapped before they are handed
+ * to the wrapped service, so that the telemetry of a task is closed before its
+ * future completes. Life cycle operations are passed straight through.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#wrap(ExecutorService)
+ * 
+ */
+final class ContextExecutorService implements ExecutorService {
+	private final TelemetryContext m_context;
+	private final ExecutorService m_delegate;
+
+	ContextExecutorService(TelemetryContext context, ExecutorService delegate) {
+		m_context = context;
+		m_delegate = delegate;
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return m_delegate.awaitTermination(timeout, unit);
+	}
+
+	public void execute(Runnable command) {
+		m_delegate.execute(m_context.wrap(command));
+	}
+
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+		return m_delegate.invokeAll(wrap(tasks));
+	}
+
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return m_delegate.invokeAll(wrap(tasks), timeout, unit);
+	}
+
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+		return m_delegate.invokeAny(wrap(tasks));
+	}
+
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return m_delegate.invokeAny(wrap(tasks), timeout, unit);
+	}
+
+	public boolean isShutdown() {
+		return m_delegate.isShutdown();
+	}
+
+	public boolean isTerminated() {
+		return m_delegate.isTerminated();
+	}
+
+	public void shutdown() {
+		m_delegate.shutdown();
+	}
+
+	public List<Runnable> shutdownNow() {
+		return m_delegate.shutdownNow();
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return m_delegate.submit(m_context.wrap(task));
+	}
+
+	public Future<?> submit(Runnable task) {
+		return m_delegate.submit(m_context.wrap(task));
+	}
+
+	public <T> Future<T> submit(Runnable task, T result) {
+		return m_delegate.submit(m_context.wrap(task), result);
+	}
+
+	private <T> List<Callable<T>> wrap(Collection<? extends Callable<T>> tasks) {
+		final List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			wrapped.add(m_context.wrap(task));
+		}
+
+		return wrapped;
+	}
+}
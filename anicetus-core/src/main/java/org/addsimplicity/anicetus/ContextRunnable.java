@@ -0,0 +1,49 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus;
+
+/**
+ * A runnable that carries a telemetry parent from the thread that created it to
+ * the thread that runs it. The parent is captured with the session, sampling
+ * decision and limits of the creating thread, and all of it is installed on the
+ * running thread's execution stack for the duration of the task.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#wrap(Runnable)
+ * 
+ */
+final class ContextRunnable implements Runnable {
+	private final TelemetryContext m_context;
+	private final ExecutionStack.Handoff m_handoff;
+	private final Runnable m_task;
+
+	ContextRunnable(TelemetryContext context, ExecutionStack.Handoff handoff, Runnable task) {
+		m_context = context;
+		m_handoff = handoff;
+		m_task = task;
+	}
+
+	public void run() {
+		final ExecutionStack.Handoff outer = m_context.attach(m_handoff);
+		try {
+			m_task.run();
+		}
+		finally {
+			m_context.detach(outer);
+		}
+	}
+}
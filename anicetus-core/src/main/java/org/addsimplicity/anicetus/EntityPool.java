@@ -0,0 +1,168 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus;
+
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryEvent;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryState;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+
+/**
+ * The entity pool holds completed telemetry artifacts so that they can be
+ * reused by later sessions. Like the execution stack it belongs to, the pool
+ * is not synchronized. Only the plain transaction, event, and state types are
+ * pooled along with the session. Application subclasses are left to the
+ * garbage collector.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+final class EntityPool {
+	private final TelemetryTransaction[] m_transactions;
+	private final TelemetryEvent[] m_events;
+	private final TelemetryState[] m_states;
+	private int m_transactionCount;
+	private int m_eventCount;
+	private int m_stateCount;
+	private TelemetrySession m_session;
+
+	/**
+	 * Construct a pool that holds up to the specified number of each type.
+	 * 
+	 * @param capacity
+	 *          The number of artifacts of each type to retain.
+	 */
+	EntityPool(int capacity) {
+		m_transactions = new TelemetryTransaction[capacity];
+		m_events = new TelemetryEvent[capacity];
+		m_states = new TelemetryState[capacity];
+	}
+
+	/**
+	 * Return a tree to the pool. A session root is retained for the next session
+	 * and the other artifacts are retained until the pool is full. The caller
+	 * must guarantee that nothing else refers to the tree.
+	 * 
+	 * @param root
+	 *          The root of the completed tree.
+	 */
+	void release(ExecInfo root) {
+		releaseChildren(root);
+		if (root.getClass() == TelemetrySession.class) {
+			m_session = (TelemetrySession) root;
+		}
+		else {
+			recycle(root);
+		}
+	}
+
+	/**
+	 * Take an event from the pool.
+	 * 
+	 * @return a pooled event or null if the pool is empty.
+	 */
+	TelemetryEvent takeEvent() {
+		if (m_eventCount == 0) {
+			return null;
+		}
+
+		final TelemetryEvent evt = m_events[--m_eventCount];
+		m_events[m_eventCount] = null;
+
+		return evt;
+	}
+
+	/**
+	 * Take the retained session from the pool.
+	 * 
+	 * @return the pooled session or null if there isn't one.
+	 */
+	TelemetrySession takeSession() {
+		final TelemetrySession session = m_session;
+		m_session = null;
+
+		return session;
+	}
+
+	/**
+	 * Take a state from the pool.
+	 * 
+	 * @return a pooled state or null if the pool is empty.
+	 */
+	TelemetryState takeState() {
+		if (m_stateCount == 0) {
+			return null;
+		}
+
+		final TelemetryState state = m_states[--m_stateCount];
+		m_states[m_stateCount] = null;
+
+		return state;
+	}
+
+	/**
+	 * Take a transaction from the pool.
+	 * 
+	 * @return a pooled transaction or null if the pool is empty.
+	 */
+	TelemetryTransaction takeTransaction() {
+		if (m_transactionCount == 0) {
+			return null;
+		}
+
+		final TelemetryTransaction trans = m_transactions[--m_transactionCount];
+		m_transactions[m_transactionCount] = null;
+
+		return trans;
+	}
+
+	private void releaseChildren(ExecInfo container) {
+		// Walk the children by position so releasing a tree does not allocate an
+		// iterator for every container.
+		//
+		final int count = container.getChildCount();
+		for (int i = 0; i < count; i++) {
+			final GlobalInfo child = container.getChild(i);
+			if (child instanceof ExecInfo) {
+				releaseChildren((ExecInfo) child);
+			}
+
+			recycle(child);
+		}
+	}
+
+	private void recycle(GlobalInfo info) {
+		final Class<?> type = info.getClass();
+		if (type == TelemetryTransaction.class) {
+			if (m_transactionCount < m_transactions.length) {
+				m_transactions[m_transactionCount++] = (TelemetryTransaction) info;
+			}
+		}
+		else if (type == TelemetryEvent.class) {
+			if (m_eventCount < m_events.length) {
+				m_events[m_eventCount++] = (TelemetryEvent) info;
+			}
+		}
+		else if (type == TelemetryState.class) {
+			if (m_stateCount < m_states.length) {
+				m_states[m_stateCount++] = (TelemetryState) info;
+			}
+		}
+	}
+}
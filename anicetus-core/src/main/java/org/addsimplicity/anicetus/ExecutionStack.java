@@ -0,0 +1,474 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+
+package org.addsimplicity.anicetus;
+
+import java.util.EmptyStackException;
+
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.io.record.RecordArena;
+
+/**
+ * The execution stack holds the open session and transactions for a single
+ * thread of execution. It is a simple array backed stack with no
+ * synchronization. The owning TelemetryContext is responsible for making sure
+ * that a stack is only ever used by one thread at a time.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+final class ExecutionStack {
+	private static final int s_INITIAL_DEPTH = 8;
+
+	/**
+	 * The state of a stack at one moment. A handoff is captured on the thread
+	 * that submits a task and installed on the thread that runs it, so that the
+	 * task sees the same session, top frame, sampling decision and limits as the
+	 * code that submitted it. The state of the receiving stack is captured the
+	 * same way and put back when the task is done.
+	 */
+	static final class Handoff {
+		private final TelemetrySession m_session;
+		private final boolean m_sampled;
+		private final int m_entities;
+		private final ExecInfo m_frame;
+		private final boolean m_detached;
+		private final int m_ref;
+		private final ExecInfo m_retained;
+		private final int m_size;
+		private final int m_offset;
+		private final int m_floor;
+		private final ExecInfo m_carried;
+		private final boolean m_attached;
+
+		private Handoff(ExecutionStack stack) {
+			m_session = stack.m_session;
+			m_sampled = stack.m_sampled;
+			m_entities = stack.m_entities;
+			m_retained = stack.nearestRetained();
+			m_size = stack.m_depth;
+			m_offset = stack.m_offset;
+			m_floor = stack.m_floor;
+			m_carried = stack.m_carried;
+			m_attached = stack.m_attached;
+
+			if (m_size > 0) {
+				m_frame = stack.m_frames[m_size - 1];
+				m_detached = stack.m_detached[m_size - 1];
+				m_ref = stack.m_refs[m_size - 1];
+			}
+			else {
+				m_frame = null;
+				m_detached = false;
+				m_ref = -1;
+			}
+		}
+
+		/**
+		 * Return the number of frames the stack had when it was captured.
+		 * 
+		 * @return the stack size.
+		 */
+		int size() {
+			return m_size;
+		}
+	}
+
+	private ExecInfo[] m_frames = new ExecInfo[s_INITIAL_DEPTH];
+	private boolean[] m_detached = new boolean[s_INITIAL_DEPTH];
+	private int[] m_refs = new int[s_INITIAL_DEPTH];
+	private int m_depth;
+	private int m_offset;
+	private int m_floor = 1;
+	private boolean m_attached;
+	private ExecInfo m_carried;
+	private int m_entities;
+	private TelemetrySession m_session;
+	private boolean m_sampled = true;
+	private EntityPool m_pool;
+	private RecordArena m_arena;
+	private Thread m_contextOwner;
+	private String m_executionContext;
+
+	/**
+	 * Count an artifact retained in the session tree.
+	 */
+	void addEntity() {
+		m_entities++;
+	}
+
+	/**
+	 * Install a handoff captured on another thread. The top frame of the
+	 * handoff becomes the top of this stack and cannot be ended by the task.
+	 * The session, sampling decision and entity count of the handoff are used
+	 * until the handoff is detached, and the depth of the stack is measured from
+	 * the depth of the stack the handoff was captured from. Artifacts counted
+	 * while the handoff is attached are not added back to the submitting stack.
+	 * 
+	 * @param handoff
+	 *          The handoff captured on the submitting thread.
+	 * @return the state of this stack to restore with detach.
+	 */
+	Handoff attach(Handoff handoff) {
+		final Handoff outer = new Handoff(this);
+
+		m_session = handoff.m_session;
+		m_sampled = handoff.m_sampled;
+		m_entities = handoff.m_entities;
+		m_carried = handoff.m_retained;
+		push(handoff.m_frame, handoff.m_detached, handoff.m_ref);
+		m_floor = m_depth;
+		m_offset = handoff.m_size + handoff.m_offset - m_depth;
+		m_attached = true;
+
+		return outer;
+	}
+
+	/**
+	 * Remove all frames from the stack.
+	 */
+	void clear() {
+		for (int i = 0; i < m_depth; i++) {
+			m_frames[i] = null;
+		}
+		m_depth = 0;
+	}
+
+	/**
+	 * Return the depth of the stack, counting the frames of the stack a handoff
+	 * was captured from.
+	 * 
+	 * @return the stack depth.
+	 */
+	int depth() {
+		return m_depth + m_offset;
+	}
+
+	/**
+	 * Remove a handoff installed with attach. Any frames left above the
+	 * attached frame are discarded and the state of the stack is restored.
+	 * 
+	 * @param outer
+	 *          The state returned by attach.
+	 */
+	void detach(Handoff outer) {
+		while (m_depth > outer.m_size) {
+			pop();
+		}
+
+		m_session = outer.m_session;
+		m_sampled = outer.m_sampled;
+		m_entities = outer.m_entities;
+		m_offset = outer.m_offset;
+		m_floor = outer.m_floor;
+		m_carried = outer.m_carried;
+		m_attached = outer.m_attached;
+	}
+
+	/**
+	 * Return the record arena for this stack, creating it on first use.
+	 * 
+	 * @param capacity
+	 *          The initial capacity of the arena if it must be created.
+	 * @param direct
+	 *          True if the arena should be created outside of the heap.
+	 * @return the record arena.
+	 */
+	RecordArena getArena(int capacity, boolean direct) {
+		if (m_arena == null) {
+			m_arena = new RecordArena(capacity, direct);
+		}
+
+		return m_arena;
+	}
+
+	/**
+	 * Return the number of artifacts retained in the session tree.
+	 * 
+	 * @return the entity count.
+	 */
+	int getEntityCount() {
+		return m_entities;
+	}
+
+	/**
+	 * Return the execution context string cached for the calling thread.
+	 * 
+	 * @return the cached execution context or null if the calling thread has not
+	 *         set one.
+	 */
+	String getExecutionContext() {
+		return m_contextOwner == Thread.currentThread() ? m_executionContext : null;
+	}
+
+	/**
+	 * Return the number of frames that must stay on the stack. The frames below
+	 * the floor are the session, or the frame installed by attach, and are not
+	 * ended as transactions.
+	 * 
+	 * @return the stack floor.
+	 */
+	int getFloor() {
+		return m_floor;
+	}
+
+	/**
+	 * Return the entity pool for this stack, creating it on first use.
+	 * 
+	 * @param capacity
+	 *          The capacity of the pool if it must be created.
+	 * @return the entity pool.
+	 */
+	EntityPool getPool(int capacity) {
+		if (m_pool == null) {
+			m_pool = new EntityPool(capacity);
+		}
+
+		return m_pool;
+	}
+
+	/**
+	 * Return the session that is at the bottom of this stack.
+	 * 
+	 * @return the current session.
+	 */
+	TelemetrySession getSession() {
+		return m_session;
+	}
+
+	/**
+	 * Capture the state of this stack so that a task can carry it to another
+	 * thread. The top frame is marked as shared, since the task may add children
+	 * to it.
+	 * 
+	 * @return the handoff for the top frame.
+	 * @throws EmptyStackException
+	 *           if the stack has no frames.
+	 */
+	Handoff handoff() {
+		if (m_depth == 0) {
+			throw new EmptyStackException();
+		}
+
+		m_frames[m_depth - 1].markShared();
+		return new Handoff(this);
+	}
+
+	/**
+	 * Return true if a handoff from another thread is installed on this stack.
+	 * 
+	 * @return true if the stack is running a task for another thread.
+	 */
+	boolean isAttached() {
+		return m_attached;
+	}
+
+	/**
+	 * Return true if the frame on the top of the stack is not part of the
+	 * session tree.
+	 * 
+	 * @return true if the top frame is detached.
+	 */
+	boolean isDetached() {
+		return m_depth > 0 && m_detached[m_depth - 1];
+	}
+
+	/**
+	 * Return true if the current session is being captured.
+	 * 
+	 * @return true if the session is sampled.
+	 */
+	boolean isSampled() {
+		return m_sampled;
+	}
+
+	/**
+	 * Return the frame on the top of the stack without removing it.
+	 * 
+	 * @return the top frame.
+	 * @throws EmptyStackException
+	 *           if the stack has no frames.
+	 */
+	ExecInfo peek() {
+		if (m_depth == 0) {
+			throw new EmptyStackException();
+		}
+
+		return m_frames[m_depth - 1];
+	}
+
+	/**
+	 * Return the record reference of the frame on the top of the stack.
+	 * 
+	 * @return the reference or -1 if the top frame is not being recorded.
+	 */
+	int peekRef() {
+		return m_depth > 0 ? m_refs[m_depth - 1] : -1;
+	}
+
+	/**
+	 * Remove and return the frame on the top of the stack.
+	 * 
+	 * @return the top frame.
+	 * @throws EmptyStackException
+	 *           if the stack has no frames.
+	 */
+	ExecInfo pop() {
+		if (m_depth == 0) {
+			throw new EmptyStackException();
+		}
+
+		final ExecInfo top = m_frames[--m_depth];
+		m_frames[m_depth] = null;
+
+		return top;
+	}
+
+	/**
+	 * Push a frame on to the top of the stack. The stack grows as needed.
+	 * 
+	 * @param frame
+	 *          The frame to push.
+	 */
+	void push(ExecInfo frame) {
+		push(frame, false);
+	}
+
+	/**
+	 * Push a frame on to the top of the stack, marking whether it is part of the
+	 * session tree.
+	 * 
+	 * @param frame
+	 *          The frame to push.
+	 * @param detached
+	 *          True if the frame was not added to the session tree.
+	 */
+	void push(ExecInfo frame, boolean detached) {
+		push(frame, detached, -1);
+	}
+
+	/**
+	 * Push a frame on to the top of the stack along with its record reference.
+	 * 
+	 * @param frame
+	 *          The frame to push.
+	 * @param detached
+	 *          True if the frame was not added to the session tree.
+	 * @param ref
+	 *          The reference of the frame in the record arena or -1 if it is not
+	 *          being recorded.
+	 */
+	void push(ExecInfo frame, boolean detached, int ref) {
+		if (m_depth == m_frames.length) {
+			final ExecInfo[] grown = new ExecInfo[m_frames.length * 2];
+			System.arraycopy(m_frames, 0, grown, 0, m_depth);
+			m_frames = grown;
+
+			final boolean[] marks = new boolean[grown.length];
+			System.arraycopy(m_detached, 0, marks, 0, m_depth);
+			m_detached = marks;
+
+			final int[] refs = new int[grown.length];
+			System.arraycopy(m_refs, 0, refs, 0, m_depth);
+			m_refs = refs;
+		}
+
+		m_detached[m_depth] = detached;
+		m_refs[m_depth] = ref;
+		m_frames[m_depth++] = frame;
+	}
+
+	/**
+	 * Stop counting artifacts that have left the session tree.
+	 * 
+	 * @param count
+	 *          The number of artifacts removed.
+	 */
+	void removeEntities(int count) {
+		m_entities = Math.max(0, m_entities - count);
+	}
+
+	/**
+	 * Return the frame nearest the top of the stack that is part of the session
+	 * tree. While a handoff is attached, the search continues on the stack the
+	 * handoff was captured from.
+	 * 
+	 * @return the nearest retained frame.
+	 * @throws EmptyStackException
+	 *           if the stack has no retained frames.
+	 */
+	ExecInfo retained() {
+		final ExecInfo retained = nearestRetained();
+		if (retained == null) {
+			throw new EmptyStackException();
+		}
+
+		return retained;
+	}
+
+	private ExecInfo nearestRetained() {
+		final int bottom = m_attached ? m_floor - 1 : 0;
+		for (int i = m_depth - 1; i >= bottom; i--) {
+			if (!m_detached[i]) {
+				return m_frames[i];
+			}
+		}
+
+		return m_attached ? m_carried : null;
+	}
+
+	/**
+	 * Cache the execution context string for the calling thread.
+	 * 
+	 * @param executionContext
+	 *          The execution context of the calling thread.
+	 */
+	void setExecutionContext(String executionContext) {
+		m_contextOwner = Thread.currentThread();
+		m_executionContext = executionContext;
+	}
+
+	/**
+	 * Set the session for this stack. The stack is cleared and the session
+	 * becomes the bottom frame.
+	 * 
+	 * @param session
+	 *          The new session.
+	 * @param sampled
+	 *          True if the session is being captured.
+	 * @param ref
+	 *          The reference of the session in the record arena or -1 if it is
+	 *          not being recorded.
+	 */
+	void setSession(TelemetrySession session, boolean sampled, int ref) {
+		clear();
+		m_session = session;
+		m_sampled = sampled;
+		m_entities = 0;
+		push(session, false, ref);
+	}
+
+	/**
+	 * Return the number of frames on the stack.
+	 * 
+	 * @return the stack depth.
+	 */
+	int size() {
+		return m_depth;
+	}
+}
@@ -19,17 +19,27 @@ package org.addsimplicity.anicetus;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.addsimplicity.anicetus.entity.CompletionStatus;
 import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.ExecInfoFields;
 import org.addsimplicity.anicetus.entity.GlobalInfo;
 import org.addsimplicity.anicetus.entity.SubTypedInfo;
 import org.addsimplicity.anicetus.entity.TelemetryEvent;
 import org.addsimplicity.anicetus.entity.TelemetrySession;
 import org.addsimplicity.anicetus.entity.TelemetryState;
+import org.addsimplicity.anicetus.entity.TelemetrySummary;
 import org.addsimplicity.anicetus.entity.TelemetryTransaction;
 import org.addsimplicity.anicetus.io.DeliveryAdapter;
+import org.addsimplicity.anicetus.io.SynchronousDelivery;
+import org.addsimplicity.anicetus.io.record.RecordArena;
+import org.addsimplicity.anicetus.io.record.RecordDecoder;
+import org.addsimplicity.anicetus.io.record.RecordDeliveryAdapter;
+import org.addsimplicity.anicetus.sampling.SessionSampler;
+import org.addsimplicity.anicetus.sampling.TailSampler;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
@@ -54,16 +64,92 @@ import org.springframework.beans.factory.InitializingBean;
  * These methods are automatically called from the Spring container if Spring is
  * used to manage the lifecycle of the context.
  * 
+ * By default a context holds a single execution stack and must not be shared
+ * between threads. When thread confinement is enabled, each thread that uses
+ * the context is given its own session and execution stack. This allows a
+ * single context, such as a Spring singleton, to be used by every request
+ * thread of a server without any locking on the instrumentation path. Each
+ * thread's session is started the first time the thread uses the context.
+ * 
+ * A thread confined context can also follow work that is handed to other
+ * threads. The wrap methods capture the current transaction and install it as
+ * the parent on the thread that runs the task, so the telemetry created by the
+ * task is attached to the tree of the thread that submitted it.
+ * 
+ * A session sampler may be set to capture only a portion of the sessions. The
+ * sampler is consulted as each session starts. When a session is not sampled,
+ * the context hands out shared stand in artifacts that discard everything set
+ * on them and the session is not delivered when it ends. A tail sampler may
+ * also be set. It sees each completed session and decides whether it is
+ * delivered, which allows failed or slow sessions to be kept while healthy
+ * ones are thinned out.
+ * 
+ * Pooling may be enabled to reduce the garbage created by instrumentation.
+ * When the delivery adapter is synchronous, each session tree is returned to
+ * a pool held by the execution stack once it has been delivered, and the
+ * sessions, transactions, events, and states of later sessions are taken from
+ * that pool. With pooling enabled the application must not hold a reference to
+ * any artifact after the session containing it has ended.
+ * 
+ * Limits may be set on the number of children of each container, the depth of
+ * the tree, and the number of artifacts in a session. Once a limit is reached,
+ * the transactions, events, and states created through the context are still
+ * returned to the application but are not retained in the tree. Instead they
+ * are folded into a summary attached to the nearest retained container when
+ * they end. This bounds the memory held by long running sessions and the size
+ * of the delivered telemetry.
+ * 
+ * Long running sessions may be delivered incrementally. In incremental mode,
+ * each transaction is removed from the tree and delivered on its own as soon as
+ * it ends, carrying the identifier of its parent so that a consumer can
+ * reassemble the session. The open session then only holds the transactions
+ * that are in flight along with its events and states. When pooling is also
+ * enabled, a transaction must not be referenced once it has ended.
+ * 
+ * The context may deliver immutable snapshots rather than the live artifacts.
+ * Asynchronous delivery adapters are then free to encode the telemetry on
+ * their own threads while the application carries on, and the delivered trees
+ * can be pooled no matter which adapter is used.
+ * 
+ * In recording mode, the session is not held as a tree at all. Each
+ * transaction, event, and state is written to a binary record arena owned by
+ * the execution stack as it is created, and every property set on it is
+ * appended as it is set. The arena may be allocated outside of the heap. When
+ * the session ends, a RecordDeliveryAdapter is handed the filled arena without
+ * any further serialization. Other adapters, and the tail sampler, are given
+ * the tree rebuilt from the records. Telemetry created by tasks handed to
+ * other threads is not recorded, and incremental delivery does not apply.
+ * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
 public class TelemetryContext implements InitializingBean, DisposableBean {
-	private final Stack<ExecInfo> m_context = new Stack<ExecInfo>();
+	private static final TelemetryTransaction s_unsampledTransaction = unsampled(new TelemetryTransaction());
+	private static final TelemetryEvent s_unsampledEvent = unsampled(new TelemetryEvent());
+	private static final TelemetryState s_unsampledState = unsampled(new TelemetryState());
+	private static final String s_sampleRate = ExecInfoFields.SampleRate.name();
+
+	private final ExecutionStack m_sharedStack = new ExecutionStack();
+	private final ThreadLocal<ExecutionStack> m_threadStacks = new ThreadLocal<ExecutionStack>();
+	private final RecordDecoder m_recordDecoder = new RecordDecoder();
 	private DeliveryAdapter m_deliveryAdapter;
 	private String m_operationName;
 	private int m_processIdentifier = -1;
 	private String m_reportingNode;
-	private TelemetrySession m_session;
+	private boolean m_threadConfined;
+	private boolean m_pooling;
+	private boolean m_incremental;
+	private boolean m_snapshot;
+	private boolean m_recording;
+	private boolean m_recordDirect;
+	private int m_recordCapacity = 64 * 1024;
+	private int m_poolSize = 64;
+	private int m_maxChildren;
+	private int m_maxDepth;
+	private int m_maxEntities;
+	private SessionSampler m_sessionSampler;
+	private TailSampler m_tailSampler;
+	private volatile TelemetrySession m_unsampledSession;
 
 	/**
 	 * Called after the Spring framework sets all properties. This method will
@@ -84,11 +170,35 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * @return an initialized transaction.
 	 */
 	public TelemetryTransaction beginTransaction(String resourceId) {
-		final TelemetryTransaction trans = new TelemetryTransaction(m_context.peek());
+		final ExecutionStack stack = currentStack();
+		if (!stack.isSampled()) {
+			stack.push(s_unsampledTransaction);
+			return s_unsampledTransaction;
+		}
+
+		if (overLimit(stack)) {
+			final TelemetryTransaction trans = new TelemetryTransaction();
+			trans.setParentId(stack.peek().getEntityId());
+			trans.setResourceId(resourceId);
+			setReporting(stack, trans);
+			stack.push(trans, true);
+
+			return trans;
+		}
+
+		stack.addEntity();
+		TelemetryTransaction trans = m_pooling ? stack.getPool(m_poolSize).takeTransaction() : null;
+		if (trans == null) {
+			trans = new TelemetryTransaction();
+		}
+		else {
+			trans.reset();
+		}
+		adopt(stack, trans);
 		trans.setResourceId(resourceId);
-		setReporting(trans);
+		setReporting(stack, trans);
 
-		m_context.push(trans);
+		stack.push(trans, false, record(stack, trans));
 
 		return trans;
 	}
@@ -96,28 +206,36 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	/**
 	 * The destroy method is called by the Spring framework when the context is
 	 * being disposed. An open session will be closed and published before the
-	 * bean is disposed.
+	 * bean is disposed. With thread confinement enabled, only the session of
+	 * the thread disposing the bean can be closed.
 	 * 
 	 * @see org.springframework.beans.factory.DisposableBean#destroy()
 	 */
 	public void destroy() throws Exception {
-		if (m_context.size() > 0) {
-			endSession();
+		final ExecutionStack stack = m_threadConfined ? m_threadStacks.get() : m_sharedStack;
+		if (stack != null && stack.size() > 0 && !stack.isAttached()) {
+			closeSession(stack);
 		}
+
+		m_threadStacks.remove();
 	}
 
 	/**
 	 * The current session is ended. Any open transactions are closed with their
 	 * completion status set to unknown. The session is published on the telemetry
-	 * bus.
+	 * bus unless it was not sampled or the tail sampler rejects it. A task
+	 * running for another thread only closes the transactions it opened, since
+	 * the session belongs to the thread that submitted the task.
 	 */
 	public void endSession() {
-		closeDanglingTrans();
-		m_session.complete();
-		m_context.pop();
+		final ExecutionStack stack = currentStack();
+		if (stack.isAttached()) {
+			closeDanglingTrans(stack);
+			return;
+		}
 
-		m_deliveryAdapter.sendTelemetry(m_session);
-		startSession();
+		closeSession(stack);
+		startSession(stack);
 	}
 
 	/**
@@ -125,17 +243,38 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * unknown if it has not already been set.
 	 */
 	public void endTransaction() {
-		if (m_context.size() <= 1) {
+		endTransaction(currentStack());
+	}
+
+	private void endTransaction(ExecutionStack stack) {
+		if (stack.size() <= stack.getFloor()) {
 			return; // Something is unbalanced but do we throw exceptions in reporting
 			// flows?
 		}
 
-		final TelemetryTransaction trans = (TelemetryTransaction) m_context.pop();
+		final boolean detached = stack.isDetached();
+		final int ref = stack.peekRef();
+		final ExecInfo trans = stack.pop();
+		if (!stack.isSampled()) {
+			return;
+		}
+
 		if (trans.getStatus() == null) {
 			trans.setStatus(CompletionStatus.Unknown);
 		}
 
 		trans.complete();
+
+		if (detached) {
+			stack.retained().summarize(trans);
+		}
+		else if (ref >= 0) {
+			stack.getArena(m_recordCapacity, m_recordDirect).finish(trans, ref);
+		}
+		else if (m_incremental && stack.peek().removeChild(trans)) {
+			stack.removeEntities(countEntities(trans));
+			deliver(stack, trans);
+		}
 	}
 
 	/**
@@ -147,6 +286,33 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		return m_deliveryAdapter;
 	}
 
+	/**
+	 * Return the maximum number of children retained by each container.
+	 * 
+	 * @return the child limit or zero if there is no limit.
+	 */
+	public int getMaxChildren() {
+		return m_maxChildren;
+	}
+
+	/**
+	 * Return the maximum depth of the session tree below the session.
+	 * 
+	 * @return the depth limit or zero if there is no limit.
+	 */
+	public int getMaxDepth() {
+		return m_maxDepth;
+	}
+
+	/**
+	 * Return the maximum number of artifacts retained in a session tree.
+	 * 
+	 * @return the entity limit or zero if there is no limit.
+	 */
+	public int getMaxEntities() {
+		return m_maxEntities;
+	}
+
 	/**
 	 * Return the operation name. The operation name is set on the session when it
 	 * is created.
@@ -169,6 +335,26 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		return m_processIdentifier;
 	}
 
+	/**
+	 * Return the number of artifacts of each type retained by the pool of an
+	 * execution stack.
+	 * 
+	 * @return the pool size.
+	 */
+	public int getPoolSize() {
+		return m_poolSize;
+	}
+
+	/**
+	 * Return the initial capacity in bytes of the record arena of an execution
+	 * stack.
+	 * 
+	 * @return the record capacity.
+	 */
+	public int getRecordCapacity() {
+		return m_recordCapacity;
+	}
+
 	/**
 	 * Return the reporting node. The reporting node is set to the host name of
 	 * the default interface on the system where the application is run. The
@@ -181,12 +367,87 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	}
 
 	/**
-	 * Return the current active session.
+	 * Return the sampler consulted when sessions start.
+	 * 
+	 * @return the session sampler or null if every session is captured.
+	 */
+	public SessionSampler getSessionSampler() {
+		return m_sessionSampler;
+	}
+
+	/**
+	 * Return the current active session. With thread confinement enabled this is
+	 * the session of the calling thread.
 	 * 
 	 * @return the current active session.
 	 */
 	public TelemetrySession getSession() {
-		return m_session;
+		return currentStack().getSession();
+	}
+
+	/**
+	 * Return the sampler consulted when sessions end.
+	 * 
+	 * @return the tail sampler or null if every completed session is delivered.
+	 */
+	public TailSampler getTailSampler() {
+		return m_tailSampler;
+	}
+
+	/**
+	 * Return true if transactions are delivered as soon as they end.
+	 * 
+	 * @return true if the session is delivered incrementally.
+	 */
+	public boolean isIncremental() {
+		return m_incremental;
+	}
+
+	/**
+	 * Return true if completed sessions are pooled for reuse.
+	 * 
+	 * @return true if pooling is enabled.
+	 */
+	public boolean isPooling() {
+		return m_pooling;
+	}
+
+	/**
+	 * Return true if the record arenas are allocated outside of the heap.
+	 * 
+	 * @return true if the record arenas are direct buffers.
+	 */
+	public boolean isRecordDirect() {
+		return m_recordDirect;
+	}
+
+	/**
+	 * Return true if sessions are recorded to a binary arena as they run.
+	 * 
+	 * @return true if recording is enabled.
+	 */
+	public boolean isRecording() {
+		return m_recording;
+	}
+
+	/**
+	 * Return true if immutable snapshots are delivered in place of the live
+	 * telemetry.
+	 * 
+	 * @return true if snapshots are delivered.
+	 */
+	public boolean isSnapshot() {
+		return m_snapshot;
+	}
+
+	/**
+	 * Return true if each thread using this context is given its own session and
+	 * execution stack.
+	 * 
+	 * @return true if the context is thread confined.
+	 */
+	public boolean isThreadConfined() {
+		return m_threadConfined;
 	}
 
 	/**
@@ -197,9 +458,31 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * @return the newly created event.
 	 */
 	public SubTypedInfo newEvent(String type) {
-		final SubTypedInfo evt = new TelemetryEvent(m_context.peek());
+		final ExecutionStack stack = currentStack();
+		if (!stack.isSampled()) {
+			return s_unsampledEvent;
+		}
+
+		if (overLimit(stack)) {
+			final TelemetryEvent evt = new TelemetryEvent();
+			evt.setType(type);
+			stack.retained().summarize(evt);
+
+			return evt;
+		}
+
+		stack.addEntity();
+		TelemetryEvent evt = m_pooling ? stack.getPool(m_poolSize).takeEvent() : null;
+		if (evt == null) {
+			evt = new TelemetryEvent();
+		}
+		else {
+			evt.reset();
+		}
+		adopt(stack, evt);
 		evt.setType(type);
-		setReporting(evt);
+		setReporting(stack, evt);
+		record(stack, evt);
 
 		return evt;
 	}
@@ -210,8 +493,29 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * @return the newly created state.
 	 */
 	public TelemetryState newState() {
-		final TelemetryState state = new TelemetryState(m_context.peek());
-		setReporting(state);
+		final ExecutionStack stack = currentStack();
+		if (!stack.isSampled()) {
+			return s_unsampledState;
+		}
+
+		if (overLimit(stack)) {
+			final TelemetryState state = new TelemetryState();
+			stack.retained().summarize(state);
+
+			return state;
+		}
+
+		stack.addEntity();
+		TelemetryState state = m_pooling ? stack.getPool(m_poolSize).takeState() : null;
+		if (state == null) {
+			state = new TelemetryState();
+		}
+		else {
+			state.reset();
+		}
+		adopt(stack, state);
+		setReporting(stack, state);
+		record(stack, state);
 
 		return state;
 	}
@@ -222,7 +526,7 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * @return the session or transaction context in effect.
 	 */
 	public ExecInfo peekTransaction() {
-		return m_context.peek();
+		return currentStack().peek();
 	}
 
 	/**
@@ -232,7 +536,8 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 * @return the current transaction or null if no transactions are left.
 	 */
 	public ExecInfo popTransaction() {
-		return m_context.size() > 1 ? m_context.pop() : null;
+		final ExecutionStack stack = currentStack();
+		return stack.size() > stack.getFloor() ? stack.pop() : null;
 	}
 
 	/**
@@ -243,9 +548,10 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 *          The transaction to push.
 	 */
 	public void pushTransaction(ExecInfo transaction) {
-		setReporting(transaction);
+		final ExecutionStack stack = currentStack();
+		setReporting(stack, transaction);
 
-		m_context.push(transaction);
+		stack.push(transaction, false, record(stack, transaction));
 	}
 
 	/**
@@ -258,7 +564,7 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 	 */
 	public void sendBeacon(GlobalInfo beacon) {
 		fillBaseInfo(beacon);
-		m_deliveryAdapter.sendTelemetry(beacon);
+		m_deliveryAdapter.sendTelemetry(m_snapshot ? beacon.snapshot() : beacon);
 	}
 
 	/**
@@ -272,6 +578,53 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		m_deliveryAdapter = deliveryAdapter;
 	}
 
+	/**
+	 * Enable or disable incremental delivery. When enabled, each transaction is
+	 * detached from its parent and delivered when it ends. The tail sampler only
+	 * sees what is left of the session when it ends.
+	 * 
+	 * @param incremental
+	 *          True to deliver transactions as they end.
+	 */
+	public void setIncremental(boolean incremental) {
+		m_incremental = incremental;
+	}
+
+	/**
+	 * Set the maximum number of children retained by each container. Further
+	 * children are summarized. The default of zero places no limit.
+	 * 
+	 * @param maxChildren
+	 *          The child limit.
+	 */
+	public void setMaxChildren(int maxChildren) {
+		m_maxChildren = maxChildren;
+	}
+
+	/**
+	 * Set the maximum depth of the session tree below the session. Children of
+	 * containers at the maximum depth are summarized. The default of zero places
+	 * no limit.
+	 * 
+	 * @param maxDepth
+	 *          The depth limit.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		m_maxDepth = maxDepth;
+	}
+
+	/**
+	 * Set the maximum number of artifacts retained in a session tree, not
+	 * counting the session and summaries. Further artifacts are summarized. The
+	 * default of zero places no limit.
+	 * 
+	 * @param maxEntities
+	 *          The entity limit.
+	 */
+	public void setMaxEntities(int maxEntities) {
+		m_maxEntities = maxEntities;
+	}
+
 	/**
 	 * Set the operation name for this context. This will be set on sessions when
 	 * they are created.
@@ -282,6 +635,30 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		m_operationName = operationName;
 	}
 
+	/**
+	 * Enable or disable pooling of completed sessions. Pooling only takes effect
+	 * when the delivery adapter implements SynchronousDelivery, since the tree
+	 * must not be reused while an adapter may still be reading it. Only the
+	 * standard artifact types are pooled.
+	 * 
+	 * @param pooling
+	 *          True to reuse the artifacts of completed sessions.
+	 */
+	public void setPooling(boolean pooling) {
+		m_pooling = pooling;
+	}
+
+	/**
+	 * Set the number of artifacts of each type retained by the pool of an
+	 * execution stack. The default is 64.
+	 * 
+	 * @param poolSize
+	 *          The pool size.
+	 */
+	public void setPoolSize(int poolSize) {
+		m_poolSize = poolSize;
+	}
+
 	/**
 	 * Set the process identifier for this context. The process identifier should
 	 * be the operating system identifier for the JVM process.
@@ -293,6 +670,41 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		m_processIdentifier = processIdentifier;
 	}
 
+	/**
+	 * Set the initial capacity in bytes of the record arena of each execution
+	 * stack. The arena grows as needed. The default is 64K.
+	 * 
+	 * @param recordCapacity
+	 *          The record capacity.
+	 */
+	public void setRecordCapacity(int recordCapacity) {
+		m_recordCapacity = recordCapacity;
+	}
+
+	/**
+	 * Allocate the record arenas outside of the heap. Direct arenas can be handed
+	 * to channels without being copied.
+	 * 
+	 * @param recordDirect
+	 *          True to allocate direct buffers.
+	 */
+	public void setRecordDirect(boolean recordDirect) {
+		m_recordDirect = recordDirect;
+	}
+
+	/**
+	 * Enable or disable recording. When enabled, each session is written to a
+	 * binary record arena while it runs instead of being held as a tree. This
+	 * must be set before the context is initialized.
+	 * 
+	 * @param recording
+	 *          True to record sessions.
+	 * @see org.addsimplicity.anicetus.io.record.RecordDeliveryAdapter
+	 */
+	public void setRecording(boolean recording) {
+		m_recording = recording;
+	}
+
 	/**
 	 * Set the node identifier for this context. This is typically the host name
 	 * or IP address.
@@ -304,24 +716,287 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		m_reportingNode = reportingNode;
 	}
 
+	/**
+	 * Set the sampler that decides which sessions are captured. By default every
+	 * session is captured.
+	 * 
+	 * @param sessionSampler
+	 *          The sampler consulted as each session starts.
+	 */
+	public void setSessionSampler(SessionSampler sessionSampler) {
+		m_sessionSampler = sessionSampler;
+	}
+
+	/**
+	 * Enable or disable delivery of snapshots. When enabled, each session or
+	 * transaction is frozen into an immutable copy as it is delivered. Pooling
+	 * then applies to every delivery adapter since the adapter never sees the
+	 * artifacts that are reused.
+	 * 
+	 * @param snapshot
+	 *          True to deliver immutable snapshots.
+	 * @see org.addsimplicity.anicetus.entity.GlobalInfo#snapshot()
+	 */
+	public void setSnapshot(boolean snapshot) {
+		m_snapshot = snapshot;
+	}
+
+	/**
+	 * Set the sampler that decides which completed sessions are delivered. By
+	 * default every session is delivered.
+	 * 
+	 * @param tailSampler
+	 *          The sampler consulted as each session ends.
+	 */
+	public void setTailSampler(TailSampler tailSampler) {
+		m_tailSampler = tailSampler;
+	}
+
+	/**
+	 * Enable or disable thread confinement. When enabled, every thread using the
+	 * context is given its own session and execution stack so that a single
+	 * context may be shared by many threads. This must be set before the context
+	 * is initialized.
+	 * 
+	 * @param threadConfined
+	 *          True to give each thread its own session.
+	 */
+	public void setThreadConfined(boolean threadConfined) {
+		m_threadConfined = threadConfined;
+	}
+
 	/**
 	 * Start a new session. The session is filled with the current execution
-	 * environment information.
+	 * environment information. Any session in progress is discarded.
 	 */
 	public void startSession() {
-		m_session = createSession();
-		m_context.clear();
-		m_context.push(m_session);
-		m_session.setOperationName(m_operationName);
-		sniffHost();
-		m_session.setReportingNode(m_reportingNode);
-		sniffProcessId();
-		m_session.setExecutionContext(makeExecContext());
+		startSession(m_threadConfined ? confinedStack() : m_sharedStack);
+	}
+
+	/**
+	 * Wrap a callable so that it runs with the current transaction as its
+	 * parent. Any transactions, events, and states created by the callable are
+	 * added as children of the transaction that was current when this method was
+	 * called. Transactions left open by the callable are closed when it returns.
+	 * The callable is returned unchanged if the context is not thread confined.
+	 * 
+	 * @param task
+	 *          The callable to wrap.
+	 * @return a callable that propagates the telemetry context.
+	 */
+	public <V> Callable<V> wrap(Callable<V> task) {
+		if (!m_threadConfined) {
+			return task;
+		}
+
+		return new ContextCallable<V>(this, currentStack().handoff(), task);
+	}
+
+	/**
+	 * Wrap an executor so that every task it runs is parented to the
+	 * transaction that was current on the thread that submitted the task.
+	 * 
+	 * @param executor
+	 *          The executor to wrap.
+	 * @return an executor that propagates the telemetry context.
+	 * @see #wrap(Runnable)
+	 */
+	public Executor wrap(Executor executor) {
+		if (!m_threadConfined) {
+			return executor;
+		}
+
+		return new ContextExecutor(this, executor);
+	}
+
+	/**
+	 * Wrap an executor service so that every task it runs is parented to the
+	 * transaction that was current on the thread that submitted the task. The
+	 * life cycle methods are passed through to the wrapped service.
+	 * 
+	 * @param executor
+	 *          The executor service to wrap.
+	 * @return an executor service that propagates the telemetry context.
+	 * @see #wrap(Callable)
+	 */
+	public ExecutorService wrap(ExecutorService executor) {
+		if (!m_threadConfined) {
+			return executor;
+		}
+
+		return new ContextExecutorService(this, executor);
+	}
+
+	/**
+	 * Wrap a runnable so that it runs with the current transaction as its
+	 * parent.
+	 * 
+	 * @param task
+	 *          The runnable to wrap.
+	 * @return a runnable that propagates the telemetry context.
+	 * @see #wrap(Callable)
+	 */
+	public Runnable wrap(Runnable task) {
+		if (!m_threadConfined) {
+			return task;
+		}
+
+		return new ContextRunnable(this, currentStack().handoff(), task);
+	}
+
+	/**
+	 * Install a handoff on the calling thread's execution stack. This is used by
+	 * the wrappers to carry a transaction to another thread, along with the
+	 * session, sampling decision and limits of the thread that submitted it. The
+	 * session of the calling thread is not started if it doesn't have one.
+	 * 
+	 * @param handoff
+	 *          The handoff captured on the submitting thread.
+	 * @return the state of the calling thread's stack to pass to detach.
+	 */
+	ExecutionStack.Handoff attach(ExecutionStack.Handoff handoff) {
+		return confinedStack().attach(handoff);
+	}
+
+	/**
+	 * Remove a handoff previously installed with attach. Any transaction the
+	 * task left open is ended first.
+	 * 
+	 * @param outer
+	 *          The state returned by attach.
+	 */
+	void detach(ExecutionStack.Handoff outer) {
+		final ExecutionStack stack = confinedStack();
+		while (stack.size() > outer.size() + 1) {
+			endTransaction(stack);
+		}
+		stack.detach(outer);
+	}
+
+	private void closeDanglingTrans(ExecutionStack stack) {
+		while (stack.size() > stack.getFloor()) {
+			endTransaction(stack);
+		}
+	}
+
+	private void closeSession(ExecutionStack stack) {
+		closeDanglingTrans(stack);
+		final TelemetrySession session = stack.getSession();
+		if (!stack.isSampled() || session == null) {
+			stack.pop();
+			return;
+		}
+
+		session.complete();
+		final int ref = stack.peekRef();
+		stack.pop();
+
+		if (ref >= 0) {
+			closeRecording(stack, session, ref);
+		}
+		else if (m_tailSampler == null || m_tailSampler.keepSession(session)) {
+			deliver(stack, session);
+		}
+		else if (m_pooling) {
+			stack.getPool(m_poolSize).release(session);
+		}
 	}
 
-	private void closeDanglingTrans() {
-		while (m_context.size() > 1) {
-			endTransaction();
+	private void closeRecording(ExecutionStack stack, TelemetrySession session, int ref) {
+		final RecordArena arena = stack.getArena(m_recordCapacity, m_recordDirect);
+		arena.finish(session, ref);
+
+		try {
+			GlobalInfo tree = null;
+			if (m_tailSampler != null) {
+				tree = m_recordDecoder.decode(arena.records());
+				if (!(tree instanceof TelemetrySession) || !m_tailSampler.keepSession((TelemetrySession) tree)) {
+					return;
+				}
+			}
+
+			if (m_deliveryAdapter instanceof RecordDeliveryAdapter) {
+				// The tail sampler records its decision on the decoded tree, so the rate
+				// is appended to the records that are sent in place of the tree.
+				//
+				if (tree != null && tree.containsKey(s_sampleRate)) {
+					arena.recordDouble(ref, s_sampleRate, ((ExecInfo) tree).getSampleRate());
+				}
+				((RecordDeliveryAdapter) m_deliveryAdapter).sendRecords(arena.records());
+			}
+			else {
+				m_deliveryAdapter.sendTelemetry(tree != null ? tree : m_recordDecoder.decode(arena.records()));
+			}
+		}
+		finally {
+			arena.clear();
+			if (m_pooling) {
+				stack.getPool(m_poolSize).release(session);
+			}
+		}
+	}
+
+	private ExecutionStack confinedStack() {
+		ExecutionStack stack = m_threadStacks.get();
+		if (stack == null) {
+			stack = new ExecutionStack();
+			m_threadStacks.set(stack);
+		}
+
+		return stack;
+	}
+
+	private void adopt(ExecutionStack stack, GlobalInfo child) {
+		// The arena belongs to the thread that submitted a handed off task, so the
+		// task builds its artifacts as a tree under the handed off frame. The tree
+		// is recorded when that frame is finished.
+		//
+		if (m_recording && !stack.isAttached()) {
+			child.setParentId(stack.peek().getEntityId());
+		}
+		else {
+			// Containers built by a handed off task hang from a shared frame and
+			// may be read by the submitting thread while the task adds to them.
+			//
+			if (stack.isAttached() && child instanceof ExecInfo) {
+				((ExecInfo) child).markShared();
+			}
+			stack.peek().addChild(child);
+		}
+	}
+
+	private int countEntities(ExecInfo root) {
+		int count = 1;
+		for (GlobalInfo child : root.getChildren()) {
+			if (child instanceof ExecInfo) {
+				count += countEntities((ExecInfo) child);
+			}
+			else if (!(child instanceof TelemetrySummary)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private ExecutionStack currentStack() {
+		if (!m_threadConfined) {
+			return m_sharedStack;
+		}
+
+		final ExecutionStack stack = confinedStack();
+		if (stack.size() == 0) {
+			startSession(stack);
+		}
+
+		return stack;
+	}
+
+	private void deliver(ExecutionStack stack, ExecInfo root) {
+		m_deliveryAdapter.sendTelemetry(m_snapshot ? root.snapshot() : root);
+
+		if (m_pooling && (m_snapshot || m_deliveryAdapter instanceof SynchronousDelivery)) {
+			stack.getPool(m_poolSize).release(root);
 		}
 	}
 
@@ -335,12 +1010,47 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		}
 	}
 
+	private String makeExecContext(ExecutionStack stack) {
+		String context = stack.getExecutionContext();
+		if (context == null) {
+			context = makeExecContext();
+			stack.setExecutionContext(context);
+		}
+
+		return context;
+	}
+
 	private String makeExecContext() {
 		return (m_processIdentifier >= 0 ? m_processIdentifier : "UNKNOWN") + "." + Thread.currentThread().getId();
 	}
 
-	private void setReporting(GlobalInfo target) {
-		target.setReportingNode(m_context.peek().getReportingNode());
+	private boolean overLimit(ExecutionStack stack) {
+		if (stack.isDetached()) {
+			return true;
+		}
+
+		if (m_maxEntities > 0 && stack.getEntityCount() >= m_maxEntities) {
+			return true;
+		}
+
+		if (m_maxDepth > 0 && stack.depth() > m_maxDepth) {
+			return true;
+		}
+
+		return m_maxChildren > 0 && stack.peek().getChildCount() >= m_maxChildren;
+	}
+
+	private int record(ExecutionStack stack, GlobalInfo info) {
+		final int parentRef = stack.peekRef();
+		if (!m_recording || parentRef < 0 || stack.isAttached()) {
+			return -1;
+		}
+
+		return stack.getArena(m_recordCapacity, m_recordDirect).begin(info, parentRef);
+	}
+
+	private void setReporting(ExecutionStack stack, GlobalInfo target) {
+		target.setReportingNode(stack.peek().getReportingNode());
 	}
 
 	private void sniffHost() {
@@ -375,6 +1085,54 @@ public class TelemetryContext implements InitializingBean, DisposableBean {
 		}
 	}
 
+	private void startSession(ExecutionStack stack) {
+		if (m_sessionSampler != null && !m_sessionSampler.sampleSession(m_operationName)) {
+			stack.setSession(unsampledSession(), false, -1);
+			return;
+		}
+
+		TelemetrySession session = m_pooling ? stack.getPool(m_poolSize).takeSession() : null;
+		if (session == null) {
+			session = createSession();
+		}
+		else {
+			session.reset();
+		}
+		session.setOperationName(m_operationName);
+		sniffHost();
+		session.setReportingNode(m_reportingNode);
+		sniffProcessId();
+		session.setExecutionContext(makeExecContext(stack));
+
+		int ref = -1;
+		if (m_recording) {
+			final RecordArena arena = stack.getArena(m_recordCapacity, m_recordDirect);
+			arena.clear();
+			ref = arena.begin(session, -1);
+		}
+		stack.setSession(session, true, ref);
+	}
+
+	private TelemetrySession unsampledSession() {
+		TelemetrySession session = m_unsampledSession;
+		if (session == null) {
+			session = createSession();
+			session.setOperationName(m_operationName);
+			m_unsampledSession = unsampled(session);
+		}
+
+		return session;
+	}
+
+	private static <T extends GlobalInfo> T unsampled(T info) {
+		if (info instanceof ExecInfo) {
+			((ExecInfo) info).complete();
+		}
+		info.markUnsampled();
+
+		return info;
+	}
+
 	protected TelemetrySession createSession() {
 		return new TelemetrySession();
 	}
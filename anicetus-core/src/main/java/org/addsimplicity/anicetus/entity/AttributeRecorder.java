@@ -0,0 +1,93 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+/**
+ * An AttributeRecorder is told about every property as it is set on an
+ * artifact. It allows the properties of a session to be captured as they
+ * happen rather than by walking the finished tree. Each artifact is known to
+ * the recorder by the reference it was given when the recorder was attached.
+ * 
+ * Properties are reported after they are stored. Removing a property is not
+ * reported and neither are changes made to a mutable value after it was set.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.GlobalInfo#setRecorder(AttributeRecorder,
+ *      int)
+ * 
+ */
+public interface AttributeRecorder {
+	/**
+	 * Record a boolean property.
+	 * 
+	 * @param ref
+	 *          The reference of the artifact.
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	void recordBoolean(int ref, String key, boolean value);
+
+	/**
+	 * Record a double property.
+	 * 
+	 * @param ref
+	 *          The reference of the artifact.
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	void recordDouble(int ref, String key, double value);
+
+	/**
+	 * Record an integer property.
+	 * 
+	 * @param ref
+	 *          The reference of the artifact.
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	void recordInt(int ref, String key, int value);
+
+	/**
+	 * Record a long property.
+	 * 
+	 * @param ref
+	 *          The reference of the artifact.
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	void recordLong(int ref, String key, long value);
+
+	/**
+	 * Record a property that is held as an object.
+	 * 
+	 * @param ref
+	 *          The reference of the artifact.
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value, which may be null.
+	 */
+	void recordObject(int ref, String key, Object value);
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.io.IOException;
+
+/**
+ * An AttributeVisitor is given each property of an artifact without the
+ * primitive values being boxed. Properties set with the typed put methods are
+ * passed to the matching primitive method while all other properties are
+ * passed as objects.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.GlobalInfo#visitAttributes(AttributeVisitor)
+ * 
+ */
+public interface AttributeVisitor {
+	/**
+	 * Visit a boolean property.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 * @throws IOException
+	 *           if the visitor is writing the property and the write fails.
+	 */
+	void visitBoolean(String key, boolean value) throws IOException;
+
+	/**
+	 * Visit a double property.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 * @throws IOException
+	 *           if the visitor is writing the property and the write fails.
+	 */
+	void visitDouble(String key, double value) throws IOException;
+
+	/**
+	 * Visit an integer property.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 * @throws IOException
+	 *           if the visitor is writing the property and the write fails.
+	 */
+	void visitInt(String key, int value) throws IOException;
+
+	/**
+	 * Visit a long property.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 * @throws IOException
+	 *           if the visitor is writing the property and the write fails.
+	 */
+	void visitLong(String key, long value) throws IOException;
+
+	/**
+	 * Visit a property that is held as an object.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value, which may be null.
+	 * @throws IOException
+	 *           if the visitor is writing the property and the write fails.
+	 */
+	void visitObject(String key, Object value) throws IOException;
+}
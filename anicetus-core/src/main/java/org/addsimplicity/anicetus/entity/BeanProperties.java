@@ -0,0 +1,193 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The bean properties of a class registered as a bean type. The table is built
+ * once, when the class is registered, so that encoders do not have to search
+ * the methods of every bean they write. A property is any public instance
+ * method whose name starts with get, takes no arguments, and returns a value.
+ * The getClass method is not a property. Properties are ordered by name.
+ * 
+ * Each property is classified by the type its getter returns, which allows an
+ * encoder to write numbers, booleans, and strings directly.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.EntityTypeRegistry#addBeanType(Class)
+ * 
+ */
+public final class BeanProperties {
+	/**
+	 * The kinds of property values.
+	 */
+	public enum Kind {
+		/**
+		 * A primitive or boxed boolean.
+		 */
+		Boolean,
+
+		/**
+		 * A primitive or boxed float or double.
+		 */
+		Floating,
+
+		/**
+		 * A primitive or boxed byte, short, int, or long.
+		 */
+		Integral,
+
+		/**
+		 * A string.
+		 */
+		Text,
+
+		/**
+		 * Any other object.
+		 */
+		Other
+	}
+
+	private final String m_typeName;
+	private final String[] m_names;
+	private final Method[] m_getters;
+	private final Kind[] m_kinds;
+
+	/**
+	 * Build the property table for a class.
+	 * 
+	 * @param cls
+	 *          The bean class.
+	 */
+	BeanProperties(Class<?> cls) {
+		final Map<String, Method> getters = new TreeMap<String, Method>();
+		for (Method m : cls.getMethods()) {
+			final String mname = m.getName();
+			if (mname.length() > 3 && mname.startsWith("get") && m.getParameterTypes().length == 0
+					&& m.getReturnType() != Void.TYPE && !Modifier.isStatic(m.getModifiers())
+					&& m.getDeclaringClass() != Object.class) {
+				getters.put(mname.substring(3), m);
+			}
+		}
+
+		m_typeName = cls.getSimpleName();
+		m_names = new String[getters.size()];
+		m_getters = new Method[m_names.length];
+		m_kinds = new Kind[m_names.length];
+
+		int i = 0;
+		for (Map.Entry<String, Method> entry : getters.entrySet()) {
+			final Method getter = entry.getValue();
+			try {
+				getter.setAccessible(true);
+			}
+			catch (final SecurityException e) {
+				// The getter is public so it can still be invoked, just not as quickly.
+				//
+			}
+
+			m_names[i] = entry.getKey();
+			m_getters[i] = getter;
+			m_kinds[i] = kindOf(getter.getReturnType());
+			i++;
+		}
+	}
+
+	/**
+	 * Return the kind of value returned by a property.
+	 * 
+	 * @param index
+	 *          The index of the property.
+	 * @return the kind of the property.
+	 */
+	public Kind getKind(int index) {
+		return m_kinds[index];
+	}
+
+	/**
+	 * Return the name of a property. The name is the getter name without the get
+	 * prefix.
+	 * 
+	 * @param index
+	 *          The index of the property.
+	 * @return the property name.
+	 */
+	public String getName(int index) {
+		return m_names[index];
+	}
+
+	/**
+	 * Return the simple name of the bean class, which is used as its type.
+	 * 
+	 * @return the type name.
+	 */
+	public String getTypeName() {
+		return m_typeName;
+	}
+
+	/**
+	 * Read a property of a bean.
+	 * 
+	 * @param bean
+	 *          The bean to read.
+	 * @param index
+	 *          The index of the property.
+	 * @return the property value.
+	 * @throws InvocationTargetException
+	 *           if the getter throws an exception.
+	 */
+	public Object getValue(Object bean, int index) throws InvocationTargetException {
+		try {
+			return m_getters[index].invoke(bean);
+		}
+		catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Return the number of properties.
+	 * 
+	 * @return the property count.
+	 */
+	public int size() {
+		return m_names.length;
+	}
+
+	private static Kind kindOf(Class<?> type) {
+		if (type == Boolean.TYPE || type == Boolean.class) {
+			return Kind.Boolean;
+		}
+		else if (type == Double.TYPE || type == Float.TYPE || type == Double.class || type == Float.class) {
+			return Kind.Floating;
+		}
+		else if (type == Long.TYPE || type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE
+				|| type == Long.class || type == Integer.class || type == Short.class || type == Byte.class) {
+			return Kind.Integral;
+		}
+		else if (type == String.class) {
+			return Kind.Text;
+		}
+
+		return Kind.Other;
+	}
+}
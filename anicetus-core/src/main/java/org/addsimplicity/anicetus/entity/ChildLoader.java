@@ -0,0 +1,37 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.util.List;
+
+/**
+ * A ChildLoader builds the children of an execution container on demand. A
+ * decoder can give a container a loader that holds the encoded children, so
+ * that they are decoded only if they are used.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.ExecInfo#setChildLoader(ChildLoader)
+ * 
+ */
+public interface ChildLoader {
+	/**
+	 * Build the children. The loader is called at most once for a container.
+	 * 
+	 * @return the children in the order they were encoded.
+	 */
+	List<GlobalInfo> loadChildren();
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.util.UUID;
+
+/**
+ * The entity id generator creates the identifiers assigned to new telemetry
+ * artifacts. Generators are shared by every thread creating telemetry and must
+ * be thread safe.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.GlobalInfo#setEntityIdGenerator(EntityIdGenerator)
+ * 
+ */
+public interface EntityIdGenerator {
+	/**
+	 * Create a new entity identifier.
+	 * 
+	 * @return a new identifier.
+	 */
+	UUID nextId();
+}
@@ -18,11 +18,11 @@ package org.addsimplicity.anicetus.entity;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * The type registry provides the mappings between the Java implementation and
@@ -36,21 +36,53 @@ import java.util.Set;
  * from the keys used in the Java maps to the keys used in the JSON protocol for
  * properties.
  * 
+ * The registry is safe to use from any number of threads. It is expected to be
+ * filled while the application starts, after which it is only read. Type names
+ * resolved by decoders are cached, including names that do not resolve, and the
+ * cache is cleared whenever a registration could change the answer.
+ * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
 public class EntityTypeRegistry {
-	private static final Map<Class<? extends GlobalInfo>, String> s_type2Abbrev = new HashMap<Class<? extends GlobalInfo>, String>();
-	private static final Map<String, Class<? extends GlobalInfo>> s_abbrev2Type = new HashMap<String, Class<? extends GlobalInfo>>();
-	private static final Map<String, String> s_prop2JsonMap = new HashMap<String, String>();
-	private static final Map<String, String> s_json2PropMap = new HashMap<String, String>();
+	private static final Map<Class<? extends GlobalInfo>, String> s_type2Abbrev = new ConcurrentHashMap<Class<? extends GlobalInfo>, String>();
+	private static final Map<String, Class<? extends GlobalInfo>> s_abbrev2Type = new ConcurrentHashMap<String, Class<? extends GlobalInfo>>();
+	private static final Map<String, String> s_prop2JsonMap = new ConcurrentHashMap<String, String>();
+	private static final Map<String, String> s_json2PropMap = new ConcurrentHashMap<String, String>();
+
+	private static final Map<Class<?>, BeanProperties> s_beanTypes = new ConcurrentHashMap<Class<?>, BeanProperties>();
+	private static final Set<String> s_searchPackages = new CopyOnWriteArraySet<String>();
+
+	// Names that did not resolve are cached as the unresolved marker, since a
+	// concurrent map can not hold null.
+	//
+	private static final ConcurrentMap<String, Class<?>> s_resolved = new ConcurrentHashMap<String, Class<?>>();
+	private static final Class<?> s_UNRESOLVED = Void.class;
 
-	private static final Set<Class<?>> s_beanTypes = new HashSet<Class<?>>();
-	private static final Set<String> s_searchPackages = new LinkedHashSet<String>();
+	static {
+		// The standard types register their own names when they are loaded. They
+		// are registered here as well so that a decoder can resolve them before
+		// any of them has been used.
+		//
+		addClassShortName(TelemetryEvent.class, "EV");
+		addClassShortName(TelemetrySession.class, "SE");
+		addClassShortName(TelemetryState.class, "ST");
+		addClassShortName(TelemetrySummary.class, "SU");
+		addClassShortName(TelemetryTransaction.class, "TR");
+	}
 
+	/**
+	 * Register a class whose instances are encoded as beans. The property table
+	 * of the class is built when it is registered.
+	 * 
+	 * @param cls
+	 *            The bean class.
+	 * @see org.addsimplicity.anicetus.entity.BeanProperties
+	 */
 	public static void addBeanType(Class<?> cls) {
-		s_beanTypes.add(cls);
+		s_beanTypes.put(cls, new BeanProperties(cls));
 		s_searchPackages.add(cls.getPackage().getName());
+		s_resolved.clear();
 	}
 
 	/**
@@ -65,6 +97,7 @@ public class EntityTypeRegistry {
 			String name) {
 		s_type2Abbrev.put(cls, name);
 		s_abbrev2Type.put(name, cls);
+		s_resolved.clear();
 	}
 
 	/**
@@ -81,7 +114,20 @@ public class EntityTypeRegistry {
 	}
 
 	public static void addSearchPackage(String pkg) {
-		s_searchPackages.add(pkg);
+		if (s_searchPackages.add(pkg)) {
+			s_resolved.clear();
+		}
+	}
+
+	/**
+	 * Get the property table of a bean type.
+	 * 
+	 * @param cls
+	 *            The class of the bean.
+	 * @return the properties or null if the class is not a bean type.
+	 */
+	public static BeanProperties getBeanProperties(Class<?> cls) {
+		return s_beanTypes.get(cls);
 	}
 
 	/**
@@ -133,6 +179,41 @@ public class EntityTypeRegistry {
 	}
 
 	public static boolean isBeanType(Class<?> cls) {
-		return s_beanTypes.contains(cls);
+		return s_beanTypes.containsKey(cls);
+	}
+
+	/**
+	 * Resolve a JSON type name to a Java type. The name is first looked up as a
+	 * short name, then tried as a class name, and then as a class within each
+	 * search package in the order the packages were added.
+	 * 
+	 * @param name
+	 *            The name extracted from the type specifier.
+	 * @return the Java class or null if the name does not resolve.
+	 */
+	public static Class<?> resolveType(String name) {
+		Class<?> cls = s_resolved.get(name);
+		if (cls != null) {
+			return cls == s_UNRESOLVED ? null : cls;
+		}
+
+		cls = s_abbrev2Type.get(name);
+		if (cls == null) {
+			try {
+				cls = Class.forName(name);
+			} catch (ClassNotFoundException cfe) {
+				for (String p : s_searchPackages) {
+					try {
+						cls = Class.forName(p + "." + name);
+						break;
+					} catch (ClassNotFoundException e) {
+						// Keep looking.
+					}
+				}
+			}
+		}
+
+		s_resolved.put(name, cls != null ? cls : s_UNRESOLVED);
+		return cls;
 	}
 }
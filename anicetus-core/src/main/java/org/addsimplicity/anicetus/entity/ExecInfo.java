@@ -18,6 +18,7 @@
 package org.addsimplicity.anicetus.entity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -26,12 +27,19 @@ import java.util.List;
  * ExecInfo provides an execution container for telemetry that has a duration
  * and potentially child telemetry.
  * 
+ * The children may be deferred to a loader, in which case they are built the
+ * first time anything asks for them.
+ * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
 public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer {
-	private final List<GlobalInfo> m_children = new ArrayList<GlobalInfo>();
+	private List<GlobalInfo> m_children = new ArrayList<GlobalInfo>();
 	private long m_timerStart = System.nanoTime();
+	private TelemetrySummary m_summary;
+	private ChildLoader m_loader;
+	private Collection<GlobalInfo> m_view;
+	private boolean m_shared;
 
 	/**
 	 * Create an ExecInfo without a parent.
@@ -53,15 +61,39 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 
 	/**
 	 * Add a child to this container. The entity will be marked as having this
-	 * container as the parent.
+	 * container as the parent. Children may be added from more than one thread
+	 * when work is handed off to other threads. Unsampled containers do not keep
+	 * children. The first summary added becomes the summary of this container,
+	 * which lets a decoded tree be summarized further.
 	 * 
 	 * @param child
 	 *          The entity to add to this container.
 	 * @see org.addsimplicity.anicetus.entity.TelemetryContainer#addChild(org.addsimplicity.anicetus.entity.GlobalInfo)
 	 */
 	public void addChild(GlobalInfo child) {
+		if (!isSampled()) {
+			return;
+		}
+
+		if (isFrozen()) {
+			throw new UnsupportedOperationException("Telemetry snapshots are immutable");
+		}
+
 		child.setParentId(getEntityId());
+		synchronized (m_children) {
+			loadChildren();
+			adoptChild(child);
+		}
+	}
+
+	/**
+	 * Add a child to the list. The caller must hold the lock on the list.
+	 */
+	private void adoptChild(GlobalInfo child) {
 		m_children.add(child);
+		if (m_summary == null && child instanceof TelemetrySummary) {
+			m_summary = (TelemetrySummary) child;
+		}
 	}
 
 	/**
@@ -81,10 +113,57 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	}
 
 	/**
-	 * Return the children of the execution container.
+	 * Return the child at the specified position. Unlike getChildren, no view or
+	 * iterator is created, so a caller that owns the container can walk the
+	 * children without allocating.
+	 * 
+	 * @param index
+	 *          The position of the child.
+	 * @return the child at the position.
+	 */
+	public GlobalInfo getChild(int index) {
+		synchronized (m_children) {
+			loadChildren();
+			return m_children.get(index);
+		}
+	}
+
+	/**
+	 * Return the children of the execution container. Once the container is
+	 * shared with tasks handed off to other threads, children may be added
+	 * while the caller iterates, so the children are copied under the lock.
+	 * Otherwise a view of the children is returned without copying them.
+	 * 
+	 * @return an immutable list of the children.
 	 */
 	public Collection<GlobalInfo> getChildren() {
-		return Collections.unmodifiableCollection(m_children);
+		synchronized (m_children) {
+			loadChildren();
+			if (isFrozen()) {
+				return m_children;
+			}
+			else if (m_shared) {
+				return Collections.unmodifiableList(new ArrayList<GlobalInfo>(m_children));
+			}
+
+			if (m_view == null) {
+				m_view = Collections.unmodifiableList(m_children);
+			}
+			return m_view;
+		}
+	}
+
+	/**
+	 * Return the number of children of the execution container, including the
+	 * summary if there is one.
+	 * 
+	 * @return the number of children.
+	 */
+	public int getChildCount() {
+		synchronized (m_children) {
+			loadChildren();
+			return m_children.size();
+		}
 	}
 
 	/**
@@ -94,7 +173,7 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 * @return the execution time in nanoseconds.
 	 */
 	public long getDuration() {
-		return (Long) get(ExecInfoFields.Duration.name());
+		return getLongSlot(FieldSlots.indexOf(ExecInfoFields.Duration));
 	}
 
 	/**
@@ -104,7 +183,18 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 * @return the operation name.
 	 */
 	public String getOperationName() {
-		return (String) get(ExecInfoFields.OperationName.name());
+		return (String) getSlot(FieldSlots.indexOf(ExecInfoFields.OperationName));
+	}
+
+	/**
+	 * Get the probability with which this execution was kept by sampling. An
+	 * execution that was not sampled has a rate of one.
+	 * 
+	 * @return the sample rate.
+	 */
+	public double getSampleRate() {
+		final int slot = FieldSlots.indexOf(ExecInfoFields.SampleRate);
+		return hasSlot(slot) ? getDoubleSlot(slot) : 1.0;
 	}
 
 	/**
@@ -113,7 +203,168 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 * @return the completion status.
 	 */
 	public CompletionStatus getStatus() {
-		return (CompletionStatus) get(ExecInfoFields.Status.name());
+		return (CompletionStatus) getSlot(FieldSlots.indexOf(ExecInfoFields.Status));
+	}
+
+	/**
+	 * Return the summary of the children that were not retained by this
+	 * container.
+	 * 
+	 * @return the summary or null if every child was retained.
+	 */
+	public TelemetrySummary getSummary() {
+		synchronized (m_children) {
+			loadChildren();
+			return m_summary;
+		}
+	}
+
+	/**
+	 * Return true if the children are still held by a loader.
+	 * 
+	 * @return true if the children have not been built.
+	 */
+	public boolean hasDeferredChildren() {
+		synchronized (m_children) {
+			return m_loader != null;
+		}
+	}
+
+	/**
+	 * Return true if other threads may add children to this container.
+	 * 
+	 * @return true if the container is shared.
+	 */
+	public boolean isShared() {
+		synchronized (m_children) {
+			return m_shared;
+		}
+	}
+
+	/**
+	 * Build the deferred children, if there are any. The caller must hold the
+	 * lock on the list.
+	 */
+	private void loadChildren() {
+		if (m_loader != null) {
+			final ChildLoader loader = m_loader;
+			m_loader = null;
+
+			for (GlobalInfo child : loader.loadChildren()) {
+				child.setParentId(getEntityId());
+				adoptChild(child);
+			}
+		}
+	}
+
+	/**
+	 * Mark this container as one that tasks running on other threads may add
+	 * children to. The container stays shared until it is reset.
+	 */
+	public void markShared() {
+		synchronized (m_children) {
+			m_shared = true;
+		}
+	}
+
+	/**
+	 * Remove a child from this container. The child keeps its parent identifier
+	 * so that it can be delivered on its own and reassembled by a consumer.
+	 * 
+	 * @param child
+	 *          The child to remove.
+	 * @return true if the child was found and removed.
+	 */
+	public boolean removeChild(GlobalInfo child) {
+		synchronized (m_children) {
+			loadChildren();
+
+			// Children usually end in the order they were added, so look from the
+			// end of the list.
+			//
+			for (int i = m_children.size() - 1; i >= 0; i--) {
+				if (m_children.get(i) == child) {
+					m_children.remove(i);
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reset the execution container so it can be reused. The children are
+	 * removed and the timer is restarted.
+	 * 
+	 * @see org.addsimplicity.anicetus.entity.GlobalInfo#reset()
+	 */
+	@Override
+	public void reset() {
+		synchronized (m_children) {
+			m_children.clear();
+			m_summary = null;
+			m_loader = null;
+			m_shared = false;
+		}
+		m_timerStart = System.nanoTime();
+		super.reset();
+	}
+
+	/**
+	 * Return an immutable snapshot of this container and all of its descendants.
+	 * Deferred children are built first, and the children of the snapshot are
+	 * held in a fixed array. Every descendant is copied, so a snapshot costs as
+	 * much as copying the tree.
+	 * 
+	 * @return the frozen copy of this container.
+	 * @see org.addsimplicity.anicetus.entity.GlobalInfo#snapshot()
+	 */
+	@Override
+	public ExecInfo snapshot() {
+		if (isFrozen()) {
+			return this;
+		}
+
+		final ExecInfo copy = (ExecInfo) super.snapshot();
+
+		final GlobalInfo[] children;
+		synchronized (m_children) {
+			loadChildren();
+			children = m_children.toArray(new GlobalInfo[m_children.size()]);
+		}
+
+		for (int i = 0; i < children.length; i++) {
+			final GlobalInfo child = children[i].snapshot();
+			if (children[i] == m_summary) {
+				copy.m_summary = (TelemetrySummary) child;
+			}
+			children[i] = child;
+		}
+		copy.m_loader = null;
+		copy.m_view = null;
+		copy.m_children = Collections.unmodifiableList(Arrays.asList(children));
+
+		return copy;
+	}
+
+	/**
+	 * Defer the children of this container to a loader. The children are built
+	 * by the loader the first time they are used, and are added after any
+	 * children the container already has.
+	 * 
+	 * @param loader
+	 *          The loader that builds the children.
+	 */
+	public void setChildLoader(ChildLoader loader) {
+		if (isFrozen()) {
+			throw new UnsupportedOperationException("Telemetry snapshots are immutable");
+		}
+
+		synchronized (m_children) {
+			loadChildren();
+			m_loader = loader;
+		}
 	}
 
 	/**
@@ -125,7 +376,7 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 *          The execution time in milliseconds.
 	 */
 	public void setDuration(long duration) {
-		put(ExecInfoFields.Duration.name(), duration);
+		putLongSlot(FieldSlots.indexOf(ExecInfoFields.Duration), duration);
 	}
 
 	/**
@@ -136,7 +387,17 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 *          The operation name.
 	 */
 	public void setOperationName(String name) {
-		put(ExecInfoFields.OperationName.name(), name);
+		putSlot(FieldSlots.indexOf(ExecInfoFields.OperationName), name);
+	}
+
+	/**
+	 * Set the probability with which this execution was kept by sampling.
+	 * 
+	 * @param rate
+	 *          The sample rate, between 0 and 1.
+	 */
+	public void setSampleRate(double rate) {
+		putDoubleSlot(FieldSlots.indexOf(ExecInfoFields.SampleRate), rate);
 	}
 
 	/**
@@ -146,7 +407,30 @@ public abstract class ExecInfo extends GlobalInfo implements TelemetryContainer
 	 *          The completion status of the execution.
 	 */
 	public void setStatus(CompletionStatus status) {
-		put(ExecInfoFields.Status.name(), status);
+		putSlot(FieldSlots.indexOf(ExecInfoFields.Status), status);
+	}
+
+	/**
+	 * Fold an artifact into the summary of this container instead of retaining
+	 * it as a child. The summary is created and added as a child the first time
+	 * an artifact is summarized. Unsampled containers do not keep a summary.
+	 * 
+	 * @param overflow
+	 *          The artifact that will not be retained.
+	 * @see org.addsimplicity.anicetus.entity.TelemetrySummary#add(GlobalInfo)
+	 */
+	public void summarize(GlobalInfo overflow) {
+		if (!isSampled()) {
+			return;
+		}
+
+		synchronized (m_children) {
+			loadChildren();
+			if (m_summary == null) {
+				m_summary = new TelemetrySummary(this);
+			}
+			m_summary.add(overflow);
+		}
 	}
 
 	/**
@@ -35,6 +35,11 @@ public enum ExecInfoFields {
 	 */
 	OperationName(JsonConstants.OperationName),
 
+	/**
+	 * The probability with which the execution was sampled.
+	 */
+	SampleRate(JsonConstants.SampleRate),
+
 	/**
 	 * The execution status as defined by CompletionStatus.
 	 * 
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FieldSlots describes the layout of the fixed fields of an artifact. Each of
+ * the distinguished field enumerations that apply to an artifact type is given
+ * a range of slots indexed by ordinal. The typed accessors of the artifacts
+ * address their slots directly while map access by name is resolved through
+ * the layout. Keys that are not in the layout are stored in an overflow map.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.GlobalInfo
+ * 
+ */
+final class FieldSlots {
+	private static final int s_GLOBAL_BASE = 0;
+	private static final int s_EXEC_BASE = s_GLOBAL_BASE + GlobalInfoFields.values().length;
+	private static final int s_TRANSACTION_BASE = s_EXEC_BASE + ExecInfoFields.values().length;
+	private static final int s_SUB_TYPED_BASE = s_EXEC_BASE;
+	private static final int s_SUMMARY_BASE = s_EXEC_BASE;
+
+	private static final FieldSlots s_global = new FieldSlots(GlobalInfoFields.values());
+	private static final FieldSlots s_exec = new FieldSlots(GlobalInfoFields.values(), ExecInfoFields.values());
+	private static final FieldSlots s_transaction = new FieldSlots(GlobalInfoFields.values(), ExecInfoFields
+			.values(), TransactionFields.values());
+	private static final FieldSlots s_subTyped = new FieldSlots(GlobalInfoFields.values(), SubTypedFields.values());
+	private static final FieldSlots s_summary = new FieldSlots(GlobalInfoFields.values(), SummaryFields.values());
+
+	/**
+	 * Return the layout for an artifact based on its type.
+	 * 
+	 * @param info
+	 *          The artifact.
+	 * @return the slot layout for the artifact.
+	 */
+	static FieldSlots forType(GlobalInfo info) {
+		if (info instanceof TelemetryTransaction) {
+			return s_transaction;
+		}
+		else if (info instanceof ExecInfo) {
+			return s_exec;
+		}
+		else if (info instanceof SubTypedInfo) {
+			return s_subTyped;
+		}
+		else if (info instanceof TelemetrySummary) {
+			return s_summary;
+		}
+
+		return s_global;
+	}
+
+	static int indexOf(ExecInfoFields field) {
+		return s_EXEC_BASE + field.ordinal();
+	}
+
+	static int indexOf(GlobalInfoFields field) {
+		return s_GLOBAL_BASE + field.ordinal();
+	}
+
+	static int indexOf(SubTypedFields field) {
+		return s_SUB_TYPED_BASE + field.ordinal();
+	}
+
+	static int indexOf(SummaryFields field) {
+		return s_SUMMARY_BASE + field.ordinal();
+	}
+
+	static int indexOf(TransactionFields field) {
+		return s_TRANSACTION_BASE + field.ordinal();
+	}
+
+	private final String[] m_names;
+	private final Map<String, Integer> m_index = new HashMap<String, Integer>();
+
+	private FieldSlots(Enum<?>[]... families) {
+		int count = 0;
+		for (Enum<?>[] family : families) {
+			count += family.length;
+		}
+
+		m_names = new String[count];
+		int slot = 0;
+		for (Enum<?>[] family : families) {
+			for (Enum<?> field : family) {
+				m_names[slot] = field.name();
+				m_index.put(field.name(), slot);
+				slot++;
+			}
+		}
+	}
+
+	/**
+	 * Return the slot of a key.
+	 * 
+	 * @param key
+	 *          The map key.
+	 * @return the slot or -1 if the key is not part of the layout.
+	 */
+	int indexOf(Object key) {
+		final Integer slot = m_index.get(key);
+		return slot != null ? slot : -1;
+	}
+
+	/**
+	 * Return the key of a slot.
+	 * 
+	 * @param slot
+	 *          The slot.
+	 * @return the map key of the slot.
+	 */
+	String nameOf(int slot) {
+		return m_names[slot];
+	}
+
+	/**
+	 * Return the number of slots in the layout.
+	 * 
+	 * @return the slot count.
+	 */
+	int size() {
+		return m_names.length;
+	}
+}
@@ -17,11 +17,19 @@
 
 package org.addsimplicity.anicetus.entity;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 
@@ -32,14 +40,96 @@ import java.util.UUID;
  * applications to add any arbitrary information to the telemetry object without
  * having to extend it.
  * 
- * This class will always set the entity identifier to a random UUID and the
- * timestamp to the current time in milliseconds.
+ * This class will always set the entity identifier to a UUID from the entity
+ * id generator and the timestamp to the current time in milliseconds. The
+ * default generator creates time ordered identifiers.
+ * 
+ * An artifact may be marked as unsampled. Unsampled artifacts silently discard
+ * any property that is set on them and never gain children. They are used as
+ * cheap stand ins when a session is not being captured.
+ * 
+ * The distinguished fields of an artifact are held in an array of slots rather
+ * than a hash map. The slots are iterated first, in the order the fields are
+ * declared, followed by any application defined keys, which are kept in a map
+ * that is only created when the first such key is set.
+ * 
+ * Numeric and boolean properties may be set with the typed put methods. These
+ * values are stored without boxing and are handed to an AttributeVisitor as
+ * primitives. Reading them through the map interface boxes them on demand.
+ * 
+ * A snapshot of an artifact may be taken once it is complete. The snapshot is
+ * an immutable copy that can be handed to other threads, such as those of an
+ * asynchronous delivery adapter, while the application continues to use the
+ * original. Any attempt to modify a snapshot throws an
+ * UnsupportedOperationException.
+ * 
+ * An AttributeRecorder may be attached to an artifact. The recorder is told
+ * about every property as it is set, which lets a session be captured while
+ * it runs instead of being walked once it is complete.
  * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
-public abstract class GlobalInfo implements Map<String, Object> {
-	private final Map<String, Object> m_delegateMap = new HashMap<String, Object>();
+public abstract class GlobalInfo implements Map<String, Object>, Cloneable {
+	private static volatile EntityIdGenerator s_idGenerator = new TimeOrderedIdGenerator();
+
+	/**
+	 * Get the generator used to create entity identifiers.
+	 * 
+	 * @return the entity id generator.
+	 */
+	public static EntityIdGenerator getEntityIdGenerator() {
+		return s_idGenerator;
+	}
+
+	/**
+	 * Set the generator used to create entity identifiers for all new artifacts.
+	 * 
+	 * @param generator
+	 *          The entity id generator.
+	 * @see org.addsimplicity.anicetus.entity.TimeOrderedIdGenerator
+	 * @see org.addsimplicity.anicetus.entity.RandomIdGenerator
+	 */
+	public static void setEntityIdGenerator(EntityIdGenerator generator) {
+		s_idGenerator = generator;
+	}
+
+	// Marks a slot that holds an explicit null, since an empty slot means the
+	// key is absent.
+	//
+	private static final Object s_NULL = new Object();
+
+	/**
+	 * The kinds of primitive values. A slot holding a primitive refers to its
+	 * kind and keeps the value in the bits array.
+	 */
+	private enum Primitive {
+		Boolean, Double, Int, Long
+	}
+
+	/**
+	 * A primitive value held in the overflow map. The holder is updated in place
+	 * when the key is set again.
+	 */
+	private static final class PrimitiveValue {
+		Primitive m_kind;
+		long m_bits;
+
+		PrimitiveValue(Primitive kind, long bits) {
+			m_kind = kind;
+			m_bits = bits;
+		}
+	}
+
+	private final FieldSlots m_layout = FieldSlots.forType(this);
+	private Object[] m_slots = new Object[m_layout.size()];
+	private long[] m_bits = new long[m_slots.length];
+	private int m_slotCount;
+	private Map<String, Object> m_overflow;
+	private boolean m_unsampled;
+	private boolean m_frozen;
+	private AttributeRecorder m_recorder;
+	private int m_recordRef;
 
 	/**
 	 * Construct a telemetry artifact without a parent.
@@ -61,11 +151,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 */
 	protected GlobalInfo(GlobalInfo parent) {
 		init();
-		setParentId(parent.getEntityId());
-
-		if (parent instanceof TelemetryContainer) {
-			((TelemetryContainer) parent).addChild(this);
-		}
+		adopt(parent);
 	}
 
 	/**
@@ -74,7 +160,15 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.util.Map#clear()
 	 */
 	public void clear() {
-		m_delegateMap.clear();
+		checkMutable();
+		for (int i = 0; i < m_slots.length; i++) {
+			m_slots[i] = null;
+		}
+		m_slotCount = 0;
+
+		if (m_overflow != null) {
+			m_overflow.clear();
+		}
 	}
 
 	/**
@@ -82,7 +176,12 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.util.Map#containsKey(java.lang.Object)
 	 */
 	public boolean containsKey(Object key) {
-		return m_delegateMap.containsKey(key);
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return m_slots[slot] != null;
+		}
+
+		return m_overflow != null && m_overflow.containsKey(key);
 	}
 
 	/**
@@ -90,7 +189,14 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.util.Map#containsValue(java.lang.Object)
 	 */
 	public boolean containsValue(Object value) {
-		return m_delegateMap.containsValue(value);
+		for (final Entry<String, Object> entry : entrySet()) {
+			final Object v = entry.getValue();
+			if (value == null ? v == null : value.equals(v)) {
+				return true;
+			}
+		}
+
+		return false;
 	}
 
 	/**
@@ -98,7 +204,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.util.Map#entrySet()
 	 */
 	public Set<Entry<String, Object>> entrySet() {
-		return m_delegateMap.entrySet();
+		return new EntrySet();
 	}
 
 	/**
@@ -122,7 +228,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 
 		GlobalInfo other = (GlobalInfo) o;
 
-		return get(GlobalInfoFields.EntityId.name()).equals(other.get(GlobalInfoFields.EntityId.name()));
+		return getSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId)).equals(other.getSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId)));
 	}
 
 	/**
@@ -130,18 +236,56 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.util.Map#get(java.lang.Object)
 	 */
 	public Object get(Object key) {
-		return m_delegateMap.get(key);
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return getSlot(slot);
+		}
+
+		return m_overflow != null ? unwrap(m_overflow.get(key)) : null;
+	}
+
+	/**
+	 * Return a property as a boolean.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @return the value or false if the property is not set or not a boolean.
+	 */
+	public boolean getBoolean(String key) {
+		final Object value = get(key);
+		return value instanceof Boolean ? (Boolean) value : false;
+	}
+
+	/**
+	 * Return a property as a double.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @return the value or zero if the property is not set or not a number.
+	 */
+	public double getDouble(String key) {
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return getDoubleSlot(slot);
+		}
+
+		final Object value = m_overflow != null ? m_overflow.get(key) : null;
+		if (value instanceof PrimitiveValue) {
+			return doubleOf(((PrimitiveValue) value).m_kind, ((PrimitiveValue) value).m_bits);
+		}
+
+		return doubleOf(value, 0L);
 	}
 
 	/**
 	 * Return the entity identifier for this artifact. Entity identifiers are
-	 * typically generated using the random UUID method.
+	 * created by the entity id generator.
 	 * 
 	 * @return the entity identifier.
-	 * @see java.util.UUID#randomUUID()
+	 * @see #setEntityIdGenerator(EntityIdGenerator)
 	 */
 	public UUID getEntityId() {
-		return (UUID) get(GlobalInfoFields.EntityId.name());
+		return (UUID) getSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId));
 	}
 
 	/**
@@ -151,7 +295,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @return the execution context.
 	 */
 	public String getExecutionContext() {
-		return (String) get(GlobalInfoFields.ExecutionContext.name());
+		return (String) getSlot(FieldSlots.indexOf(GlobalInfoFields.ExecutionContext));
 	}
 
 	/**
@@ -161,7 +305,39 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @return the message.
 	 */
 	public String getMessage() {
-		return (String) get(GlobalInfoFields.Message.name());
+		return (String) getSlot(FieldSlots.indexOf(GlobalInfoFields.Message));
+	}
+
+	/**
+	 * Return a property as an integer.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @return the value or zero if the property is not set or not a number.
+	 */
+	public int getInt(String key) {
+		return (int) getLong(key);
+	}
+
+	/**
+	 * Return a property as a long.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @return the value or zero if the property is not set or not a number.
+	 */
+	public long getLong(String key) {
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return getLongSlot(slot);
+		}
+
+		final Object value = m_overflow != null ? m_overflow.get(key) : null;
+		if (value instanceof PrimitiveValue) {
+			return longOf(((PrimitiveValue) value).m_kind, ((PrimitiveValue) value).m_bits);
+		}
+
+		return longOf(value, 0L);
 	}
 
 	/**
@@ -171,7 +347,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *         parent.
 	 */
 	public UUID getParentId() {
-		return (UUID) get(GlobalInfoFields.ParentId.name());
+		return (UUID) getSlot(FieldSlots.indexOf(GlobalInfoFields.ParentId));
 	}
 
 	/**
@@ -181,7 +357,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @return the reporting node.
 	 */
 	public String getReportingNode() {
-		return (String) get(GlobalInfoFields.ReportingNode.name());
+		return (String) getSlot(FieldSlots.indexOf(GlobalInfoFields.ReportingNode));
 	}
 
 	/**
@@ -191,7 +367,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @return the creation time stamp.
 	 */
 	public long getTimeStamp() {
-		return (Long) get(GlobalInfoFields.TimeStamp.name());
+		return getLongSlot(FieldSlots.indexOf(GlobalInfoFields.TimeStamp));
 	}
 
 	/**
@@ -201,42 +377,201 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 */
 	@Override
 	public int hashCode() {
-		return ((UUID) get(GlobalInfoFields.EntityId.name())).hashCode();
+		return ((UUID) getSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId))).hashCode();
 	}
 
 	/**
 	 * @see java.util.Map#isEmpty()
 	 */
 	public boolean isEmpty() {
-		return m_delegateMap.isEmpty();
+		return size() == 0;
+	}
+
+	/**
+	 * Return true if this artifact is an immutable snapshot.
+	 * 
+	 * @return true if the artifact is frozen.
+	 * @see #snapshot()
+	 */
+	public boolean isFrozen() {
+		return m_frozen;
+	}
+
+	/**
+	 * Return true unless this artifact has been marked as unsampled.
+	 * 
+	 * @return true if properties set on this artifact are retained.
+	 */
+	public boolean isSampled() {
+		return !m_unsampled;
 	}
 
 	/**
 	 * @see java.util.Map#keySet()
 	 */
 	public Set<String> keySet() {
-		return m_delegateMap.keySet();
+		return new AbstractSet<String>() {
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<Entry<String, Object>> entries = entrySet().iterator();
+				return new Iterator<String>() {
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					public String next() {
+						return entries.next().getKey();
+					}
+
+					public void remove() {
+						entries.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return GlobalInfo.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Mark this artifact as unsampled. From this point on, all properties set on
+	 * the artifact are discarded. The properties already set are retained so the
+	 * getters continue to work.
+	 */
+	public void markUnsampled() {
+		m_unsampled = true;
 	}
 
 	/**
 	 * @see java.util.Map#put(java.lang.Object, java.lang.Object)
 	 */
 	public Object put(String key, Object value) {
-		return m_delegateMap.put(key, value);
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return putSlot(slot, value);
+		}
+
+		if (!isWritable()) {
+			return null;
+		}
+
+		if (m_overflow == null) {
+			m_overflow = new HashMap<String, Object>();
+		}
+
+		final Object previous = m_overflow.put(key, value);
+		if (m_recorder != null) {
+			m_recorder.recordObject(m_recordRef, key, value);
+		}
+
+		return unwrap(previous);
+	}
+
+	/**
+	 * Set a boolean property without boxing the value.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	public void putBoolean(String key, boolean value) {
+		putPrimitive(key, Primitive.Boolean, value ? 1L : 0L);
+	}
+
+	/**
+	 * Set a double property without boxing the value.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	public void putDouble(String key, double value) {
+		putPrimitive(key, Primitive.Double, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Set an integer property without boxing the value.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	public void putInt(String key, int value) {
+		putPrimitive(key, Primitive.Int, value);
+	}
+
+	/**
+	 * Set a long property without boxing the value.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @param value
+	 *          The property value.
+	 */
+	public void putLong(String key, long value) {
+		putPrimitive(key, Primitive.Long, value);
 	}
 
 	/**
 	 * @see java.util.Map#putAll(java.util.Map)
 	 */
 	public void putAll(Map<? extends String, ? extends Object> t) {
-		m_delegateMap.putAll(t);
+		if (!isWritable()) {
+			return;
+		}
+
+		for (Map.Entry<? extends String, ? extends Object> entry : t.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
 	}
 
 	/**
 	 * @see java.util.Map#remove(java.lang.Object)
 	 */
 	public Object remove(Object key) {
-		return m_delegateMap.remove(key);
+		checkMutable();
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			return removeSlot(slot);
+		}
+
+		return m_overflow != null ? unwrap(m_overflow.remove(key)) : null;
+	}
+
+	/**
+	 * Reset this artifact so that it can be reused. All properties are removed
+	 * and the artifact is given a new entity identifier and time stamp, exactly
+	 * as if it had just been constructed.
+	 */
+	public void reset() {
+		clear();
+		m_recorder = null;
+		m_unsampled = false;
+		init();
+	}
+
+	/**
+	 * Reset this artifact so that it can be reused as a child of the specified
+	 * parent.
+	 * 
+	 * @param parent
+	 *          The new parent of this artifact.
+	 * @see #reset()
+	 */
+	public void reset(GlobalInfo parent) {
+		reset();
+		adopt(parent);
 	}
 
 	/**
@@ -248,7 +583,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *          The GUID to be used as the entity identifer.
 	 */
 	public void setEntityId(UUID id) {
-		put(GlobalInfoFields.EntityId.name(), id);
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId), id);
 	}
 
 	/**
@@ -277,7 +612,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *          The execution context.
 	 */
 	public void setExecutionContext(String context) {
-		put(GlobalInfoFields.ExecutionContext.name(), context);
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.ExecutionContext), context);
 	}
 
 	/**
@@ -288,7 +623,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *          The message.
 	 */
 	public void setMessage(String message) {
-		put(GlobalInfoFields.Message.name(), message);
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.Message), message);
 	}
 
 	/**
@@ -298,7 +633,23 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *          The parent entity identifier.
 	 */
 	public void setParentId(UUID parent) {
-		put(GlobalInfoFields.ParentId.name(), parent);
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.ParentId), parent);
+	}
+
+	/**
+	 * Attach a recorder to this artifact. Every property set from this point on
+	 * is reported to the recorder under the given reference. Properties that are
+	 * already set are not reported. Resetting the artifact detaches the
+	 * recorder.
+	 * 
+	 * @param recorder
+	 *          The recorder or null to detach the current recorder.
+	 * @param ref
+	 *          The reference of this artifact within the recorder.
+	 */
+	public void setRecorder(AttributeRecorder recorder, int ref) {
+		m_recorder = recorder;
+		m_recordRef = ref;
 	}
 
 	/**
@@ -309,7 +660,7 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 *          The reporting node identifier.
 	 */
 	public void setReportingNode(String node) {
-		put(GlobalInfoFields.ReportingNode.name(), node);
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.ReportingNode), node);
 	}
 
 	/**
@@ -323,25 +674,592 @@ public abstract class GlobalInfo implements Map<String, Object> {
 	 * @see java.lang.System#currentTimeMillis()
 	 */
 	public void setTimeStamp(long timeStamp) {
-		put(GlobalInfoFields.TimeStamp.name(), timeStamp);
+		putLongSlot(FieldSlots.indexOf(GlobalInfoFields.TimeStamp), timeStamp);
+	}
+
+	/**
+	 * Return an immutable snapshot of this artifact. The properties are copied
+	 * into a new instance of the same type that shares the property values.
+	 * Array and collection values are copied so that the application may keep
+	 * changing the originals. A copied set is still a set and any other
+	 * collection is copied as a list. A snapshot is its own snapshot.
+	 * 
+	 * @return the frozen copy of this artifact.
+	 */
+	public GlobalInfo snapshot() {
+		if (m_frozen) {
+			return this;
+		}
+
+		final GlobalInfo copy;
+		try {
+			copy = (GlobalInfo) super.clone();
+		}
+		catch (final CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+
+		copy.m_slots = new Object[m_slots.length];
+		copy.m_bits = new long[m_bits.length];
+		System.arraycopy(m_bits, 0, copy.m_bits, 0, m_bits.length);
+		for (int i = 0; i < m_slots.length; i++) {
+			copy.m_slots[i] = freeze(m_slots[i]);
+		}
+
+		if (m_overflow != null) {
+			copy.m_overflow = new HashMap<String, Object>(m_overflow.size() * 4 / 3 + 1);
+			for (Map.Entry<String, Object> entry : m_overflow.entrySet()) {
+				copy.m_overflow.put(entry.getKey(), freeze(entry.getValue()));
+			}
+		}
+
+		copy.m_recorder = null;
+		copy.m_frozen = true;
+
+		return copy;
 	}
 
 	/**
 	 * @see java.util.Map#size()
 	 */
 	public int size() {
-		return m_delegateMap.size();
+		return m_slotCount + (m_overflow != null ? m_overflow.size() : 0);
+	}
+
+	/**
+	 * Pass each property of this artifact to the visitor. The distinguished
+	 * fields are visited first followed by the application defined properties.
+	 * Primitive values are passed without being boxed.
+	 * 
+	 * @param visitor
+	 *          The visitor.
+	 * @throws IOException
+	 *           if the visitor fails.
+	 */
+	public void visitAttributes(AttributeVisitor visitor) throws IOException {
+		for (int i = 0; i < m_slots.length; i++) {
+			final Object value = m_slots[i];
+			if (value != null) {
+				visit(visitor, m_layout.nameOf(i), value, m_bits[i]);
+			}
+		}
+
+		if (m_overflow != null) {
+			for (Map.Entry<String, Object> entry : m_overflow.entrySet()) {
+				final Object value = entry.getValue();
+				if (value instanceof PrimitiveValue) {
+					visit(visitor, entry.getKey(), ((PrimitiveValue) value).m_kind, ((PrimitiveValue) value).m_bits);
+				}
+				else {
+					visitor.visitObject(entry.getKey(), value);
+				}
+			}
+		}
 	}
 
 	/**
 	 * @see java.util.Map#values()
 	 */
 	public Collection<Object> values() {
-		return m_delegateMap.values();
+		return new AbstractCollection<Object>() {
+			@Override
+			public Iterator<Object> iterator() {
+				final Iterator<Entry<String, Object>> entries = entrySet().iterator();
+				return new Iterator<Object>() {
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					public Object next() {
+						return entries.next().getValue();
+					}
+
+					public void remove() {
+						entries.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return GlobalInfo.this.size();
+			}
+		};
+	}
+
+	private void adopt(GlobalInfo parent) {
+		setParentId(parent.getEntityId());
+
+		if (parent instanceof TelemetryContainer) {
+			((TelemetryContainer) parent).addChild(this);
+		}
+	}
+
+	private void checkMutable() {
+		if (m_frozen) {
+			throw new UnsupportedOperationException("Telemetry snapshots are immutable");
+		}
 	}
 
 	private void init() {
-		put(GlobalInfoFields.EntityId.name(), UUID.randomUUID());
-		put(GlobalInfoFields.TimeStamp.name(), System.currentTimeMillis());
+		putSlot(FieldSlots.indexOf(GlobalInfoFields.EntityId), s_idGenerator.nextId());
+		putLongSlot(FieldSlots.indexOf(GlobalInfoFields.TimeStamp), System.currentTimeMillis());
+	}
+
+	private boolean isWritable() {
+		checkMutable();
+		return !m_unsampled;
+	}
+
+	private void putPrimitive(String key, Primitive kind, long bits) {
+		if (!isWritable()) {
+			return;
+		}
+
+		final int slot = m_layout.indexOf(key);
+		if (slot >= 0) {
+			putPrimitiveSlot(slot, kind, bits);
+			return;
+		}
+
+		if (m_overflow == null) {
+			m_overflow = new HashMap<String, Object>();
+		}
+
+		final Object current = m_overflow.get(key);
+		if (current instanceof PrimitiveValue) {
+			((PrimitiveValue) current).m_kind = kind;
+			((PrimitiveValue) current).m_bits = bits;
+		}
+		else {
+			m_overflow.put(key, new PrimitiveValue(kind, bits));
+		}
+
+		if (m_recorder != null) {
+			record(key, kind, bits);
+		}
+	}
+
+	private void putPrimitiveSlot(int slot, Primitive kind, long bits) {
+		if (!isWritable()) {
+			return;
+		}
+
+		if (m_slots[slot] == null) {
+			m_slotCount++;
+		}
+		m_slots[slot] = kind;
+		m_bits[slot] = bits;
+
+		if (m_recorder != null) {
+			record(m_layout.nameOf(slot), kind, bits);
+		}
+	}
+
+	private void record(String key, Primitive kind, long bits) {
+		if (kind == Primitive.Long) {
+			m_recorder.recordLong(m_recordRef, key, bits);
+		}
+		else if (kind == Primitive.Int) {
+			m_recorder.recordInt(m_recordRef, key, (int) bits);
+		}
+		else if (kind == Primitive.Double) {
+			m_recorder.recordDouble(m_recordRef, key, Double.longBitsToDouble(bits));
+		}
+		else {
+			m_recorder.recordBoolean(m_recordRef, key, bits != 0);
+		}
+	}
+
+	private Object removeSlot(int slot) {
+		checkMutable();
+		final Object previous = m_slots[slot];
+		if (previous == null) {
+			return null;
+		}
+
+		m_slots[slot] = null;
+		m_slotCount--;
+
+		return unmask(previous, m_bits[slot]);
+	}
+
+	/**
+	 * Return the value of a distinguished field by slot.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @return the value or null if the field is not set.
+	 * @see FieldSlots#indexOf(GlobalInfoFields)
+	 */
+	final Object getSlot(int slot) {
+		return unmask(m_slots[slot], m_bits[slot]);
+	}
+
+	/**
+	 * Return the value of a distinguished field as a double.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @return the value or zero if the field is not set or not a number.
+	 */
+	final double getDoubleSlot(int slot) {
+		return doubleOf(m_slots[slot], m_bits[slot]);
+	}
+
+	/**
+	 * Return the value of a distinguished field as a long.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @return the value or zero if the field is not set or not a number.
+	 */
+	final long getLongSlot(int slot) {
+		return longOf(m_slots[slot], m_bits[slot]);
+	}
+
+	/**
+	 * Return true if a distinguished field is set.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @return true if the field is set.
+	 */
+	final boolean hasSlot(int slot) {
+		return m_slots[slot] != null;
+	}
+
+	/**
+	 * Set a distinguished field to a double without boxing.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @param value
+	 *          The new value.
+	 */
+	final void putDoubleSlot(int slot, double value) {
+		putPrimitiveSlot(slot, Primitive.Double, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Set a distinguished field to a long without boxing.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @param value
+	 *          The new value.
+	 */
+	final void putLongSlot(int slot, long value) {
+		putPrimitiveSlot(slot, Primitive.Long, value);
+	}
+
+	/**
+	 * Set the value of a distinguished field by slot. The value is discarded if
+	 * the artifact is unsampled.
+	 * 
+	 * @param slot
+	 *          The slot of the field.
+	 * @param value
+	 *          The new value.
+	 * @return the previous value.
+	 */
+	final Object putSlot(int slot, Object value) {
+		if (!isWritable()) {
+			return null;
+		}
+
+		final Object previous = m_slots[slot];
+		m_slots[slot] = value == null ? s_NULL : value;
+		if (m_recorder != null) {
+			m_recorder.recordObject(m_recordRef, m_layout.nameOf(slot), value);
+		}
+
+		if (previous == null) {
+			m_slotCount++;
+			return null;
+		}
+
+		return unmask(previous, m_bits[slot]);
+	}
+
+	private static double doubleOf(Object stored, long bits) {
+		if (stored == Primitive.Double) {
+			return Double.longBitsToDouble(bits);
+		}
+		else if (stored instanceof Primitive) {
+			return bits;
+		}
+		else if (stored instanceof Number) {
+			return ((Number) stored).doubleValue();
+		}
+
+		return 0.0;
+	}
+
+	private static Object freeze(Object value) {
+		if (value instanceof PrimitiveValue) {
+			final PrimitiveValue primitive = (PrimitiveValue) value;
+			return new PrimitiveValue(primitive.m_kind, primitive.m_bits);
+		}
+		else if (value instanceof GlobalInfo) {
+			return ((GlobalInfo) value).snapshot();
+		}
+		else if (value instanceof Object[]) {
+			return ((Object[]) value).clone();
+		}
+		else if (value instanceof Set<?>) {
+			return Collections.unmodifiableSet(new LinkedHashSet<Object>((Set<?>) value));
+		}
+		else if (value instanceof Collection<?>) {
+			return Collections.unmodifiableList(new ArrayList<Object>((Collection<?>) value));
+		}
+
+		return value;
+	}
+
+	private static long longOf(Object stored, long bits) {
+		if (stored == Primitive.Double) {
+			return (long) Double.longBitsToDouble(bits);
+		}
+		else if (stored instanceof Primitive) {
+			return bits;
+		}
+		else if (stored instanceof Number) {
+			return ((Number) stored).longValue();
+		}
+
+		return 0L;
+	}
+
+	private static Object unmask(Object stored, long bits) {
+		if (stored == s_NULL) {
+			return null;
+		}
+		else if (stored == Primitive.Long) {
+			return bits;
+		}
+		else if (stored == Primitive.Int) {
+			return (int) bits;
+		}
+		else if (stored == Primitive.Double) {
+			return Double.longBitsToDouble(bits);
+		}
+		else if (stored == Primitive.Boolean) {
+			return bits != 0;
+		}
+
+		return stored;
+	}
+
+	private static Object unwrap(Object value) {
+		if (value instanceof PrimitiveValue) {
+			return unmask(((PrimitiveValue) value).m_kind, ((PrimitiveValue) value).m_bits);
+		}
+
+		return value;
+	}
+
+	private static void visit(AttributeVisitor visitor, String key, Object stored, long bits) throws IOException {
+		if (stored == s_NULL) {
+			visitor.visitObject(key, null);
+		}
+		else if (stored == Primitive.Long) {
+			visitor.visitLong(key, bits);
+		}
+		else if (stored == Primitive.Int) {
+			visitor.visitInt(key, (int) bits);
+		}
+		else if (stored == Primitive.Double) {
+			visitor.visitDouble(key, Double.longBitsToDouble(bits));
+		}
+		else if (stored == Primitive.Boolean) {
+			visitor.visitBoolean(key, bits != 0);
+		}
+		else {
+			visitor.visitObject(key, stored);
+		}
+	}
+
+	/**
+	 * The entry set view walks the occupied slots and then the overflow map.
+	 */
+	private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+		@Override
+		public Iterator<Entry<String, Object>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return GlobalInfo.this.size();
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Entry<String, Object>> {
+		private int m_next = -1;
+		private int m_last = -1;
+		private Iterator<Entry<String, Object>> m_overflowIterator;
+
+		EntryIterator() {
+			advance();
+		}
+
+		public boolean hasNext() {
+			if (m_next < m_slots.length) {
+				return true;
+			}
+
+			return overflow().hasNext();
+		}
+
+		public Entry<String, Object> next() {
+			if (m_next < m_slots.length) {
+				m_last = m_next;
+				advance();
+
+				return new SlotEntry(m_last);
+			}
+
+			m_last = -1;
+			return new OverflowEntry(overflow().next());
+		}
+
+		public void remove() {
+			if (m_last >= 0) {
+				removeSlot(m_last);
+				m_last = -1;
+			}
+			else if (m_overflowIterator != null) {
+				m_overflowIterator.remove();
+			}
+			else {
+				throw new IllegalStateException();
+			}
+		}
+
+		private void advance() {
+			m_next++;
+			while (m_next < m_slots.length && m_slots[m_next] == null) {
+				m_next++;
+			}
+		}
+
+		private Iterator<Entry<String, Object>> overflow() {
+			if (m_overflowIterator == null) {
+				if (m_overflow == null) {
+					return EmptyIterator.s_instance;
+				}
+				m_overflowIterator = m_overflow.entrySet().iterator();
+			}
+
+			return m_overflowIterator;
+		}
+	}
+
+	private static final class EmptyIterator implements Iterator<Entry<String, Object>> {
+		static final EmptyIterator s_instance = new EmptyIterator();
+
+		public boolean hasNext() {
+			return false;
+		}
+
+		public Entry<String, Object> next() {
+			throw new NoSuchElementException();
+		}
+
+		public void remove() {
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * An entry of the overflow map that hides primitive holders.
+	 */
+	private final class OverflowEntry implements Entry<String, Object> {
+		private final Entry<String, Object> m_entry;
+
+		OverflowEntry(Entry<String, Object> entry) {
+			m_entry = entry;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry<?, ?>)) {
+				return false;
+			}
+
+			final Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			final Object value = getValue();
+
+			return getKey().equals(other.getKey())
+					&& (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		public String getKey() {
+			return m_entry.getKey();
+		}
+
+		public Object getValue() {
+			return unwrap(m_entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			final Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public Object setValue(Object value) {
+			return put(getKey(), value);
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	private final class SlotEntry implements Entry<String, Object> {
+		private final int m_slot;
+
+		SlotEntry(int slot) {
+			m_slot = slot;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry<?, ?>)) {
+				return false;
+			}
+
+			final Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			final Object value = getValue();
+
+			return getKey().equals(other.getKey())
+					&& (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		public String getKey() {
+			return m_layout.nameOf(m_slot);
+		}
+
+		public Object getValue() {
+			return getSlot(m_slot);
+		}
+
+		@Override
+		public int hashCode() {
+			final Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public Object setValue(Object value) {
+			return putSlot(m_slot, value);
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
 	}
 }
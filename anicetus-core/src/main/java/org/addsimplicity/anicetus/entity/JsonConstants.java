@@ -24,12 +24,24 @@ package org.addsimplicity.anicetus.entity;
  * 
  */
 public class JsonConstants {
+	/**
+	 * Children - Array - child - The artifacts contained by a session or
+	 * transaction.
+	 */
+	public static final String Children = "child";
+
 	/**
 	 * Completion Status - String - a_status - One of S (Success), P (Partial
 	 * Success), U (Unknown), or F (Failure).
 	 */
 	public static final String CompletionStatus = "a_status";
 
+	/**
+	 * Summary Count - 64-bit Integer - a_count - The number of artifacts folded
+	 * into a summary.
+	 */
+	public static final String Count = "a_count";
+
 	/**
 	 * Entity Identifier - String - a_entityid - RFC4122 formatted string.
 	 */
@@ -53,11 +65,29 @@ public class JsonConstants {
 	 */
 	public static final String ExecutionTime = "a_execns";
 
+	/**
+	 * Failure Count - 64-bit Integer - a_nfail - The number of summarized
+	 * executions that failed.
+	 */
+	public static final String FailureCount = "a_nfail";
+
+	/**
+	 * Maximum Execution Time - 64-bit Integer - a_maxns - The longest execution
+	 * time in nano-seconds of the summarized executions.
+	 */
+	public static final String MaxExecutionTime = "a_maxns";
+
 	/**
 	 * Message - String - a_msg - Optionally provided application message.
 	 */
 	public static final String Message = "a_msg";
 
+	/**
+	 * Minimum Execution Time - 64-bit Integer - a_minns - The shortest execution
+	 * time in nano-seconds of the summarized executions.
+	 */
+	public static final String MinExecutionTime = "a_minns";
+
 	/**
 	 * Operation Name - String - a_operation - Application defined operation name.
 	 */
@@ -74,6 +104,12 @@ public class JsonConstants {
 	 */
 	public static final String ParentEntity = "a_parentid";
 
+	/**
+	 * Partial Success Count - 64-bit Integer - a_npartial - The number of
+	 * summarized executions that partially succeeded.
+	 */
+	public static final String PartialSuccessCount = "a_npartial";
+
 	/**
 	 * Reporting Node - String - a_node - Hostname, IP address, or applicaiton
 	 * assigned logical name of node.
@@ -85,14 +121,38 @@ public class JsonConstants {
 	 */
 	public static final String ResourceIdentifier = "a_resourceid";
 
+	/**
+	 * Sample Rate - Double - a_samplerate - The probability with which the
+	 * session was kept. Aggregates may be re-weighted by its inverse.
+	 */
+	public static final String SampleRate = "a_samplerate";
+
 	/**
 	 * Event Type - String - a_evtype - An application defined type.
 	 */
 	public static final String SubType = "a_subtype";
 
+	/**
+	 * Success Count - 64-bit Integer - a_nsuccess - The number of summarized
+	 * executions that succeeded.
+	 */
+	public static final String SuccessCount = "a_nsuccess";
+
 	/**
 	 * Time Stamp - 64-bit Integer - a_timestamp - The number of milliseconds
 	 * since January 1, 1970
 	 */
 	public static final String TimeStamp = "a_timestamp";
+
+	/**
+	 * Total Execution Time - 64-bit Integer - a_totalns - The sum of the
+	 * execution times in nano-seconds of the summarized executions.
+	 */
+	public static final String TotalExecutionTime = "a_totalns";
+
+	/**
+	 * Unknown Count - 64-bit Integer - a_nunknown - The number of summarized
+	 * executions that completed without a status.
+	 */
+	public static final String UnknownCount = "a_nunknown";
 }
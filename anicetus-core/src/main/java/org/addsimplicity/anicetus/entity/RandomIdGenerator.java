@@ -0,0 +1,42 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.util.UUID;
+
+/**
+ * The random id generator creates type 4 random UUIDs. Every identifier is
+ * drawn from the shared secure random number generator, which can become a
+ * point of contention when many threads create telemetry.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see java.util.UUID#randomUUID()
+ * 
+ */
+public class RandomIdGenerator implements EntityIdGenerator {
+
+	/**
+	 * Create a random UUID.
+	 * 
+	 * @return a new identifier.
+	 * @see org.addsimplicity.anicetus.entity.EntityIdGenerator#nextId()
+	 */
+	public UUID nextId() {
+		return UUID.randomUUID();
+	}
+
+}
@@ -47,7 +47,7 @@ public abstract class SubTypedInfo extends GlobalInfo {
 	 * @return the event type.
 	 */
 	public String getType() {
-		return (String) get(SubTypedFields.Type.name());
+		return (String) getSlot(FieldSlots.indexOf(SubTypedFields.Type));
 	}
 
 	/**
@@ -57,7 +57,7 @@ public abstract class SubTypedInfo extends GlobalInfo {
 	 *          The sub-type.
 	 */
 	public void setType(String type) {
-		put(SubTypedFields.Type.name(), type);
+		putSlot(FieldSlots.indexOf(SubTypedFields.Type), type);
 	}
 
 }
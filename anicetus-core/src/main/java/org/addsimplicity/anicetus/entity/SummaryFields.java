@@ -0,0 +1,86 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+/**
+ * SummaryFields provides the names for the distinguished properties added by
+ * the summary telemetry artifact.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.TelemetrySummary
+ * 
+ */
+public enum SummaryFields {
+	/**
+	 * The number of artifacts folded into the summary.
+	 */
+	Count(JsonConstants.Count),
+
+	/**
+	 * The number of summarized executions that failed.
+	 */
+	FailureCount(JsonConstants.FailureCount),
+
+	/**
+	 * The longest execution time of the summarized executions in nanoseconds.
+	 */
+	MaxTime(JsonConstants.MaxExecutionTime),
+
+	/**
+	 * The shortest execution time of the summarized executions in nanoseconds.
+	 */
+	MinTime(JsonConstants.MinExecutionTime),
+
+	/**
+	 * The number of summarized executions that partially succeeded.
+	 */
+	PartialSuccessCount(JsonConstants.PartialSuccessCount),
+
+	/**
+	 * The number of summarized executions that succeeded.
+	 */
+	SuccessCount(JsonConstants.SuccessCount),
+
+	/**
+	 * The sum of the execution times of the summarized executions in
+	 * nanoseconds.
+	 */
+	TotalTime(JsonConstants.TotalExecutionTime),
+
+	/**
+	 * The number of summarized executions that completed without a status.
+	 */
+	UnknownCount(JsonConstants.UnknownCount)
+
+	;
+
+	static {
+		for (SummaryFields field : SummaryFields.values()) {
+			EntityTypeRegistry.addJsonPropertyMapping(field.name(), field.getJsonKey());
+		}
+	}
+
+	private String m_jsonKey;
+
+	private SummaryFields(String jsonKey) {
+		m_jsonKey = jsonKey;
+	}
+
+	public String getJsonKey() {
+		return m_jsonKey;
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+/**
+ * A summary stands in for the artifacts that could not be retained in a
+ * session tree because a limit on the size of the tree was reached. Rather
+ * than keeping each artifact, the summary keeps a count along with the total,
+ * shortest, and longest execution times and the number of executions that
+ * completed with each status.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.entity.ExecInfo#summarize(GlobalInfo)
+ * 
+ */
+public class TelemetrySummary extends GlobalInfo {
+	static {
+		EntityTypeRegistry.addClassShortName(TelemetrySummary.class, "SU");
+	}
+
+	/**
+	 * Construct a summary without a parent.
+	 */
+	public TelemetrySummary() {
+		super();
+	}
+
+	/**
+	 * Construct a summary with the specified artifact as the parent.
+	 * 
+	 * @param parent
+	 *          The artifact whose overflow is summarized.
+	 */
+	public TelemetrySummary(GlobalInfo parent) {
+		super(parent);
+	}
+
+	/**
+	 * Fold an artifact into the summary. The execution time and status are
+	 * included if the artifact is a completed execution container.
+	 * 
+	 * @param info
+	 *          The artifact to summarize.
+	 */
+	public void add(GlobalInfo info) {
+		setCount(getCount() + 1);
+
+		if (info instanceof ExecInfo) {
+			final int durationSlot = FieldSlots.indexOf(ExecInfoFields.Duration);
+			if (info.hasSlot(durationSlot)) {
+				final long time = info.getLongSlot(durationSlot);
+				if (!hasSlot(FieldSlots.indexOf(SummaryFields.MinTime)) || time < getMinTime()) {
+					setMinTime(time);
+				}
+				if (!hasSlot(FieldSlots.indexOf(SummaryFields.MaxTime)) || time > getMaxTime()) {
+					setMaxTime(time);
+				}
+				setTotalTime(getTotalTime() + time);
+			}
+
+			final CompletionStatus status = ((ExecInfo) info).getStatus();
+			if (status == CompletionStatus.Success) {
+				setSuccessCount(getSuccessCount() + 1);
+			}
+			else if (status == CompletionStatus.PartialSuccess) {
+				setPartialSuccessCount(getPartialSuccessCount() + 1);
+			}
+			else if (status == CompletionStatus.Failure) {
+				setFailureCount(getFailureCount() + 1);
+			}
+			else {
+				setUnknownCount(getUnknownCount() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of artifacts folded into the summary.
+	 * 
+	 * @return the summarized count.
+	 */
+	public long getCount() {
+		return getLong(SummaryFields.Count);
+	}
+
+	/**
+	 * Return the number of summarized executions that failed.
+	 * 
+	 * @return the failure count.
+	 */
+	public long getFailureCount() {
+		return getLong(SummaryFields.FailureCount);
+	}
+
+	/**
+	 * Return the longest execution time of the summarized executions.
+	 * 
+	 * @return the maximum execution time in nanoseconds.
+	 */
+	public long getMaxTime() {
+		return getLong(SummaryFields.MaxTime);
+	}
+
+	/**
+	 * Return the shortest execution time of the summarized executions.
+	 * 
+	 * @return the minimum execution time in nanoseconds.
+	 */
+	public long getMinTime() {
+		return getLong(SummaryFields.MinTime);
+	}
+
+	/**
+	 * Return the number of summarized executions that partially succeeded.
+	 * 
+	 * @return the partial success count.
+	 */
+	public long getPartialSuccessCount() {
+		return getLong(SummaryFields.PartialSuccessCount);
+	}
+
+	/**
+	 * Return the number of summarized executions that succeeded.
+	 * 
+	 * @return the success count.
+	 */
+	public long getSuccessCount() {
+		return getLong(SummaryFields.SuccessCount);
+	}
+
+	/**
+	 * Return the sum of the execution times of the summarized executions.
+	 * 
+	 * @return the total execution time in nanoseconds.
+	 */
+	public long getTotalTime() {
+		return getLong(SummaryFields.TotalTime);
+	}
+
+	/**
+	 * Return the number of summarized executions without a status.
+	 * 
+	 * @return the unknown count.
+	 */
+	public long getUnknownCount() {
+		return getLong(SummaryFields.UnknownCount);
+	}
+
+	/**
+	 * Set the number of artifacts folded into the summary.
+	 * 
+	 * @param count
+	 *          The summarized count.
+	 */
+	public void setCount(long count) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.Count), count);
+	}
+
+	/**
+	 * Set the number of summarized executions that failed.
+	 * 
+	 * @param count
+	 *          The failure count.
+	 */
+	public void setFailureCount(long count) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.FailureCount), count);
+	}
+
+	/**
+	 * Set the longest execution time of the summarized executions.
+	 * 
+	 * @param time
+	 *          The maximum execution time in nanoseconds.
+	 */
+	public void setMaxTime(long time) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.MaxTime), time);
+	}
+
+	/**
+	 * Set the shortest execution time of the summarized executions.
+	 * 
+	 * @param time
+	 *          The minimum execution time in nanoseconds.
+	 */
+	public void setMinTime(long time) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.MinTime), time);
+	}
+
+	/**
+	 * Set the number of summarized executions that partially succeeded.
+	 * 
+	 * @param count
+	 *          The partial success count.
+	 */
+	public void setPartialSuccessCount(long count) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.PartialSuccessCount), count);
+	}
+
+	/**
+	 * Set the number of summarized executions that succeeded.
+	 * 
+	 * @param count
+	 *          The success count.
+	 */
+	public void setSuccessCount(long count) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.SuccessCount), count);
+	}
+
+	/**
+	 * Set the sum of the execution times of the summarized executions.
+	 * 
+	 * @param time
+	 *          The total execution time in nanoseconds.
+	 */
+	public void setTotalTime(long time) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.TotalTime), time);
+	}
+
+	/**
+	 * Set the number of summarized executions without a status.
+	 * 
+	 * @param count
+	 *          The unknown count.
+	 */
+	public void setUnknownCount(long count) {
+		putLongSlot(FieldSlots.indexOf(SummaryFields.UnknownCount), count);
+	}
+
+	private long getLong(SummaryFields field) {
+		return getLongSlot(FieldSlots.indexOf(field));
+	}
+}
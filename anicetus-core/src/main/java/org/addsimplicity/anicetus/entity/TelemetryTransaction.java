@@ -52,7 +52,7 @@ public class TelemetryTransaction extends ExecInfo {
 	 * @return the parameters associated with the operation.
 	 */
 	public Object[] getParameters() {
-		return (Object[]) get(TransactionFields.Parameters.name());
+		return (Object[]) getSlot(FieldSlots.indexOf(TransactionFields.Parameters));
 	}
 
 	/**
@@ -62,7 +62,7 @@ public class TelemetryTransaction extends ExecInfo {
 	 * @return the resource identifier.
 	 */
 	public String getResourceId() {
-		return (String) get(TransactionFields.ResourceId.name());
+		return (String) getSlot(FieldSlots.indexOf(TransactionFields.ResourceId));
 	}
 
 	/**
@@ -72,7 +72,7 @@ public class TelemetryTransaction extends ExecInfo {
 	 *          The list of parameters associated with the operation.
 	 */
 	public void setParameters(Object[] params) {
-		put(TransactionFields.Parameters.name(), params);
+		putSlot(FieldSlots.indexOf(TransactionFields.Parameters), params);
 	}
 
 	/**
@@ -83,6 +83,6 @@ public class TelemetryTransaction extends ExecInfo {
 	 *          The identifier of the primary resource.
 	 */
 	public void setResourceId(String resource) {
-		put(TransactionFields.ResourceId.name(), resource);
+		putSlot(FieldSlots.indexOf(TransactionFields.ResourceId), resource);
 	}
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.entity;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time ordered id generator creates UUIDs whose leading bits are the
+ * creation time in milliseconds, following the layout of version 7 UUIDs. The
+ * next twelve bits are a per thread sequence that keeps identifiers created by
+ * one thread in the same millisecond in order. The remaining bits are random.
+ * 
+ * Identifiers sort by creation time, both as UUIDs and as strings, which keeps
+ * related telemetry close together in files and indexes. Each thread keeps its
+ * own generator state, seeded once from a secure source, so creating an
+ * identifier never blocks.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class TimeOrderedIdGenerator implements EntityIdGenerator {
+	private static final long s_SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+	private static final AtomicLong s_seed = new AtomicLong(new SecureRandom().nextLong());
+
+	/**
+	 * The generator state for a single thread.
+	 */
+	private static final class State {
+		private long m_lastMillis;
+		private int m_sequence;
+		private long m_random = mix(s_seed.addAndGet(s_SEED_INCREMENT) ^ System.nanoTime());
+
+		UUID next() {
+			long millis = System.currentTimeMillis();
+			if (millis > m_lastMillis) {
+				m_lastMillis = millis;
+				m_sequence = 0;
+			}
+			else if (++m_sequence > 0xFFF) {
+				// The sequence is exhausted or the clock went backwards. Borrow from the
+				// next millisecond so the identifiers stay in order.
+				//
+				m_lastMillis++;
+				m_sequence = 0;
+			}
+
+			final long msb = (m_lastMillis << 16) | 0x7000L | m_sequence;
+			final long lsb = (nextRandom() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+
+			return new UUID(msb, lsb);
+		}
+
+		private long nextRandom() {
+			// xorshift64*
+			//
+			m_random ^= m_random >>> 12;
+			m_random ^= m_random << 25;
+			m_random ^= m_random >>> 27;
+
+			return m_random * 0x2545F4914F6CDD1DL;
+		}
+	}
+
+	private static final ThreadLocal<State> s_state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+
+		return z != 0 ? z : s_SEED_INCREMENT;
+	}
+
+	/**
+	 * Create a time ordered identifier.
+	 * 
+	 * @return a new identifier.
+	 * @see org.addsimplicity.anicetus.entity.EntityIdGenerator#nextId()
+	 */
+	public UUID nextId() {
+		return s_state.get().next();
+	}
+
+}
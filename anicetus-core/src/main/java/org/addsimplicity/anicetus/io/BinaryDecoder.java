@@ -0,0 +1,525 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryContainer;
+import org.addsimplicity.anicetus.entity.TelemetryState;
+
+/**
+ * The binary decoder translates telemetry written by the BinaryEncoder back
+ * into artifacts. Types are resolved the same way as the JsonDecoder, first by
+ * short name, then by class name, and then within each search package. A type
+ * that can not be resolved is reported to the exception handler and decoded as
+ * a TelemetryState.
+ * 
+ * Numbers and booleans are stored with the typed put methods. Registered beans
+ * are created with their no argument constructor and their properties set
+ * through the matching setters. Numbers are converted to the type the setter
+ * takes.
+ * 
+ * Telemetry encoded with a dictionary must be decoded in the order it was
+ * encoded, starting with the first telemetry of the stream, and a decoder can
+ * follow only one such stream at a time. The dictionary is rebuilt from the
+ * stream itself, as are the session templates, so the decoder needs no
+ * configuration to read it. Telemetry encoded without a dictionary may be
+ * decoded by any number of threads sharing one decoder.
+ * 
+ * A projection skips the fields and children it does not want, but their
+ * values are still read, both to find the end of the telemetry and to keep the
+ * dictionary in step with the stream.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.BinaryEncoder
+ * 
+ */
+public class BinaryDecoder implements StreamingTelemetryDecoder {
+	private static final Charset s_UTF8 = Charset.forName("UTF-8");
+
+	static {
+		EntityTypeRegistry.addSearchPackage(GlobalInfo.class.getPackage().getName());
+	}
+
+	private final ConcurrentMap<Class<?>, Map<String, Method>> m_setters = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+
+	private volatile ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
+	private StringDictionary m_dictionary;
+	private ShapeTemplates m_templates;
+	private boolean m_streaming;
+
+	/**
+	 * Decode telemetry returned by the encode method of the BinaryEncoder, which
+	 * holds one byte in each character.
+	 * 
+	 * @param encoded
+	 *          The encoded telemetry.
+	 * @return the root artifact or null if the telemetry can not be decoded.
+	 */
+	public GlobalInfo decode(char[] encoded) {
+		final byte[] bytes = new byte[encoded.length];
+		for (int i = 0; i < encoded.length; i++) {
+			bytes[i] = (byte) encoded[i];
+		}
+
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Decode the telemetry from the position of the buffer. The position is left
+	 * after the decoded telemetry.
+	 * 
+	 * @param encoded
+	 *          The encoded telemetry.
+	 * @return the root artifact or null if the telemetry can not be decoded.
+	 */
+	public GlobalInfo decode(ByteBuffer encoded) {
+		return decode(encoded, null);
+	}
+
+	/**
+	 * Decode the telemetry from the position of the buffer, building only what
+	 * the projection asks for. The position is left after the telemetry whether
+	 * or not it is accepted, since the values must be read to find its end.
+	 * 
+	 * @param encoded
+	 *          The encoded telemetry.
+	 * @param projection
+	 *          The projection to apply to the root or null to decode all of the
+	 *          telemetry.
+	 * @return the root artifact or null if the telemetry can not be decoded or
+	 *         is rejected.
+	 */
+	public GlobalInfo decode(ByteBuffer encoded, TelemetryProjection projection) {
+		try {
+			if (encoded.get() != BinaryFormat.s_MAGIC || encoded.get() != BinaryFormat.s_VERSION) {
+				throw new IOException("Not binary telemetry or an unsupported version");
+			}
+
+			final byte mode = encoded.get();
+			if (mode == BinaryFormat.s_PLAIN) {
+				return readEntity(encoded, null, encoded, null, 0L, projection);
+			}
+
+			synchronized (this) {
+				if (mode == BinaryFormat.s_STREAM_RESET) {
+					final long size = readVarint(encoded);
+					final long count = readVarint(encoded);
+					if (size < 0 || size > BinaryFormat.s_MAX_DICTIONARY_SIZE || count < 0
+							|| count > BinaryFormat.s_MAX_TEMPLATE_COUNT) {
+						throw new IOException("Invalid stream limits " + size + ", " + count);
+					}
+
+					m_dictionary = size > 0 ? new StringDictionary((int) size, false) : null;
+					m_templates = count > 0 ? new ShapeTemplates((int) count, false) : null;
+					m_streaming = true;
+				}
+				else if (mode != BinaryFormat.s_STREAM) {
+					throw new IOException("Unknown string mode " + mode);
+				}
+				else if (!m_streaming) {
+					throw new IOException("Stream telemetry decoded before the start of its stream");
+				}
+
+				return readStream(encoded, projection);
+			}
+		}
+		catch (final IOException e) {
+			m_exceptionHandler.exceptionCaught(e);
+		}
+		catch (final BufferUnderflowException e) {
+			m_exceptionHandler.exceptionCaught(new IOException("Truncated binary telemetry"));
+		}
+		catch (final RuntimeException e) {
+			// A corrupt record can put a value of the wrong type in a field, which
+			// is only found when the field is read.
+			//
+			m_exceptionHandler.exceptionCaught(e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Return the exception handler in effect for the decoder.
+	 * 
+	 * @return the exception handler in effect.
+	 */
+	public ExceptionHandler getExceptionHandler() {
+		return m_exceptionHandler;
+	}
+
+	/**
+	 * Set the exception handler that will receive any exception that occurs
+	 * during decoding.
+	 * 
+	 * @param exceptionHandler
+	 *          The exception handler.
+	 */
+	public void setExceptionHandler(ExceptionHandler exceptionHandler) {
+		m_exceptionHandler = exceptionHandler;
+	}
+
+	private Object coerce(Object value, Class<?> type) {
+		if (!(value instanceof Number) || type.isInstance(value)) {
+			return value;
+		}
+
+		final Number n = (Number) value;
+		if (type == Long.TYPE || type == Long.class) {
+			return n.longValue();
+		}
+		else if (type == Integer.TYPE || type == Integer.class) {
+			return n.intValue();
+		}
+		else if (type == Short.TYPE || type == Short.class) {
+			return n.shortValue();
+		}
+		else if (type == Byte.TYPE || type == Byte.class) {
+			return n.byteValue();
+		}
+		else if (type == Float.TYPE || type == Float.class) {
+			return n.floatValue();
+		}
+		else if (type == Double.TYPE || type == Double.class) {
+			return n.doubleValue();
+		}
+
+		return value;
+	}
+
+	private Map<String, Method> getSetters(Class<?> cls) {
+		Map<String, Method> setters = m_setters.get(cls);
+		if (setters == null) {
+			setters = new HashMap<String, Method>();
+			for (Method m : cls.getMethods()) {
+				final String mname = m.getName();
+				if (mname.length() > 3 && mname.startsWith("set") && m.getParameterTypes().length == 1) {
+					setters.put(mname.substring(3), m);
+				}
+			}
+			final Map<String, Method> prior = m_setters.putIfAbsent(cls, setters);
+			if (prior != null) {
+				setters = prior;
+			}
+		}
+
+		return setters;
+	}
+
+	private Object newInstance(String tname) {
+		final Class<?> cls = EntityTypeRegistry.resolveType(tname);
+		if (cls == null) {
+			m_exceptionHandler.exceptionCaught(new ClassNotFoundException(tname));
+			return null;
+		}
+
+		try {
+			return cls.getConstructor().newInstance();
+		}
+		catch (final Exception e) {
+			m_exceptionHandler.exceptionCaught(e);
+			return null;
+		}
+	}
+
+	private Object readBean(ByteBuffer in, StringDictionary dictionary) throws IOException {
+		final Object bean = newInstance(readString(in, dictionary));
+		final Map<String, Method> setters = bean != null ? getSetters(bean.getClass()) : null;
+
+		for (String name = readString(in, dictionary); name.length() > 0; name = readString(in, dictionary)) {
+			final Object value = readValue(in.get(), in, dictionary);
+			final Method setter = setters != null ? setters.get(name) : null;
+			if (setter == null) {
+				continue;
+			}
+
+			final Class<?> type = setter.getParameterTypes()[0];
+			if (value == null && type.isPrimitive()) {
+				continue;
+			}
+
+			try {
+				setter.invoke(bean, coerce(value, type));
+			}
+			catch (final Exception e) {
+				m_exceptionHandler.exceptionCaught(e);
+			}
+		}
+
+		return bean;
+	}
+
+	private void readElements(ByteBuffer in, StringDictionary dictionary, Collection<Object> elements) throws IOException {
+		final int count = (int) readVarint(in);
+		for (int i = 0; i < count; i++) {
+			elements.add(readValue(in.get(), in, dictionary));
+		}
+	}
+
+	/**
+	 * Read an artifact and its children. The structure of the artifact is read
+	 * from the shape and its values from the input, which are the same unless the
+	 * artifact was written with a template. Fields of the root that are not
+	 * projected are read in to a scratch artifact so that they are skipped
+	 * without changing the root.
+	 */
+	private GlobalInfo readEntity(ByteBuffer shape, StringDictionary shapeStrings, ByteBuffer in,
+			StringDictionary dictionary, long baseTime, TelemetryProjection projection) throws IOException {
+		final Object artifact = newInstance(readString(shape, shapeStrings));
+		final GlobalInfo info = artifact instanceof GlobalInfo ? (GlobalInfo) artifact : new TelemetryState();
+		GlobalInfo skipped = null;
+
+		for (int code = (int) readVarint(shape); code != BinaryFormat.s_END_FIELDS; code = (int) readVarint(shape)) {
+			final String key = code == BinaryFormat.s_NAMED_FIELD ? readString(shape, shapeStrings) : BinaryFormat
+					.keyOf(code);
+			if (key == null) {
+				throw new IOException("Unknown field code " + code);
+			}
+
+			GlobalInfo target = info;
+			if (projection != null && !projection.includes(key)) {
+				if (skipped == null) {
+					skipped = new TelemetryState();
+				}
+				target = skipped;
+			}
+
+			final byte tag = shape.get();
+			switch (tag) {
+			case BinaryFormat.s_FALSE:
+			case BinaryFormat.s_TRUE:
+				target.putBoolean(key, tag == BinaryFormat.s_TRUE);
+				break;
+
+			case BinaryFormat.s_LONG:
+				target.putLong(key, readSigned(in));
+				break;
+
+			case BinaryFormat.s_INT:
+				target.putInt(key, (int) readSigned(in));
+				break;
+
+			case BinaryFormat.s_DOUBLE:
+				target.putDouble(key, Double.longBitsToDouble(in.getLong()));
+				break;
+
+			case BinaryFormat.s_TIME_DELTA:
+				target.putLong(key, baseTime + readSigned(in));
+				break;
+
+			default:
+				target.put(key, readValue(tag, in, dictionary));
+			}
+		}
+
+		// Children are timed from the encoded time stamp, which is always
+		// projected.
+		//
+		final long time = info.getTimeStamp();
+		final boolean accepted = projection == null || projection.accept(info);
+		final boolean attach = projection == null || (accepted && projection.isChildren());
+
+		final int children = (int) readVarint(shape);
+		for (int i = 0; i < children; i++) {
+			final GlobalInfo child = readEntity(shape, shapeStrings, in, dictionary, time, null);
+			if (!attach) {
+				continue;
+			}
+			else if (info instanceof TelemetryContainer) {
+				((TelemetryContainer) info).addChild(child);
+			}
+			else {
+				child.setParentId(info.getEntityId());
+			}
+		}
+
+		return accepted ? info : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readEnum(ByteBuffer in, StringDictionary dictionary) throws IOException {
+		final String tname = readString(in, dictionary);
+		final String name = readString(in, dictionary);
+
+		final Class<?> cls = EntityTypeRegistry.resolveType(tname);
+		if (cls == null || !cls.isEnum()) {
+			m_exceptionHandler.exceptionCaught(new ClassNotFoundException(tname));
+			return name;
+		}
+
+		try {
+			return Enum.valueOf((Class) cls, name);
+		}
+		catch (final IllegalArgumentException e) {
+			m_exceptionHandler.exceptionCaught(e);
+			return name;
+		}
+	}
+
+	private Object readValue(byte tag, ByteBuffer in, StringDictionary dictionary) throws IOException {
+		switch (tag) {
+		case BinaryFormat.s_NULL:
+			return null;
+
+		case BinaryFormat.s_FALSE:
+			return Boolean.FALSE;
+
+		case BinaryFormat.s_TRUE:
+			return Boolean.TRUE;
+
+		case BinaryFormat.s_LONG:
+			return readSigned(in);
+
+		case BinaryFormat.s_INT:
+			return (int) readSigned(in);
+
+		case BinaryFormat.s_DOUBLE:
+			return Double.longBitsToDouble(in.getLong());
+
+		case BinaryFormat.s_STRING:
+			return readString(in, dictionary);
+
+		case BinaryFormat.s_UUID:
+			return new UUID(in.getLong(), in.getLong());
+
+		case BinaryFormat.s_STATUS:
+			return CompletionStatus.fromAbbreviation((char) in.get());
+
+		case BinaryFormat.s_ENUM:
+			return readEnum(in, dictionary);
+
+		case BinaryFormat.s_ARRAY:
+		case BinaryFormat.s_STRINGS: {
+			final List<Object> elements = new ArrayList<Object>();
+			readElements(in, dictionary, elements);
+			return tag == BinaryFormat.s_STRINGS ? elements.toArray(new String[elements.size()]) : elements.toArray();
+		}
+
+		case BinaryFormat.s_LIST: {
+			final List<Object> elements = new ArrayList<Object>();
+			readElements(in, dictionary, elements);
+			return elements;
+		}
+
+		case BinaryFormat.s_SET: {
+			final Collection<Object> elements = new LinkedHashSet<Object>();
+			readElements(in, dictionary, elements);
+			return elements;
+		}
+
+		case BinaryFormat.s_BEAN:
+			return readBean(in, dictionary);
+
+		case BinaryFormat.s_ENTITY:
+			return readEntity(in, dictionary, in, dictionary, 0L, null);
+		}
+
+		throw new IOException("Unknown value tag " + tag);
+	}
+
+	/**
+	 * Read a stream message after its header. The caller must hold the lock on
+	 * the decoder.
+	 */
+	private GlobalInfo readStream(ByteBuffer in, TelemetryProjection projection) throws IOException {
+		final int marker = (int) readVarint(in);
+		if (marker == BinaryFormat.s_NO_TEMPLATE) {
+			return readEntity(in, m_dictionary, in, m_dictionary, 0L, projection);
+		}
+		else if (m_templates == null) {
+			throw new IOException("Template used on a stream without templates");
+		}
+
+		final byte[] shape;
+		if (marker == BinaryFormat.s_ADD_TEMPLATE || marker == BinaryFormat.s_INLINE_SHAPE) {
+			shape = new byte[(int) readVarint(in)];
+			in.get(shape);
+			if (marker == BinaryFormat.s_ADD_TEMPLATE) {
+				m_templates.add(shape, shape.length);
+			}
+		}
+		else {
+			shape = m_templates.get(marker - BinaryFormat.s_FIRST_TEMPLATE);
+			if (shape == null) {
+				throw new IOException("Unknown template " + marker);
+			}
+		}
+
+		return readEntity(ByteBuffer.wrap(shape), null, in, m_dictionary, 0L, projection);
+	}
+
+	private static long readSigned(ByteBuffer in) {
+		final long value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static String readString(ByteBuffer in, StringDictionary dictionary) {
+		if (dictionary != null) {
+			final int marker = (int) readVarint(in);
+			if (marker >= BinaryFormat.s_FIRST_REFERENCE) {
+				final String value = dictionary.get(marker - BinaryFormat.s_FIRST_REFERENCE);
+				if (value == null) {
+					throw new IllegalArgumentException("Unknown dictionary entry " + marker);
+				}
+
+				return value;
+			}
+			else if (marker == BinaryFormat.s_ADD_LITERAL) {
+				final String value = readString(in, null);
+				dictionary.add(value);
+				return value;
+			}
+		}
+
+		final int length = (int) readVarint(in);
+		final ByteBuffer bytes = in.slice();
+		bytes.limit(length);
+		in.position(in.position() + length);
+
+		return s_UTF8.decode(bytes).toString();
+	}
+
+	private static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Malformed variable length integer");
+	}
+}
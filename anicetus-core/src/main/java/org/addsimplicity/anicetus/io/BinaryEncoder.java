@@ -0,0 +1,680 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+
+import org.addsimplicity.anicetus.entity.AttributeVisitor;
+import org.addsimplicity.anicetus.entity.BeanProperties;
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfoFields;
+import org.addsimplicity.anicetus.entity.TelemetryContainer;
+
+/**
+ * The binary encoder translates telemetry into a compact binary form. The
+ * distinguished fields are written as small numeric codes, numbers as variable
+ * length integers, UUIDs as raw bytes, and the time stamps of children as the
+ * difference from their parent. Types are written with their short name from
+ * the EntityTypeRegistry, or their class name if they have none. Values keep
+ * their type, so numbers, booleans, UUIDs, enumerations, arrays, lists, sets,
+ * and registered beans are decoded as they were set.
+ * 
+ * The telemetry is encoded into a buffer that is reused by each thread and
+ * then copied to the sink in a single write. The encode method returns each
+ * byte as a character in the range 0 to 255 for transports that only carry
+ * characters.
+ * 
+ * When a dictionary size is set the encoder is meant for a single stream, such
+ * as a file or a long lived connection. Each string is assigned an entry in a
+ * bounded dictionary the first time it is written and only the identifier of
+ * the entry is written after that. Telemetry is then encoded and written one
+ * at a time so that the stream sees it in the order the dictionary does, and
+ * it must be decoded in that order by a single BinaryDecoder. If an encoding
+ * fails part way through, the next one starts a new dictionary.
+ * 
+ * A stream may also learn session templates. The structure of each session,
+ * its types, keys, value tags, and children, is encoded apart from its values.
+ * The first session with a given structure is written with its structure,
+ * which the decoder remembers, and later sessions with the same structure,
+ * typically those of the same operation, are written as the template
+ * identifier followed by their values alone. Templates are bounded and evicted
+ * in the same way as the dictionary.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.BinaryDecoder
+ * 
+ */
+public class BinaryEncoder implements StatefulEncoder, StreamingTelemetryEncoder {
+	private static final String s_PARENT_ID = GlobalInfoFields.ParentId.name();
+	private static final String s_TIME_STAMP = GlobalInfoFields.TimeStamp.name();
+
+	private static final ThreadLocal<Output> s_outputs = new ThreadLocal<Output>() {
+		@Override
+		protected Output initialValue() {
+			return new Output();
+		}
+	};
+
+	private static final ThreadLocal<Output> s_shapes = new ThreadLocal<Output>() {
+		@Override
+		protected Output initialValue() {
+			return new Output();
+		}
+	};
+
+	private static final ThreadLocal<Output> s_values = new ThreadLocal<Output>() {
+		@Override
+		protected Output initialValue() {
+			return new Output();
+		}
+	};
+
+	private ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
+	private StringDictionary m_dictionary;
+	private ShapeTemplates m_templates;
+	private boolean m_reset = true;
+
+	/**
+	 * Encode the telemetry graph with each byte held in a character.
+	 * 
+	 * @param session
+	 *          The telemetry graph to encode.
+	 * @return the encoded bytes as characters.
+	 */
+	public char[] encode(GlobalInfo session) {
+		if (!isStream()) {
+			return toChars(write(session, false));
+		}
+
+		synchronized (this) {
+			return toChars(write(session, true));
+		}
+	}
+
+	/**
+	 * Encode the telemetry graph into the buffer. The bytes are written from the
+	 * current position of the buffer, which is advanced past the encoded
+	 * telemetry.
+	 * 
+	 * @param session
+	 *          The telemetry graph to encode.
+	 * @param out
+	 *          The buffer that receives the encoded telemetry.
+	 * @throws java.nio.BufferOverflowException
+	 *           if the buffer does not have room for the encoded telemetry.
+	 */
+	public void encodeTo(GlobalInfo session, ByteBuffer out) {
+		if (!isStream()) {
+			final Output encoded = write(session, false);
+			out.put(encoded.m_buf, 0, encoded.m_count);
+			return;
+		}
+
+		synchronized (this) {
+			final Output encoded = write(session, true);
+			boolean written = false;
+			try {
+				out.put(encoded.m_buf, 0, encoded.m_count);
+				written = true;
+			}
+			finally {
+				m_reset |= !written;
+			}
+		}
+	}
+
+	/**
+	 * Encode the telemetry graph to the stream. The stream is not flushed or
+	 * closed.
+	 * 
+	 * @param session
+	 *          The telemetry graph to encode.
+	 * @param out
+	 *          The stream that receives the encoded telemetry.
+	 * @throws IOException
+	 *           if the stream can not be written.
+	 */
+	public void encodeTo(GlobalInfo session, OutputStream out) throws IOException {
+		if (!isStream()) {
+			final Output encoded = write(session, false);
+			out.write(encoded.m_buf, 0, encoded.m_count);
+			return;
+		}
+
+		synchronized (this) {
+			final Output encoded = write(session, true);
+			boolean written = false;
+			try {
+				out.write(encoded.m_buf, 0, encoded.m_count);
+				written = true;
+			}
+			finally {
+				m_reset |= !written;
+			}
+		}
+	}
+
+	/**
+	 * Return the number of strings kept in the dictionary.
+	 * 
+	 * @return the dictionary size or zero if strings are always written in full.
+	 */
+	public int getDictionarySize() {
+		return m_dictionary != null ? m_dictionary.capacity() : 0;
+	}
+
+	/**
+	 * Return the number of session templates kept for the stream.
+	 * 
+	 * @return the template count or zero if templates are not used.
+	 */
+	public int getTemplateCount() {
+		return m_templates != null ? m_templates.capacity() : 0;
+	}
+
+	/**
+	 * Return the exception handler currently in effect.
+	 * 
+	 * @return the exception handler.
+	 */
+	public ExceptionHandler getExceptionHandler() {
+		return m_exceptionHandler;
+	}
+
+	/**
+	 * Start a new dictionary and forget the templates with the next telemetry
+	 * encoded. Delivery adapters
+	 * call this when they open a new stream.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.StatefulEncoder#reset()
+	 */
+	public synchronized void reset() {
+		m_reset = true;
+	}
+
+	/**
+	 * Set the number of strings kept in the dictionary. A size of zero, the
+	 * default, writes every string in full and lets the telemetry be decoded in
+	 * any order.
+	 * 
+	 * @param size
+	 *          The maximum number of dictionary entries.
+	 */
+	public synchronized void setDictionarySize(int size) {
+		if (size < 0 || size > BinaryFormat.s_MAX_DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("Dictionary size must be between 0 and "
+					+ BinaryFormat.s_MAX_DICTIONARY_SIZE);
+		}
+
+		m_dictionary = size > 0 ? new StringDictionary(size, true) : null;
+		m_reset = true;
+	}
+
+	/**
+	 * Set the exception handler that will receive exceptions encountered during
+	 * encoding.
+	 * 
+	 * @param exceptionHandler
+	 *          The exception handler.
+	 */
+	public void setExceptionHandler(ExceptionHandler exceptionHandler) {
+		m_exceptionHandler = exceptionHandler;
+	}
+
+	/**
+	 * Set the number of session templates kept for the stream. A count of zero,
+	 * the default, writes the structure of every session.
+	 * 
+	 * @param count
+	 *          The maximum number of templates.
+	 */
+	public synchronized void setTemplateCount(int count) {
+		if (count < 0 || count > BinaryFormat.s_MAX_TEMPLATE_COUNT) {
+			throw new IllegalArgumentException("Template count must be between 0 and "
+					+ BinaryFormat.s_MAX_TEMPLATE_COUNT);
+		}
+
+		m_templates = count > 0 ? new ShapeTemplates(count, true) : null;
+		m_reset = true;
+	}
+
+	private boolean isStream() {
+		return m_dictionary != null || m_templates != null;
+	}
+
+	private static char[] toChars(Output out) {
+		final char[] encoded = new char[out.m_count];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = (char) (out.m_buf[i] & 0xFF);
+		}
+
+		return encoded;
+	}
+
+	/**
+	 * Encode the telemetry into the output of the calling thread. Callers that
+	 * encode for the stream must hold the lock on the encoder.
+	 */
+	private Output write(GlobalInfo session, boolean stream) {
+		final Output out = s_outputs.get();
+		out.m_count = 0;
+		out.writeByte(BinaryFormat.s_MAGIC);
+		out.writeByte(BinaryFormat.s_VERSION);
+
+		if (!stream) {
+			out.writeByte(BinaryFormat.s_PLAIN);
+			writeEntity(out, out, session, new FieldWriter(out, out), true, 0L);
+			return out;
+		}
+
+		if (m_reset) {
+			if (m_dictionary != null) {
+				m_dictionary.clear();
+			}
+			if (m_templates != null) {
+				m_templates.clear();
+			}
+			m_reset = false;
+
+			out.writeByte(BinaryFormat.s_STREAM_RESET);
+			out.writeVarint(getDictionarySize());
+			out.writeVarint(getTemplateCount());
+		}
+		else {
+			out.writeByte(BinaryFormat.s_STREAM);
+		}
+
+		boolean encoded = false;
+		try {
+			if (m_templates == null) {
+				out.m_dictionary = m_dictionary;
+				out.writeVarint(BinaryFormat.s_NO_TEMPLATE);
+				writeEntity(out, out, session, new FieldWriter(out, out), true, 0L);
+			}
+			else {
+				writeTemplate(out, session);
+			}
+			encoded = true;
+		}
+		finally {
+			out.m_dictionary = null;
+			m_reset |= !encoded;
+		}
+
+		return out;
+	}
+
+	private void writeBean(Output shape, Output out, Object value, BeanProperties props) {
+		shape.writeByte(BinaryFormat.s_BEAN);
+		writeString(out, value.getClass().getName());
+
+		for (int i = 0; i < props.size(); i++) {
+			final Object propVal;
+			try {
+				propVal = props.getValue(value, i);
+			}
+			catch (final InvocationTargetException e) {
+				m_exceptionHandler.exceptionCaught(e);
+				continue;
+			}
+
+			writeString(out, props.getName(i));
+			writeValue(out, out, propVal);
+		}
+
+		// Property names are never empty, so an empty name ends the bean.
+		//
+		writeString(out, "");
+	}
+
+	private void writeElements(Output shape, Output out, byte tag, int count, Iterable<?> elements) {
+		shape.writeByte(tag);
+		out.writeVarint(count);
+		for (Object element : elements) {
+			writeValue(out, out, element);
+		}
+	}
+
+	/**
+	 * Write an entity. The structure of the entity is written to the shape and
+	 * its values to the output, which are the same unless a template is being
+	 * built.
+	 */
+	private void writeEntity(Output shape, Output out, GlobalInfo gi, FieldWriter fields, boolean root,
+			long baseTime) {
+		String type = EntityTypeRegistry.getShortName(gi);
+		writeString(shape, type != null ? type : gi.getClass().getName());
+
+		fields.m_root = root;
+		fields.m_baseTime = baseTime;
+		try {
+			gi.visitAttributes(fields);
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		shape.writeVarint(BinaryFormat.s_END_FIELDS);
+
+		if (gi instanceof TelemetryContainer) {
+			final Collection<GlobalInfo> children = ((TelemetryContainer) gi).getChildren();
+			shape.writeVarint(children.size());
+
+			final long time = gi.getTimeStamp();
+			for (GlobalInfo child : children) {
+				writeEntity(shape, out, child, fields, false, time);
+			}
+		}
+		else {
+			shape.writeVarint(0);
+		}
+	}
+
+	private void writeKey(Output shape, String key) {
+		final int code = BinaryFormat.codeOf(key);
+		shape.writeVarint(code);
+		if (code == BinaryFormat.s_NAMED_FIELD) {
+			writeString(shape, key);
+		}
+	}
+
+	/**
+	 * Write a string. All strings of the encoding, including type names and keys,
+	 * are written by this method.
+	 */
+	private void writeString(Output out, String value) {
+		final StringDictionary dictionary = out.m_dictionary;
+		if (dictionary != null) {
+			final int id = dictionary.indexOf(value);
+			if (id >= 0) {
+				out.writeVarint(BinaryFormat.s_FIRST_REFERENCE + id);
+				return;
+			}
+
+			if (value.length() > 1 && value.length() <= BinaryFormat.s_MAX_ENTRY_LENGTH) {
+				dictionary.add(value);
+				out.writeVarint(BinaryFormat.s_ADD_LITERAL);
+			}
+			else {
+				out.writeVarint(BinaryFormat.s_LITERAL);
+			}
+		}
+
+		out.writeUtf8(value);
+	}
+
+	/**
+	 * Write a session using a template. The shape is written apart from the
+	 * values, without the dictionary so that it stays valid as the dictionary
+	 * changes, and is then replaced by its template identifier if it has been
+	 * seen before.
+	 */
+	private void writeTemplate(Output out, GlobalInfo session) {
+		final Output shape = s_shapes.get();
+		shape.m_count = 0;
+		final Output values = s_values.get();
+		values.m_count = 0;
+		values.m_dictionary = m_dictionary;
+		try {
+			writeEntity(shape, values, session, new FieldWriter(shape, values), true, 0L);
+		}
+		finally {
+			values.m_dictionary = null;
+		}
+
+		final int id = m_templates.indexOf(shape.m_buf, shape.m_count);
+		if (id >= 0) {
+			out.writeVarint(BinaryFormat.s_FIRST_TEMPLATE + id);
+		}
+		else {
+			if (shape.m_count <= BinaryFormat.s_MAX_SHAPE_LENGTH) {
+				m_templates.add(shape.m_buf, shape.m_count);
+				out.writeVarint(BinaryFormat.s_ADD_TEMPLATE);
+			}
+			else {
+				out.writeVarint(BinaryFormat.s_INLINE_SHAPE);
+			}
+			out.writeVarint(shape.m_count);
+			out.write(shape);
+		}
+		out.write(values);
+	}
+
+	private void writeValue(Output shape, Output out, Object value) {
+		if (value == null) {
+			shape.writeByte(BinaryFormat.s_NULL);
+		}
+		else if (value instanceof String) {
+			shape.writeByte(BinaryFormat.s_STRING);
+			writeString(out, (String) value);
+		}
+		else if (value instanceof Long) {
+			shape.writeByte(BinaryFormat.s_LONG);
+			out.writeSigned(((Long) value).longValue());
+		}
+		else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			shape.writeByte(BinaryFormat.s_INT);
+			out.writeSigned(((Number) value).intValue());
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			shape.writeByte(BinaryFormat.s_DOUBLE);
+			out.writeFixed(Double.doubleToLongBits(((Number) value).doubleValue()));
+		}
+		else if (value instanceof Boolean) {
+			shape.writeByte(((Boolean) value).booleanValue() ? BinaryFormat.s_TRUE : BinaryFormat.s_FALSE);
+		}
+		else if (value instanceof UUID) {
+			shape.writeByte(BinaryFormat.s_UUID);
+			out.writeFixed(((UUID) value).getMostSignificantBits());
+			out.writeFixed(((UUID) value).getLeastSignificantBits());
+		}
+		else if (value instanceof CompletionStatus) {
+			shape.writeByte(BinaryFormat.s_STATUS);
+			out.writeByte((byte) ((CompletionStatus) value).getAbbreviation());
+		}
+		else if (value instanceof Enum<?>) {
+			shape.writeByte(BinaryFormat.s_ENUM);
+			writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+			writeString(out, ((Enum<?>) value).name());
+		}
+		else if (value instanceof Object[]) {
+			final Object[] a = (Object[]) value;
+			shape.writeByte(value instanceof String[] ? BinaryFormat.s_STRINGS : BinaryFormat.s_ARRAY);
+			out.writeVarint(a.length);
+			for (Object element : a) {
+				writeValue(out, out, element);
+			}
+		}
+		else if (value instanceof Set<?>) {
+			writeElements(shape, out, BinaryFormat.s_SET, ((Set<?>) value).size(), (Set<?>) value);
+		}
+		else if (value instanceof Collection<?>) {
+			writeElements(shape, out, BinaryFormat.s_LIST, ((Collection<?>) value).size(), (Collection<?>) value);
+		}
+		else if (value instanceof GlobalInfo) {
+			shape.writeByte(BinaryFormat.s_ENTITY);
+			writeEntity(out, out, (GlobalInfo) value, new FieldWriter(out, out), true, 0L);
+		}
+		else {
+			final BeanProperties props = EntityTypeRegistry.getBeanProperties(value.getClass());
+			if (props != null) {
+				writeBean(shape, out, value, props);
+			}
+			else {
+				shape.writeByte(BinaryFormat.s_STRING);
+				writeString(out, value.toString());
+			}
+		}
+	}
+
+	/**
+	 * Writes the properties of one artifact at a time. The parent GUID of a child
+	 * is skipped as it's implicit in the containment structure, and the time
+	 * stamp of a child is written relative to its parent.
+	 */
+	private final class FieldWriter implements AttributeVisitor {
+		private final Output m_shape;
+		private final Output m_out;
+		private boolean m_root;
+		private long m_baseTime;
+
+		FieldWriter(Output shape, Output out) {
+			m_shape = shape;
+			m_out = out;
+		}
+
+		public void visitBoolean(String key, boolean value) {
+			writeKey(m_shape, key);
+			m_shape.writeByte(value ? BinaryFormat.s_TRUE : BinaryFormat.s_FALSE);
+		}
+
+		public void visitDouble(String key, double value) {
+			writeKey(m_shape, key);
+			m_shape.writeByte(BinaryFormat.s_DOUBLE);
+			m_out.writeFixed(Double.doubleToLongBits(value));
+		}
+
+		public void visitInt(String key, int value) {
+			writeKey(m_shape, key);
+			m_shape.writeByte(BinaryFormat.s_INT);
+			m_out.writeSigned(value);
+		}
+
+		public void visitLong(String key, long value) {
+			writeKey(m_shape, key);
+			if (!m_root && key.equals(s_TIME_STAMP)) {
+				m_shape.writeByte(BinaryFormat.s_TIME_DELTA);
+				m_out.writeSigned(value - m_baseTime);
+			}
+			else {
+				m_shape.writeByte(BinaryFormat.s_LONG);
+				m_out.writeSigned(value);
+			}
+		}
+
+		public void visitObject(String key, Object value) {
+			if (!m_root && key.equals(s_PARENT_ID)) {
+				return;
+			}
+
+			writeKey(m_shape, key);
+			writeValue(m_shape, m_out, value);
+		}
+	}
+
+	/**
+	 * A growable byte array that the telemetry is encoded into. One is kept for
+	 * each thread.
+	 */
+	private static final class Output {
+		byte[] m_buf = new byte[1024];
+		int m_count;
+		StringDictionary m_dictionary;
+
+		void write(Output other) {
+			ensure(other.m_count);
+			System.arraycopy(other.m_buf, 0, m_buf, m_count, other.m_count);
+			m_count += other.m_count;
+		}
+
+		void writeByte(byte b) {
+			ensure(1);
+			m_buf[m_count++] = b;
+		}
+
+		void writeFixed(long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				m_buf[m_count++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeSigned(long value) {
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		void writeUtf8(String value) {
+			final int length = value.length();
+			int bytes = 0;
+			for (int i = 0; i < length; i++) {
+				final char c = value.charAt(i);
+				if (c < 0x80) {
+					bytes += 1;
+				}
+				else if (c < 0x800) {
+					bytes += 2;
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					bytes += 4;
+					i++;
+				}
+				else {
+					bytes += 3;
+				}
+			}
+
+			writeVarint(bytes);
+			ensure(bytes);
+			for (int i = 0; i < length; i++) {
+				final char c = value.charAt(i);
+				if (c < 0x80) {
+					m_buf[m_count++] = (byte) c;
+				}
+				else if (c < 0x800) {
+					m_buf[m_count++] = (byte) (0xC0 | (c >> 6));
+					m_buf[m_count++] = (byte) (0x80 | (c & 0x3F));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					final int cp = Character.toCodePoint(c, value.charAt(++i));
+					m_buf[m_count++] = (byte) (0xF0 | (cp >> 18));
+					m_buf[m_count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					m_buf[m_count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					m_buf[m_count++] = (byte) (0x80 | (cp & 0x3F));
+				}
+				else {
+					m_buf[m_count++] = (byte) (0xE0 | (c >> 12));
+					m_buf[m_count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					m_buf[m_count++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		void writeVarint(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				m_buf[m_count++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			m_buf[m_count++] = (byte) value;
+		}
+
+		private void ensure(int bytes) {
+			if (m_count + bytes > m_buf.length) {
+				final byte[] grown = new byte[Math.max(m_buf.length * 2, m_count + bytes)];
+				System.arraycopy(m_buf, 0, grown, 0, m_count);
+				m_buf = grown;
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.addsimplicity.anicetus.entity.ExecInfoFields;
+import org.addsimplicity.anicetus.entity.GlobalInfoFields;
+import org.addsimplicity.anicetus.entity.SubTypedFields;
+import org.addsimplicity.anicetus.entity.SummaryFields;
+import org.addsimplicity.anicetus.entity.TransactionFields;
+
+/**
+ * The constants of the binary telemetry format shared by the BinaryEncoder and
+ * BinaryDecoder.
+ * 
+ * An encoded artifact starts with a three byte header, the magic number, the
+ * format version and the string mode, followed by the root entity. An entity
+ * is its type name, its fields, a zero field code, the number of children and
+ * then each child entity. A field is a field code followed by a tagged value.
+ * The code of a distinguished field is fixed by the ordinal of its field
+ * enumeration, so new fields must only be added to the end of an enumeration.
+ * Any other key is written with the named field code followed by the key
+ * itself.
+ * 
+ * Integers are written as zig-zag encoded variable length quantities. Strings
+ * are written as their UTF-8 length followed by the UTF-8 bytes. UUIDs are
+ * written as their sixteen raw bytes. The time stamp of a child is written as
+ * the difference from the time stamp of its parent.
+ * 
+ * A stream starts with a reset message, which carries the capacity of the
+ * dictionary and of the template table, and the messages that follow must be
+ * decoded in the order they were encoded. When the stream has a dictionary each
+ * string is preceded by a marker. A literal marker is followed by the string.
+ * An add marker is followed by the string, which is then added to the
+ * StringDictionary of the stream. Any larger marker refers to the dictionary
+ * entry whose identifier is the marker less the first reference marker.
+ * 
+ * Each stream message then has a template marker. Without a template the
+ * entity follows as usual. Otherwise the structure of the entity, its shape,
+ * is written apart from its values. The add and inline markers are followed by
+ * the length and bytes of the shape, which the add marker also adds to the
+ * ShapeTemplates of the stream, and then the values. Any larger marker refers
+ * to a template and is followed by the values alone. Shapes never use the
+ * dictionary.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.BinaryEncoder
+ * @see org.addsimplicity.anicetus.io.BinaryDecoder
+ * 
+ */
+final class BinaryFormat {
+	static final byte s_MAGIC = (byte) 0xAE;
+	static final byte s_VERSION = 1;
+
+	static final byte s_PLAIN = 0;
+	static final byte s_STREAM = 1;
+	static final byte s_STREAM_RESET = 2;
+
+	static final int s_LITERAL = 0;
+	static final int s_ADD_LITERAL = 1;
+	static final int s_FIRST_REFERENCE = 2;
+	static final int s_MAX_ENTRY_LENGTH = 4096;
+	static final int s_MAX_DICTIONARY_SIZE = 1 << 20;
+
+	static final int s_NO_TEMPLATE = 0;
+	static final int s_ADD_TEMPLATE = 1;
+	static final int s_INLINE_SHAPE = 2;
+	static final int s_FIRST_TEMPLATE = 3;
+	static final int s_MAX_SHAPE_LENGTH = 1 << 16;
+	static final int s_MAX_TEMPLATE_COUNT = 1 << 12;
+
+	static final int s_END_FIELDS = 0;
+	static final int s_NAMED_FIELD = 1;
+
+	static final byte s_NULL = 0;
+	static final byte s_FALSE = 1;
+	static final byte s_TRUE = 2;
+	static final byte s_LONG = 3;
+	static final byte s_INT = 4;
+	static final byte s_DOUBLE = 5;
+	static final byte s_STRING = 6;
+	static final byte s_UUID = 7;
+	static final byte s_STATUS = 8;
+	static final byte s_TIME_DELTA = 9;
+	static final byte s_ENUM = 10;
+	static final byte s_ARRAY = 11;
+	static final byte s_STRINGS = 12;
+	static final byte s_LIST = 13;
+	static final byte s_SET = 14;
+	static final byte s_BEAN = 15;
+	static final byte s_ENTITY = 16;
+
+	private static final int s_GLOBAL_BASE = 16;
+	private static final int s_EXEC_BASE = 32;
+	private static final int s_TRANSACTION_BASE = 48;
+	private static final int s_SUB_TYPED_BASE = 64;
+	private static final int s_SUMMARY_BASE = 80;
+
+	private static final String[] s_keys = new String[s_SUMMARY_BASE + SummaryFields.values().length];
+	private static final Map<String, Integer> s_codes = new HashMap<String, Integer>();
+
+	static {
+		for (GlobalInfoFields field : GlobalInfoFields.values()) {
+			addCode(s_GLOBAL_BASE + field.ordinal(), field.name());
+		}
+		for (ExecInfoFields field : ExecInfoFields.values()) {
+			addCode(s_EXEC_BASE + field.ordinal(), field.name());
+		}
+		for (TransactionFields field : TransactionFields.values()) {
+			addCode(s_TRANSACTION_BASE + field.ordinal(), field.name());
+		}
+		for (SubTypedFields field : SubTypedFields.values()) {
+			addCode(s_SUB_TYPED_BASE + field.ordinal(), field.name());
+		}
+		for (SummaryFields field : SummaryFields.values()) {
+			addCode(s_SUMMARY_BASE + field.ordinal(), field.name());
+		}
+	}
+
+	/**
+	 * Return the field code of a key.
+	 * 
+	 * @param key
+	 *          The property key.
+	 * @return the field code or the named field code if the key is not a
+	 *         distinguished field.
+	 */
+	static int codeOf(String key) {
+		final Integer code = s_codes.get(key);
+		return code != null ? code.intValue() : s_NAMED_FIELD;
+	}
+
+	/**
+	 * Return the key of a field code.
+	 * 
+	 * @param code
+	 *          The field code.
+	 * @return the property key or null if the code is not known.
+	 */
+	static String keyOf(int code) {
+		return code >= 0 && code < s_keys.length ? s_keys[code] : null;
+	}
+
+	private static void addCode(int code, String key) {
+		s_keys[code] = key;
+		s_codes.put(key, code);
+	}
+
+	private BinaryFormat() {
+	}
+}
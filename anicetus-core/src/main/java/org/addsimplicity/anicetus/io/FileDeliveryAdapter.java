@@ -16,11 +16,14 @@
  */
 package org.addsimplicity.anicetus.io;
 
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 
 import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.io.compress.BlockCodec;
+import org.addsimplicity.anicetus.io.compress.BlockOutputStream;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
@@ -28,27 +31,62 @@ import org.springframework.beans.factory.DisposableBean;
  * adapter is provided to assist with development debugging where running a bus
  * may not be necessary or convenient.
  * 
+ * Files, and any output stream set on the adapter, are written with the UTF-8
+ * bytes produced directly by the translator. A writer may be set instead, in
+ * which case the translated characters are written to it.
+ * 
+ * A StatefulEncoder, such as a BinaryEncoder with a dictionary, is reset each
+ * time a new file, stream, or writer is set, so that every file starts a
+ * stream that can be decoded on its own.
+ * 
+ * When a block codec is set, the bytes written to the file or stream are
+ * batched into blocks and compressed with the codec, and can be read back with
+ * a BlockInputStream. Telemetry is held until a block fills, so the adapter
+ * should be flushed or closed to write the last block. Telemetry written to a
+ * writer is not compressed.
+ * 
+ * When records are delimited, a newline is written after each telemetry so
+ * that a file can be split on record boundaries and read in parallel by a
+ * TelemetryFileReader. Delimiting is only meaningful for text encodings such as
+ * JSON, since binary telemetry may itself hold newline bytes.
+ * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
-public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
+public class FileDeliveryAdapter implements DeliveryAdapter, SynchronousDelivery, DisposableBean {
 	private ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
 
 	private TelemetryEncoder m_translator = new JsonEncoder();
 
 	private Writer m_writer;
+	private OutputStream m_stream;
 	private boolean m_ownStream;
 
+	private BlockCodec m_blockCodec;
+	private int m_blockSize = 64 * 1024;
+	private BlockOutputStream m_blocks;
+
+	private boolean m_recordDelimited;
+
 	/**
 	 * Close the current file stream, if it was opened by the delivery adapter.
+	 * Any telemetry held for the current block is written first.
 	 * 
 	 * @throws IOException
 	 *           if an error occurs while attempting to close the stream.
 	 */
 	public void close() throws IOException {
-		if (m_writer != null && m_ownStream) {
-			m_writer.close();
-			m_writer = null;
+		try {
+			if (m_blocks != null) {
+				m_blocks.finish();
+			}
+		}
+		finally {
+			if (m_stream != null && m_ownStream) {
+				m_stream.close();
+				m_stream = null;
+				m_blocks = null;
+			}
 		}
 	}
 
@@ -62,6 +100,51 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 		close();
 	}
 
+	private void finishBlocks() throws IOException {
+		if (m_blocks != null) {
+			final BlockOutputStream blocks = m_blocks;
+			m_blocks = null;
+			blocks.finish();
+		}
+	}
+
+	/**
+	 * Write any telemetry held for the current block and flush the stream.
+	 * 
+	 * @throws IOException
+	 *           if the block can not be written.
+	 */
+	public void flush() throws IOException {
+		if (m_blocks != null) {
+			m_blocks.finish();
+		}
+
+		if (m_stream != null) {
+			m_stream.flush();
+		}
+		else if (m_writer != null) {
+			m_writer.flush();
+		}
+	}
+
+	/**
+	 * Get the codec used to compress blocks of telemetry.
+	 * 
+	 * @return the codec or null if telemetry is not compressed.
+	 */
+	public BlockCodec getBlockCodec() {
+		return m_blockCodec;
+	}
+
+	/**
+	 * Get the number of bytes of telemetry in each compressed block.
+	 * 
+	 * @return the block size.
+	 */
+	public int getBlockSize() {
+		return m_blockSize;
+	}
+
 	/**
 	 * Get the current exception handler that is in effect.
 	 * 
@@ -71,6 +154,15 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 		return m_exceptionHandler;
 	}
 
+	/**
+	 * Get the current byte stream where telemetry is being written.
+	 * 
+	 * @return the current stream or null if telemetry is written to a writer.
+	 */
+	public OutputStream getOutputStream() {
+		return m_stream;
+	}
+
 	/**
 	 * Get the current session translator that is in effect.
 	 * 
@@ -81,14 +173,35 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 	}
 
 	/**
-	 * Get the current stream where telemetry is being written.
+	 * Get the current character stream where telemetry is being written.
 	 * 
-	 * @return the current stream.
+	 * @return the current writer or null if telemetry is written to a byte
+	 *         stream.
 	 */
 	public Writer getWriter() {
 		return m_writer;
 	}
 
+	private void openBlocks() {
+		m_blocks = m_stream != null && m_blockCodec != null ? new BlockOutputStream(m_stream, m_blockCodec, m_blockSize)
+				: null;
+	}
+
+	private void resetTranslator() {
+		if (m_translator instanceof StatefulEncoder) {
+			((StatefulEncoder) m_translator).reset();
+		}
+	}
+
+	/**
+	 * Return true if a newline is written after each telemetry.
+	 * 
+	 * @return true if records are delimited.
+	 */
+	public boolean isRecordDelimited() {
+		return m_recordDelimited;
+	}
+
 	/**
 	 * Send the telemetry to the file. It will be translated using the session
 	 * translator and written immediately to the file, blocking the caller until
@@ -100,13 +213,60 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 	 */
 	public void sendTelemetry(GlobalInfo telemetry) {
 		try {
-			m_writer.write(m_translator.encode(telemetry));
+			final OutputStream out = m_blocks != null ? m_blocks : m_stream;
+			if (out != null) {
+				if (m_translator instanceof StreamingTelemetryEncoder) {
+					((StreamingTelemetryEncoder) m_translator).encodeTo(telemetry, out);
+				}
+				else {
+					out.write(new String(m_translator.encode(telemetry)).getBytes("UTF-8"));
+				}
+				if (m_recordDelimited) {
+					out.write('\n');
+				}
+			}
+			else {
+				m_writer.write(m_translator.encode(telemetry));
+				if (m_recordDelimited) {
+					m_writer.write('\n');
+				}
+			}
 		}
 		catch (final IOException ioe) {
 			m_exceptionHandler.exceptionCaught(ioe);
 		}
 	}
 
+	/**
+	 * Set the codec used to compress blocks of telemetry written to the file or
+	 * stream. Any telemetry held for the current block is written first.
+	 * 
+	 * @param codec
+	 *          The codec or null to write telemetry uncompressed.
+	 * @throws IOException
+	 *           if the current block can not be written.
+	 */
+	public void setBlockCodec(BlockCodec codec) throws IOException {
+		finishBlocks();
+		m_blockCodec = codec;
+		openBlocks();
+	}
+
+	/**
+	 * Set the number of bytes of telemetry in each compressed block. The default
+	 * is 64K. Any telemetry held for the current block is written first.
+	 * 
+	 * @param blockSize
+	 *          The block size.
+	 * @throws IOException
+	 *           if the current block can not be written.
+	 */
+	public void setBlockSize(int blockSize) throws IOException {
+		finishBlocks();
+		m_blockSize = blockSize;
+		openBlocks();
+	}
+
 	/**
 	 * Set the exception handler that will receive exceptions that occur.
 	 * 
@@ -129,8 +289,30 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 	 */
 	public void setFile(String fileName) throws IOException {
 		close();
-		m_writer = new FileWriter(fileName, true);
+		m_writer = null;
+		m_stream = new FileOutputStream(fileName, true);
 		m_ownStream = true;
+		openBlocks();
+		resetTranslator();
+	}
+
+	/**
+	 * Set the byte stream to use for writing telemetry. Telemetry is written to
+	 * it as UTF-8. Note that this stream will not be closed by the delivery
+	 * adapter. Any previously opened file will be closed.
+	 * 
+	 * @param stream
+	 *          The stream to be used for writing telemetry.
+	 * @throws IOException
+	 *           if the previously opened file can not be closed.
+	 */
+	public void setOutputStream(OutputStream stream) throws IOException {
+		close();
+		m_writer = null;
+		m_stream = stream;
+		m_ownStream = false;
+		openBlocks();
+		resetTranslator();
 	}
 
 	/**
@@ -143,6 +325,18 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 	 */
 	public void setTranslator(TelemetryEncoder translator) {
 		m_translator = translator;
+		resetTranslator();
+	}
+
+	/**
+	 * Set whether a newline is written after each telemetry. The default is
+	 * false.
+	 * 
+	 * @param recordDelimited
+	 *          True if records should be delimited.
+	 */
+	public void setRecordDelimited(boolean recordDelimited) {
+		m_recordDelimited = recordDelimited;
 	}
 
 	/**
@@ -154,8 +348,17 @@ public class FileDeliveryAdapter implements DeliveryAdapter, DisposableBean {
 	 *          The stream to be used for writing telemetry.
 	 */
 	public void setWriter(Writer writer) {
+		try {
+			finishBlocks();
+		}
+		catch (final IOException ioe) {
+			m_exceptionHandler.exceptionCaught(ioe);
+		}
+
 		m_writer = writer;
+		m_stream = null;
 		m_ownStream = false;
+		resetTranslator();
 	}
 
 }
@@ -18,18 +18,22 @@ package org.addsimplicity.anicetus.io;
 
 import java.io.CharArrayReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.addsimplicity.anicetus.entity.ChildLoader;
 import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.ExecInfo;
 import org.addsimplicity.anicetus.entity.GlobalInfo;
 import org.addsimplicity.anicetus.entity.JsonConstants;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -37,40 +41,148 @@ import org.codehaus.jackson.map.ObjectMapper;
  * addition to decoding the telemetry maps, the decoder will also attempt to
  * decode simple Java beans. It relies upon the application adding packages for
  * searching for types to detect a bean. If it encounters a type it doesn't
- * recognize, it decodes it into a TelemetryState which is just a simple map.
+ * recognize, the object is reported to the exception handler and skipped.
  * 
  * When converting strings into types, the decoder looks for getter methods of
  * the appropriate name. The return type of the getter is used to drive the
  * conversion. If it is a primitive, the appropriate primitive converter is
  * used. If it is not a primitive, it will look for static fromString and
  * valueOf methods that take String as a single argument. The methods are
- * searched in that order to provide for custom decoders on Enum types.
+ * searched in that order to provide for custom decoders on Enum types. The
+ * methods found for each property are resolved once and shared by all
+ * decoders.
+ * 
+ * The telemetry is built in a single pass over the JSON tokens, using parsers
+ * from a shared factory that recycles their buffers. Objects are expected to
+ * name their type first, as the JsonEncoder writes them. Any fields that come
+ * before the type are held as trees until the type is known and then applied.
+ * JSON may be decoded from characters, bytes, a buffer or a stream, where
+ * bytes are in any of the encodings JSON allows.
+ * 
+ * A projection may be given to decode only some of the root fields, and to
+ * reject telemetry before its children are decoded. Fields that are not
+ * projected are skipped in the token stream without being built.
+ * 
+ * The children of sessions and transactions may be decoded lazily. The
+ * encoded children are then kept with their container and decoded the first
+ * time they are used, which saves consumers that only look at the root the
+ * cost of building the whole tree. Children are only deferred when decoding
+ * UTF-8 bytes. Other input is always decoded eagerly.
+ * 
+ * A decoder holds no state between telemetry, so a single instance may be
+ * shared by any number of threads.
  * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
-public class JsonDecoder implements TelemetryDecoder {
-	private static final Map<Class<?>, Class<?>> s_primitiveBox = new HashMap<Class<?>, Class<?>>();
+public class JsonDecoder implements StreamingTelemetryDecoder {
+	private static final JsonFactory s_factory = new JsonFactory();
+	private static final ObjectMapper s_mapper = new ObjectMapper(s_factory);
 
 	static {
 		EntityTypeRegistry.addSearchPackage(GlobalInfo.class.getPackage()
 				.getName());
+		s_factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
 	}
 
-	static {
-		s_primitiveBox.put(Boolean.TYPE, Boolean.class);
-		s_primitiveBox.put(Character.TYPE, Character.class);
-		s_primitiveBox.put(Byte.TYPE, Byte.class);
-		s_primitiveBox.put(Short.TYPE, Short.class);
-		s_primitiveBox.put(Integer.TYPE, Integer.class);
-		s_primitiveBox.put(Long.TYPE, Long.class);
-		s_primitiveBox.put(Float.TYPE, Float.class);
-		s_primitiveBox.put(Double.TYPE, Double.class);
+	private volatile ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
+	private boolean m_lazyChildren;
+
+	/**
+	 * Convert a byte array that holds a JSON encoded object.
+	 * 
+	 * @param jsonEncoded
+	 *            The encoded JSON object.
+	 * @return the root telemetry artifact or null if it can not be decoded.
+	 */
+	public GlobalInfo decode(byte[] jsonEncoded) {
+		return decode(jsonEncoded, 0, jsonEncoded.length);
 	}
 
-	private final Map<String, Class<? extends Object>> m_typeCache = new HashMap<String, Class<? extends Object>>();
+	/**
+	 * Convert part of a byte array that holds a JSON encoded object.
+	 * 
+	 * @param jsonEncoded
+	 *            The buffer holding the encoded JSON object.
+	 * @param offset
+	 *            The offset of the object in the buffer.
+	 * @param length
+	 *            The length of the object.
+	 * @return the root telemetry artifact or null if it can not be decoded.
+	 */
+	public GlobalInfo decode(byte[] jsonEncoded, int offset, int length) {
+		return decode(jsonEncoded, offset, length, null);
+	}
 
-	private ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
+	/**
+	 * Convert part of a byte array that holds a JSON encoded object, building
+	 * only what the projection asks for. Fields and children that are not
+	 * wanted are skipped without being built.
+	 * 
+	 * @param jsonEncoded
+	 *            The buffer holding the encoded JSON object.
+	 * @param offset
+	 *            The offset of the object in the buffer.
+	 * @param length
+	 *            The length of the object.
+	 * @param projection
+	 *            The projection to apply to the root or null to decode all of
+	 *            the object.
+	 * @return the root telemetry artifact or null if it can not be decoded or
+	 *         is rejected.
+	 */
+	public GlobalInfo decode(byte[] jsonEncoded, int offset, int length,
+			TelemetryProjection projection) {
+		try {
+			final boolean defer = m_lazyChildren
+					&& isUtf8(jsonEncoded, offset, length);
+			return decode(s_factory.createJsonParser(jsonEncoded, offset,
+					length), projection, defer ? jsonEncoded : null);
+		} catch (IOException ioe) {
+			m_exceptionHandler.exceptionCaught(ioe);
+			return null;
+		}
+	}
+
+	/**
+	 * Convert the JSON encoded object from the position of the buffer to the
+	 * limit. The position is moved to the limit.
+	 * 
+	 * @param jsonEncoded
+	 *            The encoded JSON object.
+	 * @return the root telemetry artifact or null if it can not be decoded.
+	 */
+	public GlobalInfo decode(ByteBuffer jsonEncoded) {
+		return decode(jsonEncoded, null);
+	}
+
+	/**
+	 * Convert the JSON encoded object from the position of the buffer to the
+	 * limit, building only what the projection asks for. The position is moved
+	 * to the limit.
+	 * 
+	 * @param jsonEncoded
+	 *            The encoded JSON object.
+	 * @param projection
+	 *            The projection to apply to the root or null to decode all of
+	 *            the object.
+	 * @return the root telemetry artifact or null if it can not be decoded or
+	 *         is rejected.
+	 */
+	public GlobalInfo decode(ByteBuffer jsonEncoded,
+			TelemetryProjection projection) {
+		final int length = jsonEncoded.remaining();
+		if (jsonEncoded.hasArray()) {
+			final int offset = jsonEncoded.arrayOffset()
+					+ jsonEncoded.position();
+			jsonEncoded.position(jsonEncoded.limit());
+			return decode(jsonEncoded.array(), offset, length, projection);
+		}
+
+		final byte[] bytes = new byte[length];
+		jsonEncoded.get(bytes);
+		return decode(bytes, 0, length, projection);
+	}
 
 	/**
 	 * Convert a character array that represents a JSON encoded object. The
@@ -81,112 +193,103 @@ public class JsonDecoder implements TelemetryDecoder {
 	 *            The encoded JSON object as a character array.
 	 */
 	public GlobalInfo decode(char[] jsonEncoded) {
-		CharArrayReader in = new CharArrayReader(jsonEncoded);
-		JsonFactory fact = new JsonFactory();
 		try {
-			JsonParser parser = fact.createJsonParser(in);
-
-			ObjectMapper mapper = new ObjectMapper();
-
-			JsonNode node = mapper.readTree(parser);
+			return decode(s_factory.createJsonParser(new CharArrayReader(
+					jsonEncoded)), null, null);
+		} catch (IOException ioe) {
+			m_exceptionHandler.exceptionCaught(ioe);
+			return null;
+		}
+	}
 
-			Object root = getTypedObject(node);
-			if (root instanceof GlobalInfo) {
-				fillType(node, root);
-			} else {
-				return null;
+	/**
+	 * Convert the next JSON encoded object read from a stream. The stream is not
+	 * closed. The parser reads ahead of the end of the object, so the stream is
+	 * only left just after the object, ready for the next one, when it supports
+	 * mark and reset and holds UTF-8. Otherwise the bytes read ahead are lost
+	 * and the stream should hold a single object.
+	 * 
+	 * @param in
+	 *            The stream holding the encoded JSON object.
+	 * @return the root telemetry artifact or null if it can not be decoded.
+	 */
+	public GlobalInfo decode(InputStream in) {
+		try {
+			if (in.markSupported() && isUtf8(in)) {
+				return decodeNext(in);
 			}
 
-			return (GlobalInfo) root;
+			return decode(s_factory.createJsonParser(in), null, null);
 		} catch (IOException ioe) {
 			m_exceptionHandler.exceptionCaught(ioe);
 			return null;
 		}
-
 	}
 
-	private void fillType(JsonNode node, Object type) {
-		Iterator<String> names = node.getFieldNames();
-		while (names.hasNext()) {
-			String name = names.next();
-			JsonNode field = node.get(name);
-			String pname = EntityTypeRegistry.getPropKey(name);
-			if (pname != null) {
-				name = pname;
-			}
-			if (field.isArray()) {
-				Method adder = getAdderMethod(name, type.getClass());
-				if (field.get(0).isObject() || adder != null) {
-					for (int e = 0; e < field.size(); e++) {
-						JsonNode ele = field.get(e);
-						Object child = getTypedObject(ele);
-						if (child != null) {
-							fillType(ele, child);
-							try {
-								adder.invoke(type, child);
-							} catch (IllegalAccessException iae) {
-								m_exceptionHandler.exceptionCaught(iae);
-							} catch (InvocationTargetException ite) {
-								m_exceptionHandler.exceptionCaught(ite);
-							}
-						} else {
-							try {
-								adder.invoke(type, ele.getTextValue());
-							} catch (IllegalAccessException iae) {
-								m_exceptionHandler.exceptionCaught(iae);
-							} catch (InvocationTargetException ite) {
-								m_exceptionHandler.exceptionCaught(ite);
-							}
-						}
-					}
-				} else {
-					String ar[] = new String[field.size()];
-					for (int e = 0; e < field.size(); e++) {
-						ar[e] = field.get(e).getTextValue();
-					}
-
-					if (type instanceof GlobalInfo) {
-						((GlobalInfo) type).put(name, ar);
-					} else {
-						setTypedProperty(type, name, ar);
-					}
-				}
-			} else if (field.isObject()) {
-				Object value = getTypedObject(field);
-				if (value != null) {
-					fillType(field, value);
-				} else {
-					m_exceptionHandler
-							.exceptionCaught(new MissingPropertyException(name,
-									type));
-				}
+	private GlobalInfo decode(JsonParser parser,
+			TelemetryProjection projection, byte[] source) throws IOException {
+		try {
+			return readRoot(parser, projection, source);
+		} finally {
+			parser.close();
+		}
+	}
 
-				if (type instanceof GlobalInfo) {
-					((GlobalInfo) type).put(name, value);
-				} else {
-					setTypedProperty(type, name, value);
-				}
-			} else {
-				Object value = getTypedValue(name, type.getClass(),
-						field.getTextValue());
-				if (type instanceof GlobalInfo) {
-					((GlobalInfo) type).put(name, value);
-				} else {
-					setTypedProperty(type, name, value);
+	/**
+	 * Decode an object from a stream that supports mark and then move the
+	 * stream back to the end of the object. The byte parser reports byte
+	 * offsets as character offsets.
+	 */
+	private GlobalInfo decodeNext(InputStream in) throws IOException {
+		in.mark(Integer.MAX_VALUE);
+		final JsonParser parser = s_factory.createJsonParser(in);
+		try {
+			final GlobalInfo root = readRoot(parser, null, null);
+			long remaining = parser.getTokenLocation().getCharOffset() + 1;
+			in.reset();
+			while (remaining > 0) {
+				final long skipped = in.skip(remaining);
+				if (skipped <= 0) {
+					break;
 				}
+				remaining -= skipped;
 			}
+
+			return root;
+		} finally {
+			parser.close();
 		}
 	}
 
-	private Method getAdderMethod(String name, Class<?> type) {
-		String mname = makeArraySetter(name);
-		for (Method m : type.getMethods()) {
-			if (mname.equals(m.getName())) {
-				return m;
-			}
+	/**
+	 * Hold the children of a container as their encoded bytes. The parser is
+	 * positioned on the start of the child array and is left on its end.
+	 * 
+	 * @return true if the children were deferred, or false if the position of
+	 *         the array in the source is not known.
+	 */
+	private boolean deferChildren(JsonParser parser, ExecInfo container,
+			byte[] source) throws IOException {
+		// The byte parser reports byte offsets in the source as character
+		// offsets. The array is located from its field name, so look for its
+		// start.
+		//
+		int start = (int) parser.getTokenLocation().getCharOffset();
+		if (start < 0) {
+			return false;
+		}
+
+		parser.skipChildren();
+		final int end = (int) parser.getTokenLocation().getCharOffset() + 1;
+		while (start < end && source[start] != '[') {
+			start++;
 		}
 
-		return null;
+		final byte[] raw = new byte[end - start];
+		System.arraycopy(source, start, raw, 0, raw.length);
+		container.setChildLoader(new RawChildren(raw));
+
+		return true;
 	}
 
 	/**
@@ -198,70 +301,90 @@ public class JsonDecoder implements TelemetryDecoder {
 		return m_exceptionHandler;
 	}
 
-	private Object getTypedObject(JsonNode node) {
-		JsonNode tnode = node.get(JsonConstants.EntityType);
-		if (tnode == null) {
-			return null;
+	private Object getTypedValue(PropertyCodec codec, String value) {
+		try {
+			return codec.convert(value);
+		} catch (InvocationTargetException ite) {
+			m_exceptionHandler.exceptionCaught(ite);
+		} catch (IllegalAccessException ie) {
+			m_exceptionHandler.exceptionCaught(ie);
 		}
-		String tname = tnode.getTextValue();
 
-		Class<? extends Object> cls = null;
+		return value;
+	}
 
-		// Have we seen this type before? If so, grab the class. But note that
-		// it may be null. The type cache does negative caching as well.
-		//
-		if (m_typeCache.containsKey(tname)) {
-			cls = m_typeCache.get(tname);
-		} else {
-			// Is this a distinguished name?
-			//
-			cls = EntityTypeRegistry.getClassFromName(tname);
+	/**
+	 * Return true if the children of decoded containers are held as their
+	 * encoded bytes until they are used.
+	 * 
+	 * @return true if children are decoded lazily.
+	 */
+	public boolean isLazyChildren() {
+		return m_lazyChildren;
+	}
 
-			if (cls == null) {
-				// Okay, try the raw name and see if it just resolves.
-				//
-				try {
-					cls = Class.forName(tname);
-				} catch (ClassNotFoundException cfe) {
-					// We can fall out here. Only interested in null.
-				}
+	/**
+	 * Return true if the bytes are UTF-8, which is the only encoding for which
+	 * the parser reports byte offsets. The first two characters of JSON are
+	 * ASCII, so the other encodings JSON allows have a zero in the first four
+	 * bytes.
+	 */
+	private static boolean isUtf8(byte[] jsonEncoded, int offset, int length) {
+		for (int i = offset; i < offset + Math.min(length, 4); i++) {
+			if (jsonEncoded[i] == 0) {
+				return false;
 			}
+		}
 
-			// If we didn't get it there, then we have to walk through each
-			// package
-			// and try.
-			//
-			if (cls == null) {
-				for (String p : EntityTypeRegistry.getSearchPackages()) {
-					StringBuffer fqcn = new StringBuffer(p);
-					fqcn.append(".");
-					fqcn.append(tname);
-
-					try {
-						cls = Class.forName(fqcn.toString());
-					} catch (ClassNotFoundException cfe) {
-						// Again, looking for null
-					}
+		return true;
+	}
 
-					if (cls != null) {
-						break;
-					}
-				}
+	private static boolean isUtf8(InputStream in) throws IOException {
+		final byte[] head = new byte[4];
+		in.mark(head.length);
+		int count = 0;
+		try {
+			int n;
+			while (count < head.length
+					&& (n = in.read(head, count, head.length - count)) > 0) {
+				count += n;
 			}
+		} finally {
+			in.reset();
+		}
+
+		return isUtf8(head, 0, count);
+	}
+
+	private boolean isAccepted(TelemetryProjection projection, Object type) {
+		return type instanceof GlobalInfo
+				&& projection.accept((GlobalInfo) type);
+	}
 
-			// No matter what the answer right here, we cache the result.
-			//
-			m_typeCache.put(tname, cls);
+	private boolean isProjected(TelemetryProjection projection, String name) {
+		if (JsonConstants.EntityType.equals(name)) {
+			return true;
 		}
 
+		return JsonConstants.Children.equals(name) ? projection.isChildren()
+				: projection.includes(name);
+	}
+
+	private Object newTypedObject(String tname) {
+		Class<? extends Object> cls = EntityTypeRegistry.resolveType(tname);
+
 		Object result = null;
 		if (cls != null) {
 			try {
-				result = cls.newInstance();
+				result = cls.getConstructor().newInstance();
 			} catch (IllegalAccessException iae) {
 				m_exceptionHandler.exceptionCaught(iae);
 			} catch (InstantiationException ie) {
 				m_exceptionHandler.exceptionCaught(ie);
+			} catch (InvocationTargetException ite) {
+				m_exceptionHandler.exceptionCaught(ite);
+			} catch (NoSuchMethodException nsme) {
+				m_exceptionHandler.exceptionCaught(nsme);
 			}
 		} else {
 			m_exceptionHandler
@@ -271,72 +394,200 @@ public class JsonDecoder implements TelemetryDecoder {
 		return result;
 	}
 
-	private Object getTypedValue(String name, Class<? extends Object> cls,
-			String value) {
-		try {
-			Method m = cls.getMethod(makeGetter(name), (Class[]) null);
+	/**
+	 * Store a scalar value on an artifact. Numbers and booleans are stored with
+	 * the typed put methods so they are not boxed. The type returned by the
+	 * getter takes precedence over the JSON type of the value.
+	 */
+	private void putValue(GlobalInfo info, String name, JsonParser parser,
+			Object value) throws IOException {
+		final JsonToken token = parser.getCurrentToken();
+		if (value instanceof Long) {
+			info.putLong(name, (Long) value);
+		} else if (value instanceof Integer) {
+			info.putInt(name, (Integer) value);
+		} else if (value instanceof Double) {
+			info.putDouble(name, (Double) value);
+		} else if (value instanceof Boolean) {
+			info.putBoolean(name, (Boolean) value);
+		} else if (!(value instanceof String)) {
+			info.put(name, value);
+		} else if (token == JsonToken.VALUE_TRUE
+				|| token == JsonToken.VALUE_FALSE) {
+			info.putBoolean(name, token == JsonToken.VALUE_TRUE);
+		} else if (token == JsonToken.VALUE_NUMBER_INT
+				&& parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+			info.putLong(name, parser.getLongValue());
+		} else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+			info.putDouble(name, parser.getDoubleValue());
+		} else {
+			info.put(name, value);
+		}
+	}
 
-			Class<?> ret = m.getReturnType();
-			if (ret.equals(String.class)) {
-				return value;
+	/**
+	 * Read an array. Elements are passed to the adder method of the property if
+	 * there is one. Otherwise the elements are stored as an array, which is a
+	 * string array if every element is a string.
+	 */
+	private void readArray(JsonParser parser, Object type, String name,
+			PropertyCodec codec) throws IOException {
+		final boolean adder = codec.hasAdder();
+		List<Object> elements = new ArrayList<Object>();
+		boolean strings = true;
+
+		for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser
+				.nextToken()) {
+			Object element;
+			if (token == JsonToken.START_OBJECT) {
+				element = readObject(parser, null, null);
+				strings = false;
+			} else if (token == JsonToken.START_ARRAY) {
+				parser.skipChildren();
+				continue;
+			} else if (token == JsonToken.VALUE_NULL) {
+				element = null;
+			} else {
+				element = parser.getText();
 			}
 
-			if (ret.isPrimitive()) {
-				ret = s_primitiveBox.get(ret);
+			if (adder) {
+				if (element != null) {
+					setProperty(codec, type, element, true);
+				}
+			} else {
+				elements.add(element);
 			}
+		}
+
+		if (!adder) {
+			Object ar = strings ? elements.toArray(new String[elements.size()])
+					: elements.toArray();
+			if (type instanceof GlobalInfo) {
+				((GlobalInfo) type).put(name, ar);
+			} else {
+				setProperty(codec, type, ar, false);
+			}
+		}
+	}
 
-			// Okay, now we want to see if we can invoke a converter. Only two
-			// supported:
-			// valueOf(String s)
-			// fromString(String s)
-			//
+	/**
+	 * Read the value of a field of an object. The parser is positioned on the
+	 * first token of the value.
+	 */
+	private void readField(JsonParser parser, Object type, String name,
+			byte[] source) throws IOException {
+		String pname = EntityTypeRegistry.getPropKey(name);
+		if (pname != null) {
+			name = pname;
+		}
 
-			Method conv = null;
-			try {
-				conv = ret.getMethod("fromString", String.class);
-			} catch (NoSuchMethodException nse) {
-				// weird way to say not found...
+		PropertyCodec codec = PropertyCodec.forProperty(type.getClass(), name);
+		JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.START_ARRAY) {
+			if (source == null || !(type instanceof ExecInfo)
+					|| !JsonConstants.Children.equals(name)
+					|| !deferChildren(parser, (ExecInfo) type, source)) {
+				readArray(parser, type, name, codec);
+			}
+		} else if (token == JsonToken.START_OBJECT) {
+			Object value = readObject(parser, null, source);
+			if (value == null) {
+				m_exceptionHandler.exceptionCaught(new MissingPropertyException(
+						name, type));
 			}
 
-			if (conv == null) {
-				// Here we'll just fall out to the outside exception and return
-				// a
-				// string.
-				//
-				conv = ret.getMethod("valueOf", String.class);
+			if (type instanceof GlobalInfo) {
+				((GlobalInfo) type).put(name, value);
+			} else if (value != null) {
+				setProperty(codec, type, value, false);
+			}
+		} else if (token == JsonToken.VALUE_NULL) {
+			if (type instanceof GlobalInfo) {
+				((GlobalInfo) type).put(name, null);
+			}
+		} else {
+			Object value = getTypedValue(codec, parser.getText());
+			if (type instanceof GlobalInfo) {
+				putValue((GlobalInfo) type, name, parser, value);
+			} else {
+				setProperty(codec, type, value, false);
 			}
+		}
+	}
 
-			if (conv != null) {
-				try {
-					return conv.invoke(null, value);
-				} catch (InvocationTargetException ite) {
-					m_exceptionHandler.exceptionCaught(ite);
-				} catch (IllegalAccessException ie) {
-					m_exceptionHandler.exceptionCaught(ie);
+	/**
+	 * Read an object. The parser is positioned on the start of the object and
+	 * is left on its end, unless the object is rejected by the projection.
+	 * 
+	 * @return the typed object or null if it has no type that can be created or
+	 *         it is rejected.
+	 */
+	private Object readObject(JsonParser parser,
+			TelemetryProjection projection, byte[] source) throws IOException {
+		Object type = null;
+		List<String> heldNames = null;
+		List<JsonNode> heldValues = null;
+		boolean tested = projection == null
+				|| projection.getPredicate() == null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+
+			if (projection != null && !isProjected(projection, name)) {
+				parser.skipChildren();
+			} else if (type != null) {
+				// The children follow the fields of the encoder, so this is the
+				// last chance to reject the object before they are decoded.
+				//
+				if (!tested && JsonConstants.Children.equals(name)) {
+					if (!isAccepted(projection, type)) {
+						return null;
+					}
+					tested = true;
 				}
-			}
 
-			return value;
+				readField(parser, type, name, source);
+			} else if (JsonConstants.EntityType.equals(name)) {
+				type = newTypedObject(parser.getText());
+				if (type == null) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						parser.nextToken();
+						parser.skipChildren();
+					}
+					return null;
+				}
 
-		} catch (NoSuchMethodException e) {
-			return value;
+				// Apply any fields that came before the type.
+				//
+				for (int i = 0; heldNames != null && i < heldNames.size(); i++) {
+					JsonParser held = heldValues.get(i).traverse();
+					held.nextToken();
+					readField(held, type, heldNames.get(i), null);
+				}
+			} else {
+				if (heldNames == null) {
+					heldNames = new ArrayList<String>();
+					heldValues = new ArrayList<JsonNode>();
+				}
+				heldNames.add(name);
+				heldValues.add(s_mapper.readTree(parser));
+			}
 		}
-	}
 
-	private String makeArraySetter(String name) {
-		StringBuilder sb = new StringBuilder("add");
-		sb.append(name.substring(0, 1).toUpperCase());
-		sb.append(name.substring(1));
-
-		return sb.toString();
+		return tested || isAccepted(projection, type) ? type : null;
 	}
 
-	private String makeGetter(String name) {
-		StringBuilder sb = new StringBuilder("get");
-		sb.append(name.substring(0, 1).toUpperCase());
-		sb.append(name.substring(1));
+	private GlobalInfo readRoot(JsonParser parser,
+			TelemetryProjection projection, byte[] source) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException("Telemetry must be a JSON object",
+					parser.getCurrentLocation());
+		}
 
-		return sb.toString();
+		Object root = readObject(parser, projection, source);
+		return root instanceof GlobalInfo ? (GlobalInfo) root : null;
 	}
 
 	/**
@@ -350,22 +601,73 @@ public class JsonDecoder implements TelemetryDecoder {
 		m_exceptionHandler = exceptionHandler;
 	}
 
-	private void setTypedProperty(Object type, String name, Object value) {
-		String setter = "set" + name.substring(0, 1).toUpperCase()
-				+ name.substring(1);
-
-		Class<?> cls = type.getClass();
+	/**
+	 * Set whether the children of decoded containers are held as their encoded
+	 * bytes until they are used. Only telemetry decoded from bytes is decoded
+	 * lazily. The default is false.
+	 * 
+	 * @param lazyChildren
+	 *            True if children should be decoded lazily.
+	 */
+	public void setLazyChildren(boolean lazyChildren) {
+		m_lazyChildren = lazyChildren;
+	}
 
+	private void setProperty(PropertyCodec codec, Object type, Object value,
+			boolean add) {
 		try {
-			Method m = cls.getMethod(setter, value.getClass());
-			m.invoke(type, value);
-		} catch (NoSuchMethodException nsme) {
-			// Again, what could we do?
-		} catch (InvocationTargetException ite) {
-			// Ignore
+			if (add) {
+				codec.add(type, value);
+			} else {
+				codec.set(type, value);
+			}
 		} catch (IllegalAccessException iae) {
-			// Ignore
+			m_exceptionHandler.exceptionCaught(iae);
+		} catch (IllegalArgumentException iae) {
+			m_exceptionHandler.exceptionCaught(iae);
+		} catch (InvocationTargetException ite) {
+			m_exceptionHandler.exceptionCaught(ite);
 		}
 	}
 
+	/**
+	 * The encoded children of a container, decoded when they are first used.
+	 */
+	private class RawChildren implements ChildLoader {
+		private final byte[] m_raw;
+
+		RawChildren(byte[] raw) {
+			m_raw = raw;
+		}
+
+		public List<GlobalInfo> loadChildren() {
+			List<GlobalInfo> children = new ArrayList<GlobalInfo>();
+			try {
+				JsonParser parser = s_factory.createJsonParser(m_raw, 0,
+						m_raw.length);
+				try {
+					parser.nextToken();
+					for (JsonToken token = parser.nextToken(); token != null
+							&& token != JsonToken.END_ARRAY; token = parser
+							.nextToken()) {
+						if (token != JsonToken.START_OBJECT) {
+							parser.skipChildren();
+							continue;
+						}
+
+						Object child = readObject(parser, null, m_raw);
+						if (child instanceof GlobalInfo) {
+							children.add((GlobalInfo) child);
+						}
+					}
+				} finally {
+					parser.close();
+				}
+			} catch (IOException ioe) {
+				m_exceptionHandler.exceptionCaught(ioe);
+			}
+
+			return children;
+		}
+	}
 }
@@ -18,31 +18,62 @@ package org.addsimplicity.anicetus.io;
 
 import java.io.CharArrayWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.addsimplicity.anicetus.entity.AttributeVisitor;
+import org.addsimplicity.anicetus.entity.BeanProperties;
 import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
 import org.addsimplicity.anicetus.entity.GlobalInfo;
 import org.addsimplicity.anicetus.entity.GlobalInfoFields;
 import org.addsimplicity.anicetus.entity.JsonConstants;
 import org.addsimplicity.anicetus.entity.TelemetryContainer;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.io.SerializedString;
 
 /**
  * The encoder translates telemetry into a JSON string. The object graph is
  * fully exported. In addition to serializing telemetry artifacts, the
  * application can also set classes that are to be treated like beans when
  * serializing. If an object is not a telemetry object and is not a bean, then
- * its toString method is used to generate the value.
+ * its toString method is used to generate the value. The getters of a bean are
+ * taken from the property table built when its class was registered, and
+ * numeric, boolean, and string properties are written as native JSON values.
+ * Properties set with the typed put methods of an artifact are written as JSON
+ * numbers and booleans.
+ * 
+ * All encoders share a single JSON factory, which recycles the generator
+ * buffers of each thread. The encodeTo methods write UTF-8 directly to a byte
+ * sink in a single pass. The JSON keys registered with the EntityTypeRegistry
+ * are serialized once and reused by every generator.
  * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
-public class JsonEncoder implements TelemetryEncoder {
+public class JsonEncoder implements StreamingTelemetryEncoder {
+	private static final JsonFactory s_factory = new JsonFactory();
+	private static final SerializedString s_typeKey = new SerializedString(JsonConstants.EntityType);
+	private static final SerializedString s_childKey = new SerializedString(JsonConstants.Children);
+	private static final ConcurrentMap<String, SerializedString> s_fieldNames = new ConcurrentHashMap<String, SerializedString>();
+
+	private static final ThreadLocal<ByteBufferStream> s_bufferStreams = new ThreadLocal<ByteBufferStream>() {
+		@Override
+		protected ByteBufferStream initialValue() {
+			return new ByteBufferStream();
+		}
+	};
+
+	static {
+		s_factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
 	private ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
 
 	/**
@@ -55,8 +86,8 @@ public class JsonEncoder implements TelemetryEncoder {
 	public char[] encode(GlobalInfo session) {
 		CharArrayWriter out = new CharArrayWriter();
 		try {
-			JsonGenerator gen = (new JsonFactory()).createJsonGenerator(out);
-			writeEntity(session, gen, true);
+			JsonGenerator gen = s_factory.createJsonGenerator(out);
+			writeEntity(session, gen, new FieldWriter(gen), true);
 
 			gen.close();
 			out.close();
@@ -69,6 +100,49 @@ public class JsonEncoder implements TelemetryEncoder {
 		return out.toCharArray();
 	}
 
+	/**
+	 * Encode the telemetry graph as UTF-8 JSON into the buffer. The bytes are
+	 * written from the current position of the buffer, which is advanced past
+	 * the encoded telemetry.
+	 * 
+	 * @param session
+	 *          The telemetry graph to encode.
+	 * @param out
+	 *          The buffer that receives the encoded telemetry.
+	 * @throws java.nio.BufferOverflowException
+	 *           if the buffer does not have room for the encoded telemetry.
+	 */
+	public void encodeTo(GlobalInfo session, ByteBuffer out) {
+		final ByteBufferStream stream = s_bufferStreams.get();
+		stream.m_target = out;
+		try {
+			encodeTo(session, stream);
+		}
+		catch (IOException ioe) {
+			m_exceptionHandler.exceptionCaught(ioe);
+		}
+		finally {
+			stream.m_target = null;
+		}
+	}
+
+	/**
+	 * Encode the telemetry graph as UTF-8 JSON to the stream. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param session
+	 *          The telemetry graph to encode.
+	 * @param out
+	 *          The stream that receives the encoded telemetry.
+	 * @throws IOException
+	 *           if the stream can not be written.
+	 */
+	public void encodeTo(GlobalInfo session, OutputStream out) throws IOException {
+		JsonGenerator gen = s_factory.createJsonGenerator(out, JsonEncoding.UTF8);
+		writeEntity(session, gen, new FieldWriter(gen), true);
+		gen.close();
+	}
+
 	/**
 	 * Return the exception handler currently in effect.
 	 * 
@@ -89,34 +163,48 @@ public class JsonEncoder implements TelemetryEncoder {
 		m_exceptionHandler = exceptionHandler;
 	}
 
-	private void writeBean(Object value, JsonGenerator gen) throws JsonGenerationException, IOException {
+	private void writeBean(Object value, BeanProperties props, JsonGenerator gen) throws JsonGenerationException,
+			IOException {
 		gen.writeStartObject();
 
-		Class<? extends Object> cls = value.getClass();
+		gen.writeFieldName(s_typeKey);
+		gen.writeString(props.getTypeName());
+
+		for (int i = 0; i < props.size(); i++) {
+			Object propVal;
+			try {
+				propVal = props.getValue(value, i);
+			}
+			catch (InvocationTargetException e) {
+				continue;
+			}
+
+			gen.writeFieldName(props.getName(i));
+			if (propVal == null) {
+				gen.writeNull();
+				continue;
+			}
 
-		gen.writeFieldName(JsonConstants.EntityType);
-		gen.writeString(cls.getSimpleName());
+			switch (props.getKind(i)) {
+			case Boolean:
+				gen.writeBoolean(((Boolean) propVal).booleanValue());
+				break;
 
-		Method meths[] = cls.getMethods();
+			case Floating:
+				gen.writeNumber(((Number) propVal).doubleValue());
+				break;
 
-		for (Method m : meths) {
-			String mname = m.getName();
-			if (mname.startsWith("get")) {
-				gen.writeFieldName(mname.substring(3));
+			case Integral:
+				gen.writeNumber(((Number) propVal).longValue());
+				break;
 
-				try {
-					Object propVal = m.invoke(value);
-					writeValue(propVal, gen);
-				}
-				catch (IllegalArgumentException e) {
-					continue;
-				}
-				catch (IllegalAccessException e) {
-					continue;
-				}
-				catch (InvocationTargetException e) {
-					continue;
-				}
+			case Text:
+				gen.writeString((String) propVal);
+				break;
+
+			default:
+				writeValue(propVal, gen);
+				break;
 			}
 		}
 
@@ -124,36 +212,28 @@ public class JsonEncoder implements TelemetryEncoder {
 
 	}
 
-	private void writeEntity(GlobalInfo gi, JsonGenerator gen, boolean root) throws IOException, JsonGenerationException {
+	private void writeEntity(GlobalInfo gi, JsonGenerator gen, FieldWriter fields, boolean root) throws IOException,
+			JsonGenerationException {
 		gen.writeStartObject();
 
-		gen.writeFieldName(JsonConstants.EntityType);
+		gen.writeFieldName(s_typeKey);
 		String type = EntityTypeRegistry.getShortName(gi);
 		if (type == null) {
 			type = gi.getClass().getSimpleName();
 		}
 		gen.writeString(type);
 
-		for (Map.Entry<String, Object> entry : gi.entrySet()) {
-			String propName = entry.getKey();
-			if (!root && propName.equals(GlobalInfoFields.ParentId.name())) {
-				// Skip the parent GUID as it's implicit in the containment structure.
-				continue;
-			}
-			String jsField = EntityTypeRegistry.getJsonKey(propName);
-			String fieldName = jsField != null ? jsField : propName;
-			gen.writeFieldName(fieldName);
-			writeValue(entry.getValue(), gen);
-		}
+		fields.m_root = root;
+		gi.visitAttributes(fields);
 
 		if (gi instanceof TelemetryContainer) {
-			TelemetryContainer cont = (TelemetryContainer) gi;
-			if (cont.getChildren().size() > 0) {
-				gen.writeFieldName("child");
+			Collection<GlobalInfo> children = ((TelemetryContainer) gi).getChildren();
+			if (children.size() > 0) {
+				gen.writeFieldName(s_childKey);
 				gen.writeStartArray();
 
-				for (GlobalInfo g : cont.getChildren()) {
-					writeEntity(g, gen, false);
+				for (GlobalInfo g : children) {
+					writeEntity(g, gen, fields, false);
 				}
 				gen.writeEndArray();
 			}
@@ -161,13 +241,37 @@ public class JsonEncoder implements TelemetryEncoder {
 		gen.writeEndObject();
 	}
 
+	private void writeFieldName(String propName, JsonGenerator gen) throws JsonGenerationException, IOException {
+		String jsField = EntityTypeRegistry.getJsonKey(propName);
+		if (jsField == null) {
+			// Application keys are not cached since there is no bound on them.
+			//
+			gen.writeFieldName(propName);
+			return;
+		}
+
+		// The cache is keyed by the JSON key rather than the property so that a
+		// mapping registered later is never hidden by a stale entry.
+		//
+		SerializedString name = s_fieldNames.get(jsField);
+		if (name == null) {
+			name = new SerializedString(jsField);
+			s_fieldNames.put(jsField, name);
+		}
+
+		gen.writeFieldName(name);
+	}
+
 	@SuppressWarnings("unchecked")
 	private void writeValue(Object value, JsonGenerator gen) throws JsonGenerationException, IOException {
 		if (value == null) {
 			gen.writeNull();
+			return;
 		}
-		else if (EntityTypeRegistry.isBeanType(value.getClass())) {
-			writeBean(value, gen);
+
+		BeanProperties props = EntityTypeRegistry.getBeanProperties(value.getClass());
+		if (props != null) {
+			writeBean(value, props, gen);
 		}
 		else if (value.getClass().isArray()) {
 			Object a[] = (Object[]) value;
@@ -194,4 +298,64 @@ public class JsonEncoder implements TelemetryEncoder {
 			gen.writeString(value.toString());
 		}
 	}
+
+	/**
+	 * An output stream that writes to a byte buffer. One is kept for each thread
+	 * and pointed at the buffer being encoded into.
+	 */
+	private static final class ByteBufferStream extends OutputStream {
+		ByteBuffer m_target;
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			m_target.put(b, off, len);
+		}
+
+		@Override
+		public void write(int b) {
+			m_target.put((byte) b);
+		}
+	}
+
+	/**
+	 * Writes the properties of one artifact at a time. The parent GUID of a child
+	 * is skipped as it's implicit in the containment structure.
+	 */
+	private final class FieldWriter implements AttributeVisitor {
+		private final JsonGenerator m_gen;
+		private boolean m_root;
+
+		FieldWriter(JsonGenerator gen) {
+			m_gen = gen;
+		}
+
+		public void visitBoolean(String key, boolean value) throws IOException {
+			writeFieldName(key, m_gen);
+			m_gen.writeBoolean(value);
+		}
+
+		public void visitDouble(String key, double value) throws IOException {
+			writeFieldName(key, m_gen);
+			m_gen.writeNumber(value);
+		}
+
+		public void visitInt(String key, int value) throws IOException {
+			writeFieldName(key, m_gen);
+			m_gen.writeNumber(value);
+		}
+
+		public void visitLong(String key, long value) throws IOException {
+			writeFieldName(key, m_gen);
+			m_gen.writeNumber(value);
+		}
+
+		public void visitObject(String key, Object value) throws IOException {
+			if (!m_root && key.equals(GlobalInfoFields.ParentId.name())) {
+				return;
+			}
+
+			writeFieldName(key, m_gen);
+			writeValue(value, m_gen);
+		}
+	}
 }
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The resolved methods for decoding one property of a class. The converter
+ * turns the text of a value into the type returned by the getter of the
+ * property. If the getter returns a primitive, the boxed type is used. If it
+ * does not return a string, a static fromString or valueOf method taking a
+ * single String is searched for, in that order. The adder is the add method of
+ * the property that receives array elements one at a time, and the setters are
+ * the set methods of the property that take a single argument.
+ * 
+ * Codecs are immutable and are built once per class and property. They are
+ * kept in a registry that is shared by all decoders.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+final class PropertyCodec {
+	private static final Map<Class<?>, Class<?>> s_primitiveBox = new HashMap<Class<?>, Class<?>>();
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyCodec>> s_codecs = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, PropertyCodec>>();
+
+	static {
+		s_primitiveBox.put(Boolean.TYPE, Boolean.class);
+		s_primitiveBox.put(Character.TYPE, Character.class);
+		s_primitiveBox.put(Byte.TYPE, Byte.class);
+		s_primitiveBox.put(Short.TYPE, Short.class);
+		s_primitiveBox.put(Integer.TYPE, Integer.class);
+		s_primitiveBox.put(Long.TYPE, Long.class);
+		s_primitiveBox.put(Float.TYPE, Float.class);
+		s_primitiveBox.put(Double.TYPE, Double.class);
+	}
+
+	/**
+	 * Return the codec for a property of a class, building it on first use.
+	 * 
+	 * @param cls
+	 *          The class that holds the property.
+	 * @param name
+	 *          The name of the property.
+	 * @return the codec for the property.
+	 */
+	static PropertyCodec forProperty(Class<?> cls, String name) {
+		ConcurrentMap<String, PropertyCodec> codecs = s_codecs.get(cls);
+		if (codecs == null) {
+			codecs = new ConcurrentHashMap<String, PropertyCodec>();
+			ConcurrentMap<String, PropertyCodec> prior = s_codecs.putIfAbsent(cls,
+					codecs);
+			if (prior != null) {
+				codecs = prior;
+			}
+		}
+
+		PropertyCodec codec = codecs.get(name);
+		if (codec == null) {
+			// Two threads may build the same codec. They are equivalent, so it does
+			// not matter which one wins.
+			//
+			codec = new PropertyCodec(cls, name);
+			PropertyCodec prior = codecs.putIfAbsent(name, codec);
+			if (prior != null) {
+				codec = prior;
+			}
+		}
+
+		return codec;
+	}
+
+	private static Method findConverter(Class<?> cls, String suffix) {
+		try {
+			Class<?> ret = cls.getMethod("get" + suffix, (Class[]) null)
+					.getReturnType();
+			if (ret.isPrimitive()) {
+				ret = s_primitiveBox.get(ret);
+			}
+
+			if (ret.equals(String.class)) {
+				return null;
+			}
+
+			try {
+				return ret.getMethod("fromString", String.class);
+			}
+			catch (NoSuchMethodException nse) {
+				return ret.getMethod("valueOf", String.class);
+			}
+		}
+		catch (NoSuchMethodException nse) {
+			// No getter or no converter, so the text is kept as is.
+			//
+			return null;
+		}
+	}
+
+	private final Method m_converter;
+	private final Method m_adder;
+	private final Method[] m_setters;
+	private final Class<?>[] m_setterTypes;
+
+	private PropertyCodec(Class<?> cls, String name) {
+		final String suffix = name.substring(0, 1).toUpperCase()
+				+ name.substring(1);
+		final String aname = "add" + suffix;
+		final String sname = "set" + suffix;
+
+		Method adder = null;
+		List<Method> setters = new ArrayList<Method>();
+		for (Method m : cls.getMethods()) {
+			if (m.getParameterTypes().length != 1) {
+				continue;
+			}
+
+			if (adder == null && aname.equals(m.getName())) {
+				adder = m;
+			}
+			else if (sname.equals(m.getName())) {
+				setters.add(m);
+			}
+		}
+
+		m_converter = findConverter(cls, suffix);
+		m_adder = adder;
+		m_setters = setters.toArray(new Method[setters.size()]);
+		m_setterTypes = new Class<?>[m_setters.length];
+		for (int i = 0; i < m_setters.length; i++) {
+			Class<?> type = m_setters[i].getParameterTypes()[0];
+			m_setterTypes[i] = type.isPrimitive() ? s_primitiveBox.get(type) : type;
+		}
+	}
+
+	/**
+	 * Pass a value to the adder of the property.
+	 * 
+	 * @param target
+	 *          The object that holds the property.
+	 * @param value
+	 *          The value to add.
+	 */
+	void add(Object target, Object value) throws IllegalAccessException,
+			InvocationTargetException {
+		m_adder.invoke(target, value);
+	}
+
+	/**
+	 * Convert the text of a value into the type of the property.
+	 * 
+	 * @param value
+	 *          The text of the value.
+	 * @return the converted value, or the text if the property has no
+	 *         conversion.
+	 */
+	Object convert(String value) throws IllegalAccessException,
+			InvocationTargetException {
+		return m_converter != null ? m_converter.invoke(null, value) : value;
+	}
+
+	/**
+	 * Return true if the property has an adder.
+	 * 
+	 * @return true if array elements can be added one at a time.
+	 */
+	boolean hasAdder() {
+		return m_adder != null;
+	}
+
+	/**
+	 * Pass a value to the setter of the property that accepts it. The value is
+	 * dropped if there is no such setter.
+	 * 
+	 * @param target
+	 *          The object that holds the property.
+	 * @param value
+	 *          The value to set.
+	 * @return true if a setter accepted the value.
+	 */
+	boolean set(Object target, Object value) throws IllegalAccessException,
+			InvocationTargetException {
+		for (int i = 0; i < m_setters.length; i++) {
+			if (m_setterTypes[i].isInstance(value)) {
+				m_setters[i].invoke(target, value);
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded table of the session shapes seen on a telemetry stream. A shape is
+ * the encoded structure of a session, its types, keys, value tags, and the
+ * number of children of each artifact, without any of the values. Like the
+ * StringDictionary, shapes are assigned identifiers in a ring so that the
+ * encoder and decoder of a stream hold the same table.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.BinaryEncoder#setTemplateCount(int)
+ * 
+ */
+final class ShapeTemplates {
+	private final Shape[] m_shapes;
+	private final Map<Shape, Integer> m_ids;
+	private int m_next;
+
+	/**
+	 * Create an empty table.
+	 * 
+	 * @param capacity
+	 *          The maximum number of shapes.
+	 * @param indexed
+	 *          True if shapes will be looked up by content, which is only needed
+	 *          when encoding.
+	 */
+	ShapeTemplates(int capacity, boolean indexed) {
+		m_shapes = new Shape[capacity];
+		m_ids = indexed ? new HashMap<Shape, Integer>(capacity * 2) : null;
+	}
+
+	/**
+	 * Add a copy of a shape, replacing the oldest shape if the table is full.
+	 * 
+	 * @param buf
+	 *          The buffer holding the shape. It must not already be in the
+	 *          table.
+	 * @param length
+	 *          The length of the shape.
+	 */
+	void add(byte[] buf, int length) {
+		final byte[] bytes = new byte[length];
+		System.arraycopy(buf, 0, bytes, 0, length);
+		final Shape shape = new Shape(bytes, length);
+
+		final Shape evicted = m_shapes[m_next];
+		if (m_ids != null) {
+			if (evicted != null) {
+				m_ids.remove(evicted);
+			}
+			m_ids.put(shape, m_next);
+		}
+
+		m_shapes[m_next] = shape;
+		m_next = (m_next + 1) % m_shapes.length;
+	}
+
+	/**
+	 * Return the maximum number of shapes.
+	 * 
+	 * @return the capacity.
+	 */
+	int capacity() {
+		return m_shapes.length;
+	}
+
+	/**
+	 * Remove all shapes.
+	 */
+	void clear() {
+		for (int i = 0; i < m_shapes.length; i++) {
+			m_shapes[i] = null;
+		}
+		if (m_ids != null) {
+			m_ids.clear();
+		}
+		m_next = 0;
+	}
+
+	/**
+	 * Return the shape with an identifier.
+	 * 
+	 * @param id
+	 *          The identifier of the shape.
+	 * @return the shape or null if there is no such shape.
+	 */
+	byte[] get(int id) {
+		final Shape shape = id >= 0 && id < m_shapes.length ? m_shapes[id] : null;
+		return shape != null ? shape.m_bytes : null;
+	}
+
+	/**
+	 * Return the identifier of a shape.
+	 * 
+	 * @param buf
+	 *          The buffer holding the shape.
+	 * @param length
+	 *          The length of the shape.
+	 * @return the identifier or -1 if the shape is not in the table.
+	 */
+	int indexOf(byte[] buf, int length) {
+		final Integer id = m_ids.get(new Shape(buf, length));
+		return id != null ? id.intValue() : -1;
+	}
+
+	/**
+	 * The key of a shape, which compares the leading bytes of a buffer.
+	 */
+	private static final class Shape {
+		final byte[] m_bytes;
+		final int m_length;
+		final int m_hash;
+
+		Shape(byte[] bytes, int length) {
+			m_bytes = bytes;
+			m_length = length;
+
+			int hash = 1;
+			for (int i = 0; i < length; i++) {
+				hash = 31 * hash + bytes[i];
+			}
+			m_hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Shape)) {
+				return false;
+			}
+
+			final Shape other = (Shape) obj;
+			if (other.m_length != m_length || other.m_hash != m_hash) {
+				return false;
+			}
+
+			for (int i = 0; i < m_length; i++) {
+				if (other.m_bytes[i] != m_bytes[i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return m_hash;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+/**
+ * A stateful encoder produces output that depends on the telemetry it has
+ * already encoded, so the output can only be decoded in order from the start
+ * of the stream. Delivery adapters reset the encoder whenever they begin a new
+ * stream.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public interface StatefulEncoder extends TelemetryEncoder {
+	/**
+	 * Start a new stream. The next telemetry encoded does not depend on any
+	 * telemetry encoded before it.
+	 */
+	void reset();
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.nio.ByteBuffer;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+
+/**
+ * A streaming decoder reads telemetry directly from bytes, and may build only a
+ * projection of it. Readers check for this interface and decode a character
+ * array otherwise.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public interface StreamingTelemetryDecoder extends TelemetryDecoder {
+	/**
+	 * Decode the bytes from the position of the buffer into a telemetry
+	 * artifact.
+	 * 
+	 * @param encoded
+	 *          The encoded bytes.
+	 * @return the telemetry artifact
+	 */
+	GlobalInfo decode(ByteBuffer encoded);
+
+	/**
+	 * Decode the bytes from the position of the buffer into a telemetry
+	 * artifact, building only what the projection asks for. The position is
+	 * left after the telemetry whether or not it is accepted.
+	 * 
+	 * @param encoded
+	 *          The encoded bytes.
+	 * @param projection
+	 *          The fields, children and predicate to apply to the root.
+	 * @return the telemetry artifact or null if it was rejected.
+	 */
+	GlobalInfo decode(ByteBuffer encoded, TelemetryProjection projection);
+}
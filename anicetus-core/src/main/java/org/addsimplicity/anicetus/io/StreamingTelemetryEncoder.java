@@ -0,0 +1,60 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+
+/**
+ * A streaming encoder writes its bytes directly to a stream or buffer, which
+ * avoids the intermediate character array. Encoders that produce text write it
+ * as UTF-8. Delivery adapters check for this interface and encode to a
+ * character array otherwise.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public interface StreamingTelemetryEncoder extends TelemetryEncoder {
+	/**
+	 * Translate a telemetry artifact into the buffer, starting at the current
+	 * position of the buffer.
+	 * 
+	 * @param session
+	 *          The artifact to be translated.
+	 * @param out
+	 *          The buffer that receives the translated artifact.
+	 * @throws java.nio.BufferOverflowException
+	 *           if the buffer does not have room for the translated artifact.
+	 */
+	void encodeTo(GlobalInfo session, ByteBuffer out);
+
+	/**
+	 * Translate a telemetry artifact and write it to the stream. The stream is
+	 * not closed.
+	 * 
+	 * @param session
+	 *          The artifact to be translated.
+	 * @param out
+	 *          The stream that receives the translated artifact.
+	 * @throws IOException
+	 *           if the stream can not be written.
+	 */
+	void encodeTo(GlobalInfo session, OutputStream out) throws IOException;
+}
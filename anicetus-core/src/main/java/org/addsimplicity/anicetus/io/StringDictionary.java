@@ -0,0 +1,115 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded dictionary of the strings seen on a telemetry stream. Entries are
+ * assigned identifiers in a ring, so once the dictionary is full the oldest
+ * entry is replaced by the next one added. The encoder and decoder of a stream
+ * add the same strings in the same order, which keeps their dictionaries
+ * identical without ever sending the dictionary itself.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.BinaryEncoder#setDictionarySize(int)
+ * 
+ */
+final class StringDictionary {
+	private final String[] m_entries;
+	private final Map<String, Integer> m_ids;
+	private int m_next;
+
+	/**
+	 * Create an empty dictionary.
+	 * 
+	 * @param capacity
+	 *          The maximum number of entries.
+	 * @param indexed
+	 *          True if strings will be looked up by value, which is only needed
+	 *          when encoding.
+	 */
+	StringDictionary(int capacity, boolean indexed) {
+		m_entries = new String[capacity];
+		m_ids = indexed ? new HashMap<String, Integer>(capacity * 2) : null;
+	}
+
+	/**
+	 * Add a string, replacing the oldest entry if the dictionary is full.
+	 * 
+	 * @param value
+	 *          The string to add. It must not already be in the dictionary.
+	 */
+	void add(String value) {
+		final String evicted = m_entries[m_next];
+		if (m_ids != null) {
+			if (evicted != null) {
+				m_ids.remove(evicted);
+			}
+			m_ids.put(value, m_next);
+		}
+
+		m_entries[m_next] = value;
+		m_next = (m_next + 1) % m_entries.length;
+	}
+
+	/**
+	 * Return the maximum number of entries.
+	 * 
+	 * @return the capacity.
+	 */
+	int capacity() {
+		return m_entries.length;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	void clear() {
+		for (int i = 0; i < m_entries.length; i++) {
+			m_entries[i] = null;
+		}
+		if (m_ids != null) {
+			m_ids.clear();
+		}
+		m_next = 0;
+	}
+
+	/**
+	 * Return the string with an identifier.
+	 * 
+	 * @param id
+	 *          The identifier of the entry.
+	 * @return the string or null if there is no such entry.
+	 */
+	String get(int id) {
+		return id >= 0 && id < m_entries.length ? m_entries[id] : null;
+	}
+
+	/**
+	 * Return the identifier of a string.
+	 * 
+	 * @param value
+	 *          The string to find.
+	 * @return the identifier or -1 if the string is not in the dictionary.
+	 */
+	int indexOf(String value) {
+		final Integer id = m_ids.get(value);
+		return id != null ? id.intValue() : -1;
+	}
+}
@@ -34,4 +34,4 @@ public interface TelemetryEncoder {
 	 * @return the translated artifact.
 	 */
 	char[] encode(GlobalInfo session);
-}
\ No newline at end of file
+}
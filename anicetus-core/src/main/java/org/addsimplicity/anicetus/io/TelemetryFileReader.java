@@ -0,0 +1,280 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+
+/**
+ * The file reader decodes a file of newline delimited telemetry, as written by
+ * a FileDeliveryAdapter with delimited records, using several threads. The file
+ * is split into chunks of about the chunk size, each ending on a record
+ * boundary. The chunks are memory mapped and decoded in parallel, and the
+ * telemetry is returned in the order it appears in the file.
+ * 
+ * The decoder is shared by all of the threads, so it must be safe to share, as
+ * the JsonDecoder is. Records that can not be decoded are reported to the
+ * exception handler of the decoder and left out of the result. Only
+ * uncompressed files with a text encoding can be read, since binary telemetry
+ * may itself hold newline bytes.
+ * 
+ * If no executor is set, one is created for each file with a thread for each
+ * processor.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.FileDeliveryAdapter#setRecordDelimited(boolean)
+ * 
+ */
+public class TelemetryFileReader {
+	private static final int s_SCAN_SIZE = 4096;
+
+	private StreamingTelemetryDecoder m_decoder = new JsonDecoder();
+	private ExecutorService m_executor;
+	private int m_chunkSize = 4 * 1024 * 1024;
+
+	private static long findRecordEnd(FileChannel channel, long from, long size)
+			throws IOException {
+		// Start at the byte before the chunk boundary, so that a boundary that
+		// already follows a newline is kept.
+		//
+		final ByteBuffer scan = ByteBuffer.allocate(s_SCAN_SIZE);
+		long pos = from - 1;
+		while (pos < size) {
+			scan.clear();
+			final int n = channel.read(scan, pos);
+			if (n <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < n; i++) {
+				if (scan.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Get the number of bytes in each chunk of the file.
+	 * 
+	 * @return the chunk size.
+	 */
+	public int getChunkSize() {
+		return m_chunkSize;
+	}
+
+	/**
+	 * Get the decoder used for each record.
+	 * 
+	 * @return the decoder.
+	 */
+	public StreamingTelemetryDecoder getDecoder() {
+		return m_decoder;
+	}
+
+	/**
+	 * Get the executor that decodes the chunks.
+	 * 
+	 * @return the executor or null if one is created for each file.
+	 */
+	public ExecutorService getExecutor() {
+		return m_executor;
+	}
+
+	/**
+	 * Decode all of the telemetry in a file.
+	 * 
+	 * @param fileName
+	 *          The name of the file.
+	 * @return the telemetry in the order it appears in the file.
+	 * @throws IOException
+	 *           if the file can not be read.
+	 */
+	public List<GlobalInfo> read(String fileName) throws IOException {
+		return read(fileName, null);
+	}
+
+	/**
+	 * Decode the telemetry in a file, building only what the projection asks
+	 * for.
+	 * 
+	 * @param fileName
+	 *          The name of the file.
+	 * @param projection
+	 *          The projection to apply to each record or null to decode all of
+	 *          each record.
+	 * @return the accepted telemetry in the order it appears in the file.
+	 * @throws IOException
+	 *           if the file can not be read.
+	 * @see org.addsimplicity.anicetus.io.StreamingTelemetryDecoder#decode(ByteBuffer,
+	 *      TelemetryProjection)
+	 */
+	public List<GlobalInfo> read(String fileName, TelemetryProjection projection)
+			throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final List<Long> bounds = split(channel);
+
+			final ExecutorService executor = m_executor != null ? m_executor : Executors.newFixedThreadPool(Runtime
+					.getRuntime().availableProcessors());
+			try {
+				final List<Future<List<GlobalInfo>>> chunks = new ArrayList<Future<List<GlobalInfo>>>();
+				for (int i = 0; i + 1 < bounds.size(); i++) {
+					final long start = bounds.get(i);
+					final ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, bounds.get(i + 1) - start);
+					chunks.add(executor.submit(new Chunk(region, projection)));
+				}
+
+				final List<GlobalInfo> telemetry = new ArrayList<GlobalInfo>();
+				for (Future<List<GlobalInfo>> chunk : chunks) {
+					telemetry.addAll(chunk.get());
+				}
+
+				return telemetry;
+			}
+			catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading " + fileName);
+			}
+			catch (final ExecutionException ee) {
+				final IOException ioe = new IOException("Failed to decode " + fileName);
+				ioe.initCause(ee.getCause());
+				throw ioe;
+			}
+			finally {
+				if (m_executor == null) {
+					executor.shutdown();
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Set the number of bytes in each chunk of the file. Chunks are extended to
+	 * the end of the record that crosses their end. The default is 4M.
+	 * 
+	 * @param chunkSize
+	 *          The chunk size.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+
+		m_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Set the decoder used for each record. It is shared by all of the threads
+	 * decoding the file. The default decoder is a JsonDecoder.
+	 * 
+	 * @param decoder
+	 *          The decoder.
+	 */
+	public void setDecoder(StreamingTelemetryDecoder decoder) {
+		m_decoder = decoder;
+	}
+
+	/**
+	 * Set the executor that decodes the chunks. The executor is not shut down by
+	 * the reader.
+	 * 
+	 * @param executor
+	 *          The executor or null to create one for each file.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		m_executor = executor;
+	}
+
+	private List<Long> split(FileChannel channel) throws IOException {
+		final long size = channel.size();
+		final List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+
+		long next = m_chunkSize;
+		while (next < size) {
+			final long end = findRecordEnd(channel, next, size);
+			if (end >= size) {
+				break;
+			}
+
+			bounds.add(end);
+			next = end + m_chunkSize;
+		}
+		bounds.add(size);
+
+		return bounds;
+	}
+
+	/**
+	 * A chunk of the file that holds whole records.
+	 */
+	private class Chunk implements Callable<List<GlobalInfo>> {
+		private final ByteBuffer m_region;
+		private final TelemetryProjection m_projection;
+
+		Chunk(ByteBuffer region, TelemetryProjection projection) {
+			m_region = region;
+			m_projection = projection;
+		}
+
+		public List<GlobalInfo> call() {
+			final List<GlobalInfo> telemetry = new ArrayList<GlobalInfo>();
+			final int limit = m_region.limit();
+
+			int start = 0;
+			for (int i = 0; i <= limit; i++) {
+				if (i < limit && m_region.get(i) != '\n') {
+					continue;
+				}
+
+				if (i > start) {
+					final ByteBuffer record = m_region.duplicate();
+					record.limit(i);
+					record.position(start);
+
+					final GlobalInfo info = m_decoder.decode(record, m_projection);
+					if (info != null) {
+						telemetry.add(info);
+					}
+				}
+				start = i + 1;
+			}
+
+			return telemetry;
+		}
+	}
+}
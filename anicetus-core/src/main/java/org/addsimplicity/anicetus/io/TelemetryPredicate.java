@@ -0,0 +1,39 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+
+/**
+ * A predicate decides whether decoded telemetry is wanted. It is given the
+ * root artifact after its fields are decoded, but before its children are, so
+ * that unwanted telemetry can be rejected without decoding the rest of it.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.TelemetryProjection
+ * 
+ */
+public interface TelemetryPredicate {
+	/**
+	 * Decide whether the telemetry is wanted.
+	 * 
+	 * @param root
+	 *          The root artifact, holding only the projected fields.
+	 * @return true if the telemetry should be decoded.
+	 */
+	boolean accept(GlobalInfo root);
+}
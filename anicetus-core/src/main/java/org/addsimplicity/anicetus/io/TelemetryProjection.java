@@ -0,0 +1,152 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfoFields;
+
+/**
+ * A projection limits what a decoder builds from telemetry. The fields name the
+ * properties of the root artifact to decode, by either their Java or their JSON
+ * names. Properties that are not named are skipped, and are left on the
+ * artifact as it was constructed. The entity identifier and time stamp are
+ * always decoded, since a constructed artifact is given new ones. If no fields
+ * are set, every property is decoded. The children of the root are decoded
+ * only if asked for.
+ * 
+ * The predicate, if there is one, is given the root once its fields are
+ * decoded. Telemetry it rejects is decoded no further and null is returned for
+ * it.
+ * 
+ * A projection may be shared by any number of threads once it is configured.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.StreamingTelemetryDecoder#decode(java.nio.ByteBuffer,
+ *      TelemetryProjection)
+ * 
+ */
+public class TelemetryProjection {
+	private static final Set<String> s_identity = new HashSet<String>();
+
+	static {
+		for (GlobalInfoFields field : new GlobalInfoFields[] {
+				GlobalInfoFields.EntityId, GlobalInfoFields.TimeStamp }) {
+			s_identity.add(field.name());
+			s_identity.add(field.getJsonKey());
+		}
+	}
+
+	private Set<String> m_fields;
+	private boolean m_children = true;
+	private TelemetryPredicate m_predicate;
+
+	/**
+	 * Return true if the predicate accepts the root artifact.
+	 * 
+	 * @param root
+	 *          The root artifact.
+	 * @return true if there is no predicate or the predicate accepts the root.
+	 */
+	public boolean accept(GlobalInfo root) {
+		return m_predicate == null || m_predicate.accept(root);
+	}
+
+	/**
+	 * Return the names of the projected fields.
+	 * 
+	 * @return the field names or null if every field is decoded.
+	 */
+	public Collection<String> getFields() {
+		return m_fields;
+	}
+
+	/**
+	 * Return the predicate applied to the root artifact.
+	 * 
+	 * @return the predicate or null if all telemetry is accepted.
+	 */
+	public TelemetryPredicate getPredicate() {
+		return m_predicate;
+	}
+
+	/**
+	 * Return true if the field is projected. The entity identifier and time
+	 * stamp are always projected.
+	 * 
+	 * @param name
+	 *          The Java or JSON name of the field.
+	 * @return true if the field should be decoded.
+	 */
+	public boolean includes(String name) {
+		if (m_fields == null || m_fields.contains(name)
+				|| s_identity.contains(name)) {
+			return true;
+		}
+
+		String other = EntityTypeRegistry.getPropKey(name);
+		if (other == null) {
+			other = EntityTypeRegistry.getJsonKey(name);
+		}
+
+		return other != null && m_fields.contains(other);
+	}
+
+	/**
+	 * Return true if the children of the root are decoded.
+	 * 
+	 * @return true if children are decoded.
+	 */
+	public boolean isChildren() {
+		return m_children;
+	}
+
+	/**
+	 * Set whether the children of the root are decoded. The default is true.
+	 * 
+	 * @param children
+	 *          True if the children should be decoded.
+	 */
+	public void setChildren(boolean children) {
+		m_children = children;
+	}
+
+	/**
+	 * Set the fields of the root artifact to decode. Fields may be named by
+	 * either their Java or their JSON names.
+	 * 
+	 * @param fields
+	 *          The names of the fields or null to decode every field.
+	 */
+	public void setFields(Collection<String> fields) {
+		m_fields = fields != null ? new HashSet<String>(fields) : null;
+	}
+
+	/**
+	 * Set the predicate applied to the root artifact.
+	 * 
+	 * @param predicate
+	 *          The predicate or null to accept all telemetry.
+	 */
+	public void setPredicate(TelemetryPredicate predicate) {
+		m_predicate = predicate;
+	}
+}
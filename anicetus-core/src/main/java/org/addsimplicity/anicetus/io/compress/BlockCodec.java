@@ -0,0 +1,85 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+import java.io.IOException;
+
+/**
+ * A block codec compresses one block of encoded telemetry at a time. Codecs
+ * hold no state between blocks and may be shared by any number of streams and
+ * threads.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.compress.BlockOutputStream
+ * 
+ */
+public interface BlockCodec {
+	/**
+	 * Compress a block.
+	 * 
+	 * @param src
+	 *          The buffer holding the block.
+	 * @param srcOff
+	 *          The offset of the block in the buffer.
+	 * @param length
+	 *          The length of the block.
+	 * @param dst
+	 *          The buffer that receives the compressed block. It must have at
+	 *          least maxCompressedLength bytes after the offset.
+	 * @param dstOff
+	 *          The offset in the buffer to write the compressed block.
+	 * @return the length of the compressed block or -1 if the block can not be
+	 *         compressed.
+	 */
+	int compress(byte[] src, int srcOff, int length, byte[] dst, int dstOff);
+
+	/**
+	 * Decompress a block.
+	 * 
+	 * @param src
+	 *          The buffer holding the compressed block.
+	 * @param srcOff
+	 *          The offset of the compressed block in the buffer.
+	 * @param length
+	 *          The length of the compressed block.
+	 * @param dst
+	 *          The buffer that receives the block.
+	 * @param dstOff
+	 *          The offset in the buffer to write the block.
+	 * @param rawLength
+	 *          The length of the block before it was compressed.
+	 * @throws IOException
+	 *           if the compressed block is corrupt.
+	 */
+	void decompress(byte[] src, int srcOff, int length, byte[] dst, int dstOff, int rawLength) throws IOException;
+
+	/**
+	 * Return the identifier written with each block compressed by this codec.
+	 * 
+	 * @return the codec identifier.
+	 */
+	int getId();
+
+	/**
+	 * Return the largest size a block may have once compressed.
+	 * 
+	 * @param length
+	 *          The length of the block.
+	 * @return the maximum compressed length.
+	 */
+	int maxCompressedLength(int length);
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+/**
+ * The constants of the block framing shared by the BlockOutputStream and
+ * BlockInputStream.
+ * 
+ * Each block starts with a ten byte header, the magic number, the identifier
+ * of the codec, the length of the block before compression and the length of
+ * the block as written, both as four byte big endian integers. A block that
+ * does not shrink when compressed is written as is with the stored
+ * identifier. Since each block stands alone, streams of blocks may be
+ * concatenated, such as when a file is appended to.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+final class BlockFormat {
+	static final byte s_MAGIC = (byte) 0xB1;
+	static final int s_STORED = 0;
+	static final int s_HEADER_LENGTH = 10;
+	static final int s_MAX_BLOCK_SIZE = 1 << 24;
+
+	private static final BlockCodec s_lz = new LzBlockCodec();
+	private static final BlockCodec s_deflate = new DeflateBlockCodec();
+
+	/**
+	 * Return a codec that can decompress blocks written with an identifier.
+	 * 
+	 * @param id
+	 *          The codec identifier from the block header.
+	 * @return the codec or null if the identifier is not known.
+	 */
+	static BlockCodec codecOf(int id) {
+		switch (id) {
+		case LzBlockCodec.s_ID:
+			return s_lz;
+
+		case DeflateBlockCodec.s_ID:
+			return s_deflate;
+		}
+
+		return null;
+	}
+
+	static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+
+	static void writeInt(byte[] b, int off, int value) {
+		b[off] = (byte) (value >>> 24);
+		b[off + 1] = (byte) (value >>> 16);
+		b[off + 2] = (byte) (value >>> 8);
+		b[off + 3] = (byte) value;
+	}
+
+	private BlockFormat() {
+	}
+}
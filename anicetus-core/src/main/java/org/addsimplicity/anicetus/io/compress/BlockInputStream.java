@@ -0,0 +1,167 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The block input stream reads the blocks written by a BlockOutputStream and
+ * returns the telemetry they hold. The codec of each block is named in its
+ * header, so blocks written with different codecs may be read from one stream.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.compress.BlockOutputStream
+ * 
+ */
+public class BlockInputStream extends InputStream {
+	private final InputStream m_in;
+	private final byte[] m_header = new byte[BlockFormat.s_HEADER_LENGTH];
+	private byte[] m_block = new byte[0];
+	private byte[] m_encoded = new byte[0];
+	private int m_pos;
+	private int m_limit;
+
+	/**
+	 * Create a stream.
+	 * 
+	 * @param in
+	 *          The stream holding the blocks.
+	 */
+	public BlockInputStream(InputStream in) {
+		m_in = in;
+	}
+
+	/**
+	 * Return true if the bytes start with a block.
+	 * 
+	 * @param b
+	 *          The buffer to check.
+	 * @param off
+	 *          The offset of the bytes.
+	 * @param len
+	 *          The number of bytes.
+	 * @return true if the bytes start with a block header.
+	 */
+	public static boolean isBlock(byte[] b, int off, int len) {
+		return len >= BlockFormat.s_HEADER_LENGTH && b[off] == BlockFormat.s_MAGIC;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return m_limit - m_pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		m_in.close();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (m_pos == m_limit && !nextBlock()) {
+			return -1;
+		}
+
+		return m_block[m_pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		if (m_pos == m_limit && !nextBlock()) {
+			return -1;
+		}
+
+		final int n = Math.min(len, m_limit - m_pos);
+		System.arraycopy(m_block, m_pos, b, off, n);
+		m_pos += n;
+
+		return n;
+	}
+
+	/**
+	 * Read the next block that holds any bytes.
+	 * 
+	 * @return false if the end of the stream was reached.
+	 */
+	private boolean nextBlock() throws IOException {
+		do {
+			final int magic = m_in.read();
+			if (magic < 0) {
+				return false;
+			}
+			if ((byte) magic != BlockFormat.s_MAGIC) {
+				throw new IOException("Not a telemetry block");
+			}
+
+			m_header[0] = (byte) magic;
+			readFully(m_header, 1, BlockFormat.s_HEADER_LENGTH - 1);
+
+			final int id = m_header[1];
+			final int rawLength = BlockFormat.readInt(m_header, 2);
+			final int length = BlockFormat.readInt(m_header, 6);
+			if (rawLength < 0 || rawLength > BlockFormat.s_MAX_BLOCK_SIZE || length < 0
+					|| length > 2 * BlockFormat.s_MAX_BLOCK_SIZE) {
+				throw new IOException("Corrupt block header");
+			}
+
+			if (m_block.length < rawLength) {
+				m_block = new byte[rawLength];
+			}
+
+			if (id == BlockFormat.s_STORED) {
+				if (length != rawLength) {
+					throw new IOException("Corrupt block header");
+				}
+				readFully(m_block, 0, rawLength);
+			}
+			else {
+				final BlockCodec codec = BlockFormat.codecOf(id);
+				if (codec == null) {
+					throw new IOException("Unknown block codec " + id);
+				}
+
+				if (m_encoded.length < length) {
+					m_encoded = new byte[length];
+				}
+				readFully(m_encoded, 0, length);
+				codec.decompress(m_encoded, 0, length, m_block, 0, rawLength);
+			}
+
+			m_pos = 0;
+			m_limit = rawLength;
+		} while (m_limit == 0);
+
+		return true;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			final int n = m_in.read(b, off, len);
+			if (n < 0) {
+				throw new EOFException("Truncated block");
+			}
+			off += n;
+			len -= n;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The block output stream batches the encoded telemetry written to it into
+ * blocks and writes each block, compressed by its codec, to the underlying
+ * stream. It sits between an encoder and the stream of a delivery adapter.
+ * Telemetry is held until the block fills or the stream is finished, so a
+ * larger block compresses better at the cost of holding more telemetry in
+ * memory. Like other streams, it is not safe for concurrent use.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.compress.BlockInputStream
+ * 
+ */
+public class BlockOutputStream extends OutputStream {
+	private static final int s_DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final OutputStream m_out;
+	private final BlockCodec m_codec;
+	private final byte[] m_block;
+	private final byte[] m_frame;
+	private int m_count;
+	private boolean m_closed;
+
+	/**
+	 * Create a stream with 64K blocks.
+	 * 
+	 * @param out
+	 *          The stream that receives the blocks.
+	 * @param codec
+	 *          The codec used to compress each block.
+	 */
+	public BlockOutputStream(OutputStream out, BlockCodec codec) {
+		this(out, codec, s_DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Create a stream.
+	 * 
+	 * @param out
+	 *          The stream that receives the blocks.
+	 * @param codec
+	 *          The codec used to compress each block.
+	 * @param blockSize
+	 *          The number of bytes held before a block is written.
+	 */
+	public BlockOutputStream(OutputStream out, BlockCodec codec, int blockSize) {
+		if (blockSize < 1 || blockSize > BlockFormat.s_MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size must be between 1 and " + BlockFormat.s_MAX_BLOCK_SIZE);
+		}
+
+		m_out = out;
+		m_codec = codec;
+		m_block = new byte[blockSize];
+		m_frame = new byte[BlockFormat.s_HEADER_LENGTH + codec.maxCompressedLength(blockSize)];
+	}
+
+	/**
+	 * Write any held telemetry and close the underlying stream.
+	 * 
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!m_closed) {
+			m_closed = true;
+			try {
+				finish();
+			}
+			finally {
+				m_out.close();
+			}
+		}
+	}
+
+	/**
+	 * Write any held telemetry as a block without flushing or closing the
+	 * underlying stream.
+	 * 
+	 * @throws IOException
+	 *           if the block can not be written.
+	 */
+	public void finish() throws IOException {
+		if (m_count > 0) {
+			writeBlock(m_out, m_codec, m_block, 0, m_count, m_frame);
+			m_count = 0;
+		}
+	}
+
+	/**
+	 * Flush the underlying stream. Held telemetry is not written, since encoders
+	 * flush after each artifact and that would defeat the batching. Call finish
+	 * first to write it.
+	 * 
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		m_out.flush();
+	}
+
+	/**
+	 * Return the number of bytes held before a block is written.
+	 * 
+	 * @return the block size.
+	 */
+	public int getBlockSize() {
+		return m_block.length;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (m_closed) {
+			throw new IOException("Stream closed");
+		}
+
+		while (len > 0) {
+			if (m_count == m_block.length) {
+				finish();
+			}
+
+			final int n = Math.min(len, m_block.length - m_count);
+			System.arraycopy(b, off, m_block, m_count, n);
+			m_count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (m_closed) {
+			throw new IOException("Stream closed");
+		}
+
+		if (m_count == m_block.length) {
+			finish();
+		}
+		m_block[m_count++] = (byte) b;
+	}
+
+	/**
+	 * Write a single block. This suits transports that carry one payload per
+	 * message rather than a stream.
+	 * 
+	 * @param out
+	 *          The stream that receives the block.
+	 * @param codec
+	 *          The codec used to compress the block.
+	 * @param b
+	 *          The buffer holding the block.
+	 * @param off
+	 *          The offset of the block in the buffer.
+	 * @param len
+	 *          The length of the block.
+	 * @throws IOException
+	 *           if the block can not be written.
+	 */
+	public static void writeBlock(OutputStream out, BlockCodec codec, byte[] b, int off, int len) throws IOException {
+		if (len > BlockFormat.s_MAX_BLOCK_SIZE) {
+			throw new IOException("Block of " + len + " bytes exceeds the maximum block size");
+		}
+
+		writeBlock(out, codec, b, off, len, new byte[BlockFormat.s_HEADER_LENGTH + codec.maxCompressedLength(len)]);
+	}
+
+	private static void writeBlock(OutputStream out, BlockCodec codec, byte[] b, int off, int len, byte[] frame)
+			throws IOException {
+		final int compressed = codec.compress(b, off, len, frame, BlockFormat.s_HEADER_LENGTH);
+		final boolean stored = compressed < 0 || compressed >= len;
+
+		frame[0] = BlockFormat.s_MAGIC;
+		frame[1] = (byte) (stored ? BlockFormat.s_STORED : codec.getId());
+		BlockFormat.writeInt(frame, 2, len);
+		BlockFormat.writeInt(frame, 6, stored ? len : compressed);
+
+		if (stored) {
+			out.write(frame, 0, BlockFormat.s_HEADER_LENGTH);
+			out.write(b, off, len);
+		}
+		else {
+			out.write(frame, 0, BlockFormat.s_HEADER_LENGTH + compressed);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A codec that compresses blocks with raw Deflate. It is slower than the
+ * LzBlockCodec but compresses further, which suits telemetry that is archived
+ * rather than read back soon.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class DeflateBlockCodec implements BlockCodec {
+	static final int s_ID = 2;
+
+	private int m_level = Deflater.BEST_SPEED;
+
+	/**
+	 * Compress a block.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#compress(byte[],
+	 *      int, int, byte[], int)
+	 */
+	public int compress(byte[] src, int srcOff, int length, byte[] dst, int dstOff) {
+		final Deflater deflater = new Deflater(m_level, true);
+		try {
+			deflater.setInput(src, srcOff, length);
+			deflater.finish();
+
+			final int limit = dstOff + maxCompressedLength(length);
+			int d = dstOff;
+			while (!deflater.finished() && d < limit) {
+				d += deflater.deflate(dst, d, limit - d);
+			}
+
+			return deflater.finished() ? d - dstOff : -1;
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompress a block.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#decompress(byte[],
+	 *      int, int, byte[], int, int)
+	 */
+	public void decompress(byte[] src, int srcOff, int length, byte[] dst, int dstOff, int rawLength)
+			throws IOException {
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(src, srcOff, length);
+
+			int d = dstOff;
+			final int limit = dstOff + rawLength;
+			while (d < limit) {
+				final int n = inflater.inflate(dst, d, limit - d);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				d += n;
+			}
+
+			if (d != limit) {
+				throw new IOException("Corrupt block, expected " + rawLength + " bytes but found " + (d - dstOff));
+			}
+		}
+		catch (final DataFormatException e) {
+			throw new IOException("Corrupt block, " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Return the identifier of the codec.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#getId()
+	 */
+	public int getId() {
+		return s_ID;
+	}
+
+	/**
+	 * Return the compression level.
+	 * 
+	 * @return the level.
+	 */
+	public int getLevel() {
+		return m_level;
+	}
+
+	/**
+	 * Return the largest size a block may have once compressed, which is when
+	 * Deflate stores it.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#maxCompressedLength(int)
+	 */
+	public int maxCompressedLength(int length) {
+		return length + (length >> 12) + (length >> 14) + (length >> 25) + 32;
+	}
+
+	/**
+	 * Set the compression level, from 1 for the fastest to 9 for the smallest.
+	 * The default is the fastest.
+	 * 
+	 * @param level
+	 *          The Deflate compression level.
+	 */
+	public void setLevel(int level) {
+		m_level = level;
+	}
+}
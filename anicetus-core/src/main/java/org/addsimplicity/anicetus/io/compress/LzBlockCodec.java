@@ -0,0 +1,218 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast codec that writes blocks in the LZ4 block format. Repeated sequences
+ * of at least four bytes within the last 64K of the block are replaced by a
+ * reference to the earlier copy. Matches are found with a single hash probe,
+ * which trades some compression for speed, as JSON telemetry compresses well
+ * with little search.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class LzBlockCodec implements BlockCodec {
+	static final int s_ID = 1;
+
+	private static final int s_MIN_MATCH = 4;
+	private static final int s_LAST_LITERALS = 5;
+	private static final int s_MATCH_LIMIT = 12;
+	private static final int s_MAX_OFFSET = 0xFFFF;
+	private static final int s_HASH_LOG = 12;
+
+	private static final ThreadLocal<int[]> s_tables = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << s_HASH_LOG];
+		}
+	};
+
+	/**
+	 * Compress a block.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#compress(byte[],
+	 *      int, int, byte[], int)
+	 */
+	public int compress(byte[] src, int srcOff, int length, byte[] dst, int dstOff) {
+		final int end = srcOff + length;
+		final int matchEnd = end - s_LAST_LITERALS;
+		final int searchEnd = end - s_MATCH_LIMIT;
+
+		final int[] table = s_tables.get();
+		Arrays.fill(table, -1);
+
+		int d = dstOff;
+		int anchor = srcOff;
+		int ip = srcOff;
+		while (ip < searchEnd) {
+			final int seq = readInt(src, ip);
+			final int h = (seq * -1640531535) >>> (32 - s_HASH_LOG);
+			final int ref = table[h];
+			table[h] = ip;
+
+			if (ref < 0 || ip - ref > s_MAX_OFFSET || readInt(src, ref) != seq) {
+				ip++;
+				continue;
+			}
+
+			int matchLength = s_MIN_MATCH;
+			while (ip + matchLength < matchEnd && src[ref + matchLength] == src[ip + matchLength]) {
+				matchLength++;
+			}
+
+			final int token = d++;
+			d = writeLiterals(src, anchor, ip - anchor, dst, token, d);
+			dst[d++] = (byte) (ip - ref);
+			dst[d++] = (byte) ((ip - ref) >>> 8);
+
+			final int extra = matchLength - s_MIN_MATCH;
+			if (extra >= 15) {
+				dst[token] |= 15;
+				d = writeLength(extra - 15, dst, d);
+			}
+			else {
+				dst[token] |= extra;
+			}
+
+			ip += matchLength;
+			anchor = ip;
+		}
+
+		final int token = d++;
+		return writeLiterals(src, anchor, end - anchor, dst, token, d) - dstOff;
+	}
+
+	/**
+	 * Decompress a block.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#decompress(byte[],
+	 *      int, int, byte[], int, int)
+	 */
+	public void decompress(byte[] src, int srcOff, int length, byte[] dst, int dstOff, int rawLength)
+			throws IOException {
+		final int srcEnd = srcOff + length;
+		final int dstEnd = dstOff + rawLength;
+
+		int s = srcOff;
+		int d = dstOff;
+		try {
+			while (true) {
+				final int token = src[s++] & 0xFF;
+
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[s++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+
+				if (s + literals > srcEnd || d + literals > dstEnd) {
+					throw new IOException("Corrupt block, literals overrun");
+				}
+				System.arraycopy(src, s, dst, d, literals);
+				s += literals;
+				d += literals;
+
+				if (s == srcEnd) {
+					break;
+				}
+
+				final int offset = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+				s += 2;
+
+				int matchLength = token & 15;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[s++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += s_MIN_MATCH;
+
+				if (offset == 0 || d - offset < dstOff || d + matchLength > dstEnd) {
+					throw new IOException("Corrupt block, invalid match");
+				}
+
+				// The copy may overlap itself, which repeats the sequence.
+				//
+				for (int m = d - offset, e = d + matchLength; d < e;) {
+					dst[d++] = dst[m++];
+				}
+			}
+		}
+		catch (final ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt block, truncated");
+		}
+
+		if (d != dstEnd) {
+			throw new IOException("Corrupt block, expected " + rawLength + " bytes but found " + (d - dstOff));
+		}
+	}
+
+	/**
+	 * Return the identifier of the codec.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#getId()
+	 */
+	public int getId() {
+		return s_ID;
+	}
+
+	/**
+	 * Return the largest size a block may have once compressed, which is when
+	 * none of it repeats.
+	 * 
+	 * @see org.addsimplicity.anicetus.io.compress.BlockCodec#maxCompressedLength(int)
+	 */
+	public int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+	}
+
+	private static int writeLength(int length, byte[] dst, int d) {
+		while (length >= 255) {
+			dst[d++] = (byte) 255;
+			length -= 255;
+		}
+		dst[d++] = (byte) length;
+
+		return d;
+	}
+
+	private static int writeLiterals(byte[] src, int off, int length, byte[] dst, int token, int d) {
+		if (length >= 15) {
+			dst[token] = (byte) 0xF0;
+			d = writeLength(length - 15, dst, d);
+		}
+		else {
+			dst[token] = (byte) (length << 4);
+		}
+
+		System.arraycopy(src, off, dst, d, length);
+		return d + length;
+	}
+}
@@ -48,7 +48,11 @@ import org.springframework.jms.support.converter.MessageConverter;
  * space or the calling thread will be used to delivery the artifact.
  * 
  * Messages are converted to the desired format using a Spring message converter
- * implementation.
+ * implementation. The adapter may be set to freeze telemetry into an immutable
+ * snapshot before it is queued, so the application may keep using the
+ * original while it is being delivered. A snapshot copies the whole tree, so
+ * it is off by default. Telemetry that is already a snapshot, such as that
+ * delivered by a TelemetryContext with snapshots enabled, is never copied.
  * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
@@ -83,6 +87,7 @@ public class JMSDeliveryAdapter implements DeliveryAdapter, InitializingBean {
 	private int m_maxDeliveryQueue = Integer.MAX_VALUE;
 	private RejectedExecutionHandler m_rejectionHandler = new ThreadPoolExecutor.DiscardPolicy();
 	private ExecutorService m_executor;
+	private boolean m_snapshot;
 
 	/**
 	 * Called by Spring once all properties have been set. This method will
@@ -153,9 +158,19 @@ public class JMSDeliveryAdapter implements DeliveryAdapter, InitializingBean {
 	}
 
 	/**
-	 * Send the telemetry to the JMS topic. The telemetry is queued for delivery
-	 * and this method will return immediately unless discarding messages is
-	 * disabled and the queue is full.
+	 * Return true if a snapshot of the telemetry is queued in place of the
+	 * telemetry itself.
+	 * 
+	 * @return true if snapshots are queued.
+	 */
+	public boolean getSnapshot() {
+		return m_snapshot;
+	}
+
+	/**
+	 * Send the telemetry to the JMS topic. The telemetry, or a snapshot of it,
+	 * is queued for delivery and this method will return immediately unless
+	 * discarding messages is disabled and the queue is full.
 	 * 
 	 * @param telemetry
 	 *          The telemetry to send.
@@ -171,7 +186,7 @@ public class JMSDeliveryAdapter implements DeliveryAdapter, InitializingBean {
 	 *                                                                         )
 	 */
 	public void sendTelemetry(GlobalInfo telemetry) {
-		m_executor.submit(new DeliveryTask(telemetry));
+		m_executor.submit(new DeliveryTask(m_snapshot ? telemetry.snapshot() : telemetry));
 	}
 
 	/**
@@ -257,4 +272,16 @@ public class JMSDeliveryAdapter implements DeliveryAdapter, InitializingBean {
 		m_messageConverter = messageConverter;
 	}
 
+	/**
+	 * Setting snapshot to true will queue an immutable snapshot of the telemetry
+	 * rather than the telemetry itself. The default is false.
+	 * 
+	 * @param snapshot
+	 *          True to queue snapshots.
+	 * @see org.addsimplicity.anicetus.entity.GlobalInfo#snapshot()
+	 */
+	public void setSnapshot(boolean snapshot) {
+		m_snapshot = snapshot;
+	}
+
 }
@@ -16,6 +16,14 @@
  */
 package org.addsimplicity.anicetus.io.jms;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
@@ -26,8 +34,13 @@ import org.addsimplicity.anicetus.entity.GlobalInfo;
 import org.addsimplicity.anicetus.entity.GlobalInfoFields;
 import org.addsimplicity.anicetus.io.JsonDecoder;
 import org.addsimplicity.anicetus.io.JsonEncoder;
+import org.addsimplicity.anicetus.io.StreamingTelemetryDecoder;
+import org.addsimplicity.anicetus.io.StreamingTelemetryEncoder;
 import org.addsimplicity.anicetus.io.TelemetryDecoder;
 import org.addsimplicity.anicetus.io.TelemetryEncoder;
+import org.addsimplicity.anicetus.io.compress.BlockCodec;
+import org.addsimplicity.anicetus.io.compress.BlockInputStream;
+import org.addsimplicity.anicetus.io.compress.BlockOutputStream;
 import org.springframework.jms.support.converter.MessageConversionException;
 import org.springframework.jms.support.converter.MessageConverter;
 
@@ -45,18 +58,44 @@ import org.springframework.jms.support.converter.MessageConverter;
  * 
  * Status - Set if present.
  * 
+ * The converter may be configured to send bytes messages instead. The payload
+ * is then the UTF-8 encoding of the JSON, written by the encoder into a buffer
+ * that is reused by each thread, so no intermediate string is created. Both
+ * kinds of message are accepted when converting from a message.
+ * 
+ * When a block codec is set, the payload of a bytes message is compressed as
+ * a single block. Compressed payloads are recognized by their block header and
+ * decompressed when converting from a message, whether or not a codec is set.
+ * 
  * @author Dan Pritchett (driveawedge@yahoo.com)
  * 
  */
 public class JsonMessageConverter implements MessageConverter {
+	private static final ThreadLocal<PayloadBuffer> s_payloads = new ThreadLocal<PayloadBuffer>() {
+		@Override
+		protected PayloadBuffer initialValue() {
+			return new PayloadBuffer();
+		}
+	};
+
+	private static final ThreadLocal<PayloadBuffer> s_blocks = new ThreadLocal<PayloadBuffer>() {
+		@Override
+		protected PayloadBuffer initialValue() {
+			return new PayloadBuffer();
+		}
+	};
+
 	private TelemetryEncoder m_translator = new JsonEncoder();
 	private TelemetryDecoder m_decoder = new JsonDecoder();
+	private boolean m_bytesMessage;
+	private BlockCodec m_blockCodec;
 
 	/**
-	 * Convert a JMS text message with a JSON payload to a telemetry artifact.
+	 * Convert a JMS text or bytes message with a JSON payload to a telemetry
+	 * artifact.
 	 * 
 	 * @param msg
-	 *          The JMS text message.
+	 *          The JMS message.
 	 * @return the telemetry artifact.
 	 * @see org.springframework.jms.support.converter.MessageConverter#fromMessage(javax.jms.Message)
 	 */
@@ -64,12 +103,47 @@ public class JsonMessageConverter implements MessageConverter {
 		if (msg instanceof TextMessage) {
 			return m_decoder.decode(((TextMessage) msg).getText().toCharArray());
 		}
+		else if (msg instanceof BytesMessage) {
+			BytesMessage bytes = (BytesMessage) msg;
+			byte[] body = new byte[(int) bytes.getBodyLength()];
+			bytes.readBytes(body);
+
+			if (BlockInputStream.isBlock(body, 0, body.length)) {
+				try {
+					body = decompress(body);
+				}
+				catch (IOException e) {
+					throw new MessageConversionException("Unable to decompress message body", e);
+				}
+			}
+
+			if (m_decoder instanceof StreamingTelemetryDecoder) {
+				return ((StreamingTelemetryDecoder) m_decoder).decode(ByteBuffer.wrap(body));
+			}
+
+			try {
+				return m_decoder.decode(new String(body, "UTF-8").toCharArray());
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new MessageConversionException("Unable to decode message body", e);
+			}
+		}
 		else {
-			throw new JMSException("Message of type " + msg.getClass().getName() + " is not supported. Only TextMessage");
+			throw new JMSException("Message of type " + msg.getClass().getName()
+					+ " is not supported. Only TextMessage and BytesMessage");
 		}
 
 	}
 
+	/**
+	 * Get the codec used to compress the payload of bytes messages.
+	 * 
+	 * @return the codec or null if payloads are not compressed.
+	 */
+	public BlockCodec getBlockCodec() {
+		return m_blockCodec;
+	}
+
 	/**
 	 * Get the current decoder.
 	 * 
@@ -88,6 +162,37 @@ public class JsonMessageConverter implements MessageConverter {
 		return m_translator;
 	}
 
+	/**
+	 * Return true if telemetry is sent as bytes messages.
+	 * 
+	 * @return true if bytes messages are created.
+	 */
+	public boolean isBytesMessage() {
+		return m_bytesMessage;
+	}
+
+	/**
+	 * Set the codec used to compress the payload of bytes messages. By default
+	 * payloads are not compressed. Text messages are never compressed.
+	 * 
+	 * @param codec
+	 *          The codec or null to send payloads uncompressed.
+	 */
+	public void setBlockCodec(BlockCodec codec) {
+		m_blockCodec = codec;
+	}
+
+	/**
+	 * Send telemetry as bytes messages holding the UTF-8 encoded JSON rather
+	 * than as text messages. By default text messages are sent.
+	 * 
+	 * @param bytesMessage
+	 *          True to create bytes messages.
+	 */
+	public void setBytesMessage(boolean bytesMessage) {
+		m_bytesMessage = bytesMessage;
+	}
+
 	/**
 	 * Set the decoder. By default the JsonDecoder is used.
 	 * 
@@ -110,19 +215,19 @@ public class JsonMessageConverter implements MessageConverter {
 
 	/**
 	 * Translate the telemetry to a JMS message. A JMS text message is used to
-	 * contain the translated payload.
+	 * contain the translated payload, unless bytes messages are enabled.
 	 * 
 	 * @param obj
 	 *          The telemetry artifact.
 	 * @param jsmSess
 	 *          The JMS session.
-	 * @return a text message containing the translated payload.
+	 * @return a message containing the translated payload.
 	 * 
 	 * @see org.springframework.jms.support.converter.MessageConverter#toMessage(java.lang.Object,
 	 *      javax.jms.Session)
 	 */
 	public Message toMessage(Object obj, Session jmsSess) throws JMSException, MessageConversionException {
-		TextMessage m = jmsSess.createTextMessage();
+		Message m = m_bytesMessage ? jmsSess.createBytesMessage() : jmsSess.createTextMessage();
 
 		GlobalInfo telemetry = (GlobalInfo) obj;
 		m.setJMSCorrelationID(telemetry.getEntityId().toString());
@@ -137,11 +242,67 @@ public class JsonMessageConverter implements MessageConverter {
 			m.setStringProperty(ExecInfoFields.Status.name(), telemetry.get(ExecInfoFields.Status.name()).toString());
 		}
 
-		char[] body = m_translator.encode(telemetry);
+		if (m_bytesMessage) {
+			PayloadBuffer payload = s_payloads.get();
+			payload.reset();
+			try {
+				if (m_translator instanceof StreamingTelemetryEncoder) {
+					((StreamingTelemetryEncoder) m_translator).encodeTo(telemetry, payload);
+				}
+				else {
+					payload.write(new String(m_translator.encode(telemetry)).getBytes("UTF-8"));
+				}
+			}
+			catch (IOException e) {
+				throw new MessageConversionException("Unable to encode telemetry", e);
+			}
+
+			if (m_blockCodec != null) {
+				PayloadBuffer block = s_blocks.get();
+				block.reset();
+				try {
+					BlockOutputStream.writeBlock(block, m_blockCodec, payload.buffer(), 0, payload.size());
+				}
+				catch (IOException e) {
+					throw new MessageConversionException("Unable to compress telemetry", e);
+				}
+				payload = block;
+			}
+
+			((BytesMessage) m).writeBytes(payload.buffer(), 0, payload.size());
+		}
+		else {
+			char[] body = m_translator.encode(telemetry);
 
-		m.setText(new String(body));
+			((TextMessage) m).setText(new String(body));
+		}
 
 		return m;
 	}
 
+	private static byte[] decompress(byte[] body) throws IOException {
+		InputStream in = new BlockInputStream(new ByteArrayInputStream(body));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+		byte[] chunk = new byte[4096];
+		for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+			out.write(chunk, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * A byte array stream that exposes its buffer, so that the payload can be
+	 * handed to the message without another copy.
+	 */
+	private static final class PayloadBuffer extends ByteArrayOutputStream {
+		PayloadBuffer() {
+			super(4096);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
 }
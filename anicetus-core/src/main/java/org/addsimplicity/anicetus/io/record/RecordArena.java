@@ -0,0 +1,455 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+
+import org.addsimplicity.anicetus.entity.AttributeRecorder;
+import org.addsimplicity.anicetus.entity.AttributeVisitor;
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfoFields;
+
+/**
+ * A record arena captures a session as a sequence of compact binary records
+ * while the session runs. Each artifact is started with a record that names
+ * its type, its reference within the arena and the reference of its parent.
+ * Every property set on a started artifact is appended as an attribute record
+ * through the AttributeRecorder interface. When the session is complete the
+ * records are handed over as they are, with no further serialization.
+ * 
+ * The arena is backed by a single ByteBuffer, which may be allocated outside
+ * of the heap. The buffer grows by doubling when it is full and is reused for
+ * the next session once it is cleared. An arena is not thread safe and is
+ * meant to be owned by one thread.
+ * 
+ * Records are written in the buffer's byte order. A start record is the tag,
+ * the reference and parent reference as ints and the type name. An attribute
+ * record is the tag, the reference, the key and a tagged value. Strings are
+ * written as a byte count followed by their UTF-8 encoding. Strings, numbers,
+ * booleans, UUIDs, completion statuses, arrays and collections keep their
+ * type. String arrays are told apart from other arrays and sets from other
+ * collections, which are read back as lists. Any other value is recorded as
+ * its string form.
+ * 
+ * A property recorded more than once keeps the last value. Values that are
+ * arrays or collections are recorded again when an execution artifact is
+ * finished, so that elements added after the property was set are captured.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.record.RecordDecoder
+ * 
+ */
+public final class RecordArena implements AttributeRecorder {
+	static final byte s_START = 1;
+	static final byte s_ATTRIBUTE = 2;
+
+	static final byte s_NULL = 0;
+	static final byte s_LONG = 1;
+	static final byte s_INT = 2;
+	static final byte s_DOUBLE = 3;
+	static final byte s_BOOLEAN = 4;
+	static final byte s_STRING = 5;
+	static final byte s_UUID = 6;
+	static final byte s_STATUS = 7;
+	static final byte s_ARRAY = 8;
+	static final byte s_STRINGS = 9;
+	static final byte s_LIST = 10;
+	static final byte s_SET = 11;
+
+	private static final String s_PARENT_ID = GlobalInfoFields.ParentId.name();
+
+	private final boolean m_direct;
+	private final Appender m_appender = new Appender();
+	private final Rerecorder m_rerecorder = new Rerecorder();
+	private ByteBuffer m_buffer;
+	private GlobalInfo[] m_attached = new GlobalInfo[16];
+	private int m_next;
+
+	/**
+	 * Construct an arena with the specified initial capacity.
+	 * 
+	 * @param capacity
+	 *          The initial capacity in bytes.
+	 * @param direct
+	 *          True if the buffer should be allocated outside of the heap.
+	 */
+	public RecordArena(int capacity, boolean direct) {
+		m_direct = direct;
+		m_buffer = allocate(Math.max(capacity, 64));
+	}
+
+	/**
+	 * Start recording an artifact. The artifact is written with the properties
+	 * it already has and the arena is attached as its recorder, so that every
+	 * property set from now on is appended.
+	 * 
+	 * @param info
+	 *          The artifact to record.
+	 * @param parentRef
+	 *          The reference of the parent or -1 if the artifact is a root.
+	 * @return the reference of the artifact within the arena.
+	 */
+	public int begin(GlobalInfo info, int parentRef) {
+		final int ref = append(info, parentRef);
+		if (ref >= m_attached.length) {
+			final GlobalInfo[] grown = new GlobalInfo[Math.max(ref + 1, m_attached.length * 2)];
+			System.arraycopy(m_attached, 0, grown, 0, m_attached.length);
+			m_attached = grown;
+		}
+		m_attached[ref] = info;
+		info.setRecorder(this, ref);
+
+		return ref;
+	}
+
+	/**
+	 * Return the number of bytes that have been recorded.
+	 * 
+	 * @return the size of the records.
+	 */
+	public int byteCount() {
+		return m_buffer.position();
+	}
+
+	/**
+	 * Discard all records so the arena can be used for a new session. The arena
+	 * is detached from every artifact that was begun and not finished, so that
+	 * properties set on them later are not taken for part of the next session.
+	 */
+	public void clear() {
+		for (int i = 0; i < m_next && i < m_attached.length; i++) {
+			if (m_attached[i] != null) {
+				m_attached[i].setRecorder(null, 0);
+				m_attached[i] = null;
+			}
+		}
+		m_buffer.clear();
+		m_next = 0;
+	}
+
+	/**
+	 * Finish recording an execution artifact. Array and collection properties
+	 * are recorded again and the arena is detached from the artifact. Children
+	 * the artifact holds itself are written with all of their descendants. These
+	 * are its summary, if it has one, and the artifacts added by tasks that ran
+	 * on other threads.
+	 * 
+	 * @param info
+	 *          The completed artifact.
+	 * @param ref
+	 *          The reference returned when the artifact was begun.
+	 */
+	public void finish(ExecInfo info, int ref) {
+		m_rerecorder.m_ref = ref;
+		try {
+			info.visitAttributes(m_rerecorder);
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		appendChildren(info, ref);
+
+		info.setRecorder(null, 0);
+		if (ref < m_attached.length) {
+			m_attached[ref] = null;
+		}
+	}
+
+	/**
+	 * @see org.addsimplicity.anicetus.entity.AttributeRecorder#recordBoolean(int,
+	 *      java.lang.String, boolean)
+	 */
+	public void recordBoolean(int ref, String key, boolean value) {
+		startAttribute(ref, key, 2);
+		m_buffer.put(s_BOOLEAN);
+		m_buffer.put(value ? (byte) 1 : (byte) 0);
+	}
+
+	/**
+	 * @see org.addsimplicity.anicetus.entity.AttributeRecorder#recordDouble(int,
+	 *      java.lang.String, double)
+	 */
+	public void recordDouble(int ref, String key, double value) {
+		startAttribute(ref, key, 9);
+		m_buffer.put(s_DOUBLE);
+		m_buffer.putDouble(value);
+	}
+
+	/**
+	 * @see org.addsimplicity.anicetus.entity.AttributeRecorder#recordInt(int,
+	 *      java.lang.String, int)
+	 */
+	public void recordInt(int ref, String key, int value) {
+		startAttribute(ref, key, 5);
+		m_buffer.put(s_INT);
+		m_buffer.putInt(value);
+	}
+
+	/**
+	 * @see org.addsimplicity.anicetus.entity.AttributeRecorder#recordLong(int,
+	 *      java.lang.String, long)
+	 */
+	public void recordLong(int ref, String key, long value) {
+		startAttribute(ref, key, 9);
+		m_buffer.put(s_LONG);
+		m_buffer.putLong(value);
+	}
+
+	/**
+	 * @see org.addsimplicity.anicetus.entity.AttributeRecorder#recordObject(int,
+	 *      java.lang.String, java.lang.Object)
+	 */
+	public void recordObject(int ref, String key, Object value) {
+		startAttribute(ref, key, 0);
+		writeValue(value);
+	}
+
+	/**
+	 * Return a view of the records written so far. The view shares the arena's
+	 * storage and is only valid until the arena is next written or cleared.
+	 * 
+	 * @return a buffer positioned at the first record and limited to the last.
+	 */
+	public ByteBuffer records() {
+		final ByteBuffer records = m_buffer.duplicate();
+		records.flip();
+
+		return records;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return m_direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private int append(GlobalInfo info, int parentRef) {
+		final int ref = m_next++;
+		final String type = EntityTypeRegistry.getShortName(info);
+
+		ensure(9);
+		m_buffer.put(s_START);
+		m_buffer.putInt(ref);
+		m_buffer.putInt(parentRef);
+		writeString(type != null ? type : info.getClass().getName());
+
+		m_appender.m_ref = ref;
+		try {
+			info.visitAttributes(m_appender);
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return ref;
+	}
+
+	private void appendChildren(ExecInfo info, int ref) {
+		for (GlobalInfo child : info.getChildren()) {
+			final int childRef = append(child, ref);
+			if (child instanceof ExecInfo) {
+				appendChildren((ExecInfo) child, childRef);
+			}
+		}
+	}
+
+	private void ensure(int bytes) {
+		if (m_buffer.remaining() >= bytes) {
+			return;
+		}
+
+		final ByteBuffer grown = allocate(Math.max(m_buffer.capacity() * 2, m_buffer.position() + bytes));
+		grown.order(m_buffer.order());
+		m_buffer.flip();
+		grown.put(m_buffer);
+		m_buffer = grown;
+	}
+
+	private void startAttribute(int ref, String key, int valueBytes) {
+		ensure(5);
+		m_buffer.put(s_ATTRIBUTE);
+		m_buffer.putInt(ref);
+		writeString(key);
+		ensure(valueBytes);
+	}
+
+	private void writeString(String value) {
+		final int length = value.length();
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				bytes += 1;
+			}
+			else if (c < 0x800) {
+				bytes += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			}
+			else {
+				bytes += 3;
+			}
+		}
+
+		ensure(4 + bytes);
+		m_buffer.putInt(bytes);
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				m_buffer.put((byte) c);
+			}
+			else if (c < 0x800) {
+				m_buffer.put((byte) (0xC0 | (c >> 6)));
+				m_buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(++i));
+				m_buffer.put((byte) (0xF0 | (cp >> 18)));
+				m_buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				m_buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				m_buffer.put((byte) (0x80 | (cp & 0x3F)));
+			}
+			else {
+				m_buffer.put((byte) (0xE0 | (c >> 12)));
+				m_buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				m_buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private void writeValue(Object value) {
+		ensure(17);
+		if (value == null) {
+			m_buffer.put(s_NULL);
+		}
+		else if (value instanceof String) {
+			m_buffer.put(s_STRING);
+			writeString((String) value);
+		}
+		else if (value instanceof Long) {
+			m_buffer.put(s_LONG);
+			m_buffer.putLong(((Long) value).longValue());
+		}
+		else if (value instanceof Integer) {
+			m_buffer.put(s_INT);
+			m_buffer.putInt(((Integer) value).intValue());
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			m_buffer.put(s_DOUBLE);
+			m_buffer.putDouble(((Number) value).doubleValue());
+		}
+		else if (value instanceof Boolean) {
+			m_buffer.put(s_BOOLEAN);
+			m_buffer.put(((Boolean) value).booleanValue() ? (byte) 1 : (byte) 0);
+		}
+		else if (value instanceof UUID) {
+			m_buffer.put(s_UUID);
+			m_buffer.putLong(((UUID) value).getMostSignificantBits());
+			m_buffer.putLong(((UUID) value).getLeastSignificantBits());
+		}
+		else if (value instanceof CompletionStatus) {
+			m_buffer.put(s_STATUS);
+			m_buffer.put((byte) ((CompletionStatus) value).getAbbreviation());
+		}
+		else if (value instanceof Object[]) {
+			writeElements(value instanceof String[] ? s_STRINGS : s_ARRAY, Arrays
+					.asList((Object[]) value));
+		}
+		else if (value instanceof Set<?>) {
+			writeElements(s_SET, (Set<?>) value);
+		}
+		else if (value instanceof Collection<?>) {
+			writeElements(s_LIST, (Collection<?>) value);
+		}
+		else {
+			m_buffer.put(s_STRING);
+			writeString(value.toString());
+		}
+	}
+
+	private void writeElements(byte kind, Collection<?> elements) {
+		m_buffer.put(kind);
+		m_buffer.putInt(elements.size());
+		for (Object element : elements) {
+			writeValue(element);
+		}
+	}
+
+	/**
+	 * Writes every property of an artifact when it is appended, other than the
+	 * parent identifier, which is known from the start record.
+	 */
+	private final class Appender implements AttributeVisitor {
+		int m_ref;
+
+		public void visitBoolean(String key, boolean value) {
+			recordBoolean(m_ref, key, value);
+		}
+
+		public void visitDouble(String key, double value) {
+			recordDouble(m_ref, key, value);
+		}
+
+		public void visitInt(String key, int value) {
+			recordInt(m_ref, key, value);
+		}
+
+		public void visitLong(String key, long value) {
+			recordLong(m_ref, key, value);
+		}
+
+		public void visitObject(String key, Object value) {
+			if (!s_PARENT_ID.equals(key)) {
+				recordObject(m_ref, key, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes the array and collection properties of a finished artifact again.
+	 */
+	private final class Rerecorder implements AttributeVisitor {
+		int m_ref;
+
+		public void visitBoolean(String key, boolean value) {
+		}
+
+		public void visitDouble(String key, double value) {
+		}
+
+		public void visitInt(String key, int value) {
+		}
+
+		public void visitLong(String key, long value) {
+		}
+
+		public void visitObject(String key, Object value) {
+			if (value instanceof Object[] || value instanceof Collection<?>) {
+				recordObject(m_ref, key, value);
+			}
+		}
+	}
+}
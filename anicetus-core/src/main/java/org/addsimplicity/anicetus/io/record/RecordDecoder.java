@@ -0,0 +1,216 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.record;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryContainer;
+import org.addsimplicity.anicetus.entity.TelemetryState;
+import org.addsimplicity.anicetus.io.ExceptionHandler;
+import org.addsimplicity.anicetus.io.SystemErrorExceptionHandler;
+
+/**
+ * The record decoder rebuilds the artifact tree from the records of a
+ * RecordArena. Artifacts are created from the type named in their start
+ * record, either a registered short name or a class name, and are added to
+ * their parent as they are started. A type that can not be resolved is
+ * reported to the exception handler and decoded as a TelemetryState.
+ * 
+ * The first root artifact in the records is returned. Records for artifacts
+ * that have no parent in the arena, other than the first, are ignored.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.io.record.RecordArena
+ * 
+ */
+public class RecordDecoder {
+	private static final Charset s_UTF8 = Charset.forName("UTF-8");
+
+	private ExceptionHandler m_exceptionHandler = new SystemErrorExceptionHandler();
+
+	/**
+	 * Decode the records into the tree of artifacts. The position of the buffer
+	 * is not changed.
+	 * 
+	 * @param records
+	 *          The records, from the position to the limit of the buffer.
+	 * @return the root artifact or null if there are no records.
+	 */
+	public GlobalInfo decode(ByteBuffer records) {
+		final ByteBuffer in = records.duplicate();
+		in.order(records.order());
+
+		final List<GlobalInfo> artifacts = new ArrayList<GlobalInfo>();
+		GlobalInfo root = null;
+
+		while (in.hasRemaining()) {
+			final byte tag = in.get();
+			final int ref = in.getInt();
+
+			if (tag == RecordArena.s_START) {
+				final int parentRef = in.getInt();
+				final GlobalInfo artifact = newArtifact(readString(in));
+				artifacts.add(artifact);
+
+				if (parentRef >= 0) {
+					final GlobalInfo parent = artifacts.get(parentRef);
+					if (parent instanceof TelemetryContainer) {
+						((TelemetryContainer) parent).addChild(artifact);
+					}
+					else {
+						artifact.setParentId(parent.getEntityId());
+					}
+				}
+				else if (root == null) {
+					root = artifact;
+				}
+			}
+			else if (tag == RecordArena.s_ATTRIBUTE) {
+				putValue(artifacts.get(ref), readString(in), in);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown record tag " + tag);
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Return the exception handler used to report types that can not be
+	 * resolved.
+	 * 
+	 * @return the exception handler.
+	 */
+	public ExceptionHandler getExceptionHandler() {
+		return m_exceptionHandler;
+	}
+
+	/**
+	 * Set the exception handler used to report types that can not be resolved.
+	 * 
+	 * @param exceptionHandler
+	 *          The exception handler.
+	 */
+	public void setExceptionHandler(ExceptionHandler exceptionHandler) {
+		m_exceptionHandler = exceptionHandler;
+	}
+
+	private GlobalInfo newArtifact(String type) {
+		Class<?> cls = EntityTypeRegistry.getClassFromName(type);
+		try {
+			if (cls == null) {
+				cls = Class.forName(type);
+			}
+
+			return (GlobalInfo) cls.getConstructor().newInstance();
+		}
+		catch (final Exception e) {
+			m_exceptionHandler.exceptionCaught(e);
+			return new TelemetryState();
+		}
+	}
+
+	private void putValue(GlobalInfo artifact, String key, ByteBuffer in) {
+		final byte kind = in.get();
+		if (kind == RecordArena.s_LONG) {
+			artifact.putLong(key, in.getLong());
+		}
+		else if (kind == RecordArena.s_INT) {
+			artifact.putInt(key, in.getInt());
+		}
+		else if (kind == RecordArena.s_DOUBLE) {
+			artifact.putDouble(key, in.getDouble());
+		}
+		else if (kind == RecordArena.s_BOOLEAN) {
+			artifact.putBoolean(key, in.get() != 0);
+		}
+		else {
+			artifact.put(key, readValue(kind, in));
+		}
+	}
+
+	private static <C extends Collection<Object>> C readElements(ByteBuffer in,
+			C elements) {
+		final int count = in.getInt();
+		for (int i = 0; i < count; i++) {
+			elements.add(readValue(in.get(), in));
+		}
+
+		return elements;
+	}
+
+	private static String readString(ByteBuffer in) {
+		final int length = in.getInt();
+		final ByteBuffer bytes = in.slice();
+		bytes.limit(length);
+		in.position(in.position() + length);
+
+		return s_UTF8.decode(bytes).toString();
+	}
+
+	private static Object readValue(byte kind, ByteBuffer in) {
+		if (kind == RecordArena.s_NULL) {
+			return null;
+		}
+		else if (kind == RecordArena.s_STRING) {
+			return readString(in);
+		}
+		else if (kind == RecordArena.s_LONG) {
+			return in.getLong();
+		}
+		else if (kind == RecordArena.s_INT) {
+			return in.getInt();
+		}
+		else if (kind == RecordArena.s_DOUBLE) {
+			return in.getDouble();
+		}
+		else if (kind == RecordArena.s_BOOLEAN) {
+			return in.get() != 0;
+		}
+		else if (kind == RecordArena.s_UUID) {
+			return new UUID(in.getLong(), in.getLong());
+		}
+		else if (kind == RecordArena.s_STATUS) {
+			return CompletionStatus.fromAbbreviation((char) in.get());
+		}
+		else if (kind == RecordArena.s_ARRAY) {
+			return readElements(in, new ArrayList<Object>()).toArray();
+		}
+		else if (kind == RecordArena.s_STRINGS) {
+			final List<Object> elements = readElements(in, new ArrayList<Object>());
+			return elements.toArray(new String[elements.size()]);
+		}
+		else if (kind == RecordArena.s_LIST) {
+			return readElements(in, new ArrayList<Object>());
+		}
+		else if (kind == RecordArena.s_SET) {
+			return readElements(in, new LinkedHashSet<Object>());
+		}
+
+		throw new IllegalArgumentException("Unknown value tag " + kind);
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.io.record;
+
+import java.nio.ByteBuffer;
+
+import org.addsimplicity.anicetus.io.DeliveryAdapter;
+
+/**
+ * A RecordDeliveryAdapter accepts a session in the binary record format of a
+ * RecordArena. When the telemetry context is recording, completed sessions are
+ * handed to sendRecords rather than being rebuilt into artifacts. Beacons are
+ * still sent with sendTelemetry.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#setRecording(boolean)
+ * @see org.addsimplicity.anicetus.io.record.RecordDecoder
+ * 
+ */
+public interface RecordDeliveryAdapter extends DeliveryAdapter {
+	/**
+	 * Send the records of a completed session. The buffer belongs to the
+	 * recording thread and is reused for its next session, so the adapter must
+	 * consume or copy the records before this method returns.
+	 * 
+	 * @param records
+	 *          The records, from the position to the limit of the buffer.
+	 */
+	void sendRecords(ByteBuffer records);
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.sampling;
+
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetrySummary;
+
+/**
+ * The outcome sampler keeps every session that is interesting and a fraction
+ * of the rest. A session is interesting if it ran longer than the latency
+ * threshold, if it or any of its children failed, or if any artifact in the
+ * tree carries a message, which is where exceptions are recorded. A summary
+ * that counted a failure makes a session interesting too, since the children
+ * it stands for are no longer in the tree. Sessions that are healthy and fast
+ * are kept with the configured probability, which is recorded on the session as
+ * its sample rate.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class OutcomeSampler implements TailSampler {
+	private final ProbabilitySampler m_healthySampler = new ProbabilitySampler(0.1);
+	private long m_latencyThreshold = 1000;
+	private boolean m_keepMessages = true;
+
+	/**
+	 * Get the fraction of healthy, fast sessions that are kept.
+	 * 
+	 * @return the healthy sample rate.
+	 */
+	public double getHealthyRate() {
+		return m_healthySampler.getRate();
+	}
+
+	/**
+	 * Get the latency threshold in milliseconds. Sessions that take at least this
+	 * long are always kept.
+	 * 
+	 * @return the latency threshold in milliseconds.
+	 */
+	public long getLatencyThreshold() {
+		return m_latencyThreshold;
+	}
+
+	/**
+	 * Return true if sessions containing any message are always kept.
+	 * 
+	 * @return true if messages make a session interesting.
+	 */
+	public boolean isKeepMessages() {
+		return m_keepMessages;
+	}
+
+	/**
+	 * Keep the session if it is slow or troubled, otherwise sample it at the
+	 * healthy rate.
+	 * 
+	 * @param session
+	 *          The completed session.
+	 * @return true if the session should be delivered.
+	 * @see org.addsimplicity.anicetus.sampling.TailSampler#keepSession(org.addsimplicity.anicetus.entity.TelemetrySession)
+	 */
+	public boolean keepSession(TelemetrySession session) {
+		if (session.getDuration() >= m_latencyThreshold * 1000000L) {
+			return true;
+		}
+
+		if (isTroubled(session)) {
+			return true;
+		}
+
+		if (m_healthySampler.sampleSession(session.getOperationName())) {
+			session.setSampleRate(session.getSampleRate() * m_healthySampler.getRate());
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Set the fraction of healthy, fast sessions that are kept. The default is
+	 * one in ten.
+	 * 
+	 * @param rate
+	 *          The healthy sample rate, between 0 and 1.
+	 */
+	public void setHealthyRate(double rate) {
+		m_healthySampler.setRate(rate);
+	}
+
+	/**
+	 * Set whether a message anywhere in the tree makes a session interesting. The
+	 * default is true.
+	 * 
+	 * @param keepMessages
+	 *          True to keep sessions that carry messages.
+	 */
+	public void setKeepMessages(boolean keepMessages) {
+		m_keepMessages = keepMessages;
+	}
+
+	/**
+	 * Set the latency threshold in milliseconds. The default is one second.
+	 * 
+	 * @param latencyThreshold
+	 *          The latency threshold in milliseconds.
+	 */
+	public void setLatencyThreshold(long latencyThreshold) {
+		m_latencyThreshold = latencyThreshold;
+	}
+
+	private boolean isTroubled(GlobalInfo info) {
+		if (m_keepMessages && info.getMessage() != null) {
+			return true;
+		}
+
+		if (info instanceof TelemetrySummary) {
+			return ((TelemetrySummary) info).getFailureCount() > 0;
+		}
+
+		if (info instanceof ExecInfo) {
+			final ExecInfo exec = (ExecInfo) info;
+			if (exec.getStatus() == CompletionStatus.Failure) {
+				return true;
+			}
+
+			for (GlobalInfo child : exec.getChildren()) {
+				if (isTroubled(child)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+}
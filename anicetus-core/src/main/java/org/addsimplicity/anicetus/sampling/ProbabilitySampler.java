@@ -0,0 +1,90 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.sampling;
+
+import java.util.Random;
+
+/**
+ * The probability sampler captures a fixed fraction of sessions, chosen at
+ * random. Each thread uses its own random number generator so the sampler does
+ * not introduce contention between threads.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class ProbabilitySampler implements SessionSampler {
+	private static final ThreadLocal<Random> s_random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	private double m_rate = 1.0;
+
+	/**
+	 * Construct a sampler that captures every session.
+	 */
+	public ProbabilitySampler() {
+	}
+
+	/**
+	 * Construct a sampler that captures the specified fraction of sessions.
+	 * 
+	 * @param rate
+	 *          The fraction of sessions to capture, between 0 and 1.
+	 */
+	public ProbabilitySampler(double rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Get the fraction of sessions that are captured.
+	 * 
+	 * @return the sample rate.
+	 */
+	public double getRate() {
+		return m_rate;
+	}
+
+	/**
+	 * Capture the session with a probability equal to the sample rate.
+	 * 
+	 * @param operationName
+	 *          The operation name, which is not used by this sampler.
+	 * @return true if the session should be captured.
+	 * @see org.addsimplicity.anicetus.sampling.SessionSampler#sampleSession(java.lang.String)
+	 */
+	public boolean sampleSession(String operationName) {
+		if (m_rate >= 1.0) {
+			return true;
+		}
+
+		return s_random.get().nextDouble() < m_rate;
+	}
+
+	/**
+	 * Set the fraction of sessions that are captured. Values outside of the range
+	 * 0 to 1 are clamped.
+	 * 
+	 * @param rate
+	 *          The sample rate.
+	 */
+	public void setRate(double rate) {
+		m_rate = Math.max(0.0, Math.min(1.0, rate));
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.sampling;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+
+/**
+ * The rate limiting sampler holds each operation to a budget of delivered
+ * sessions per second. Sessions are grouped by the operation name of the
+ * session, or by the resource of its first transaction when the session has no
+ * operation name. A few busy operations therefore cannot crowd out the rare
+ * ones.
+ * 
+ * Each operation tracks its arrival rate and continuously adjusts the
+ * probability with which its sessions are kept so that, on average, the budget
+ * is met. A token bucket with a capacity of one second of budget caps bursts.
+ * The probability a session was kept with is recorded on it as its sample rate
+ * so that downstream aggregates can be re-weighted. That probability is the
+ * adjusted probability times the share of sessions the token bucket has
+ * accepted so far in the current window. The share is only known for the
+ * sessions seen so far, so sessions kept at the front of a burst are recorded
+ * with a rate that is too high, and re-weighted counts are a lower bound until
+ * the bucket stops rejecting sessions. All of the bookkeeping is done with
+ * atomic operations, so threads never block on the sampler.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * 
+ */
+public class RateLimitingSampler implements TailSampler {
+	private static final long s_WINDOW_NANOS = 1000000000L;
+	private static final long s_TOKEN_SCALE = 1000L;
+	private static final String s_OVERFLOW_KEY = "";
+
+	private static final ThreadLocal<Random> s_random = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * The budget and arrival statistics for one operation.
+	 */
+	private final class OperationBudget {
+		private final AtomicLong m_windowStart = new AtomicLong(System.nanoTime());
+		private final AtomicLong m_arrivals = new AtomicLong();
+		private final AtomicLong m_offered = new AtomicLong();
+		private final AtomicLong m_accepted = new AtomicLong();
+		private final AtomicLong m_lastRefill = new AtomicLong(System.nanoTime());
+		private final AtomicLong m_tokens = new AtomicLong(capacity());
+		private volatile double m_probability = 1.0;
+
+		/**
+		 * Record an arrival and decide whether it is kept.
+		 * 
+		 * @return the probability the session was kept with, including the share
+		 *         of sessions accepted by the token bucket in this window, or zero
+		 *         if it was dropped.
+		 */
+		double arrive() {
+			final long now = System.nanoTime();
+			m_arrivals.incrementAndGet();
+			adjust(now);
+
+			final double p = m_probability;
+			if (p < 1.0 && s_random.get().nextDouble() >= p) {
+				return 0.0;
+			}
+
+			final long offered = m_offered.incrementAndGet();
+			if (!takeToken(now)) {
+				return 0.0;
+			}
+
+			final long accepted = m_accepted.incrementAndGet();
+
+			return offered > accepted ? p * accepted / offered : p;
+		}
+
+		private void adjust(long now) {
+			final long start = m_windowStart.get();
+			final long elapsed = now - start;
+			if (elapsed < s_WINDOW_NANOS || !m_windowStart.compareAndSet(start, now)) {
+				return;
+			}
+
+			final long arrivals = m_arrivals.getAndSet(0);
+			m_offered.set(0);
+			m_accepted.set(0);
+			final double rate = arrivals * (double) s_WINDOW_NANOS / elapsed;
+			m_probability = rate <= m_sessionsPerSecond ? 1.0 : m_sessionsPerSecond / rate;
+		}
+
+		private long capacity() {
+			return (long) (m_sessionsPerSecond * s_TOKEN_SCALE);
+		}
+
+		private boolean takeToken(long now) {
+			final long last = m_lastRefill.get();
+			final long refill = (long) ((now - last) * m_sessionsPerSecond * s_TOKEN_SCALE / s_WINDOW_NANOS);
+			if (refill > 0 && m_lastRefill.compareAndSet(last, now)) {
+				long tokens;
+				do {
+					tokens = m_tokens.get();
+				}
+				while (!m_tokens.compareAndSet(tokens, Math.min(capacity(), tokens + refill)));
+			}
+
+			long tokens;
+			do {
+				tokens = m_tokens.get();
+				if (tokens < s_TOKEN_SCALE) {
+					return false;
+				}
+			}
+			while (!m_tokens.compareAndSet(tokens, tokens - s_TOKEN_SCALE));
+
+			return true;
+		}
+	}
+
+	private final ConcurrentMap<String, OperationBudget> m_budgets = new ConcurrentHashMap<String, OperationBudget>();
+	private double m_sessionsPerSecond = 10.0;
+	private int m_maxOperations = 1000;
+
+	/**
+	 * Get the maximum number of operations that are tracked individually.
+	 * 
+	 * @return the maximum number of operations.
+	 */
+	public int getMaxOperations() {
+		return m_maxOperations;
+	}
+
+	/**
+	 * Get the budget of sessions per second for each operation.
+	 * 
+	 * @return the per operation budget.
+	 */
+	public double getSessionsPerSecond() {
+		return m_sessionsPerSecond;
+	}
+
+	/**
+	 * Keep the session if its operation is within budget. The probability the
+	 * session was kept with is multiplied into the session sample rate.
+	 * 
+	 * @param session
+	 *          The completed session.
+	 * @return true if the session should be delivered.
+	 * @see org.addsimplicity.anicetus.sampling.TailSampler#keepSession(org.addsimplicity.anicetus.entity.TelemetrySession)
+	 */
+	public boolean keepSession(TelemetrySession session) {
+		final double p = getBudget(getKey(session)).arrive();
+		if (p <= 0.0) {
+			return false;
+		}
+
+		session.setSampleRate(session.getSampleRate() * p);
+
+		return true;
+	}
+
+	/**
+	 * Set the maximum number of operations that are tracked individually.
+	 * Operations seen after the limit is reached share a single budget. The
+	 * default is 1000.
+	 * 
+	 * @param maxOperations
+	 *          The maximum number of operations.
+	 */
+	public void setMaxOperations(int maxOperations) {
+		m_maxOperations = maxOperations;
+	}
+
+	/**
+	 * Set the budget of sessions per second for each operation. The default is
+	 * ten. This should be set before the sampler is used.
+	 * 
+	 * @param sessionsPerSecond
+	 *          The per operation budget.
+	 */
+	public void setSessionsPerSecond(double sessionsPerSecond) {
+		m_sessionsPerSecond = sessionsPerSecond;
+	}
+
+	private OperationBudget getBudget(String key) {
+		OperationBudget budget = m_budgets.get(key);
+		if (budget == null) {
+			if (m_budgets.size() >= m_maxOperations) {
+				key = s_OVERFLOW_KEY;
+				budget = m_budgets.get(key);
+				if (budget != null) {
+					return budget;
+				}
+			}
+
+			budget = new OperationBudget();
+			final OperationBudget prior = m_budgets.putIfAbsent(key, budget);
+			if (prior != null) {
+				budget = prior;
+			}
+		}
+
+		return budget;
+	}
+
+	private String getKey(TelemetrySession session) {
+		final String operation = session.getOperationName();
+		if (operation != null) {
+			return operation;
+		}
+
+		for (GlobalInfo child : session.getChildren()) {
+			if (child instanceof TelemetryTransaction) {
+				final String resource = ((TelemetryTransaction) child).getResourceId();
+				if (resource != null) {
+					return resource;
+				}
+			}
+		}
+
+		return s_OVERFLOW_KEY;
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.sampling;
+
+/**
+ * A session sampler decides, as a session starts, whether the session will be
+ * captured. Sessions that are not sampled are never built or delivered, which
+ * makes the decision a cheap way to limit the telemetry volume of busy
+ * applications. Samplers are shared by every thread using a context and must be
+ * thread safe.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#setSessionSampler(SessionSampler)
+ * 
+ */
+public interface SessionSampler {
+	/**
+	 * Decide whether the session that is about to start should be captured.
+	 * 
+	 * @param operationName
+	 *          The operation name of the context starting the session.
+	 * @return true if the session should be captured.
+	 */
+	boolean sampleSession(String operationName);
+}
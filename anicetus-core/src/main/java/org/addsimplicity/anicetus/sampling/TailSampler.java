@@ -0,0 +1,40 @@
+/**
+ * Copyright 2008-2009 Dan Pritchett
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ */
+package org.addsimplicity.anicetus.sampling;
+
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+
+/**
+ * A tail sampler decides, after a session has completed, whether the session
+ * will be delivered. Because the whole tree is available, the decision can be
+ * based on the outcome of the session rather than chance alone. Samplers are
+ * shared by every thread using a context and must be thread safe.
+ * 
+ * @author Dan Pritchett (driveawedge@yahoo.com)
+ * @see org.addsimplicity.anicetus.TelemetryContext#setTailSampler(TailSampler)
+ * 
+ */
+public interface TailSampler {
+	/**
+	 * Decide whether a completed session should be delivered.
+	 * 
+	 * @param session
+	 *          The completed session, including all of its children.
+	 * @return true if the session should be delivered.
+	 */
+	boolean keepSession(TelemetrySession session);
+}
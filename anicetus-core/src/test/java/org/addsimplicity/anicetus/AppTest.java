@@ -2,9 +2,19 @@ package org.addsimplicity.anicetus;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.addsimplicity.anicetus.entity.CompletionStatus;
 import org.addsimplicity.anicetus.entity.ExecInfo;
@@ -14,6 +24,10 @@ import org.addsimplicity.anicetus.entity.GlobalInfoFields;
 import org.addsimplicity.anicetus.entity.JsonConstants;
 import org.addsimplicity.anicetus.entity.TelemetryTransaction;
 import org.addsimplicity.anicetus.entity.TransactionFields;
+import org.addsimplicity.anicetus.io.DeliveryAdapter;
+import org.addsimplicity.anicetus.io.ExceptionHandler;
+import org.addsimplicity.anicetus.io.SynchronousDelivery;
+import org.addsimplicity.anicetus.sampling.ProbabilitySampler;
 import org.codehaus.jackson.JsonNode;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,6 +38,14 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
  * Unit test for simple App.
  */
 public class AppTest {
+	static class DiscardingAdapter implements DeliveryAdapter, SynchronousDelivery {
+		public void sendTelemetry(GlobalInfo telemetry) {
+		}
+
+		public void setExceptionHandler(ExceptionHandler handler) {
+		}
+	}
+
 	TelemetryContext m_mgr;
 	InMemoryAdapter m_adapter;
 	ApplicationContext m_context;
@@ -38,6 +60,313 @@ public class AppTest {
 		m_adapter = (InMemoryAdapter) m_context.getBean("stream");
 	}
 
+	@Test
+	public void testThreadConfined() throws Exception {
+		m_adapter.clear();
+
+		final TelemetryContext mgr = (TelemetryContext) m_context
+				.getBean("confinedManager");
+		Thread threads[] = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final String resource = "thread:" + i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int s = 0; s < 10; s++) {
+						mgr.beginTransaction(resource);
+						mgr.newEvent("testType");
+						mgr.endTransaction();
+						mgr.endSession();
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		List<JsonNode> nodes = m_adapter.getAllObjects();
+		assertEquals("Session Count", 40, nodes.size());
+
+		for (JsonNode node : nodes) {
+			JsonNode childs = node.get("child");
+			assertEquals("Length", 1, childs.size());
+			assertEquals("Grandchildren", 1, childs.get(0).get("child").size());
+		}
+	}
+
+	@Test
+	public void testContextPropagation() throws Exception {
+		m_adapter.clear();
+
+		final TelemetryContext mgr = (TelemetryContext) m_context
+				.getBean("confinedManager");
+		ExecutorService pool = mgr.wrap(Executors.newFixedThreadPool(2));
+
+		mgr.beginTransaction("parent");
+
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < 3; i++) {
+			results.add(pool.submit(new Callable<String>() {
+				public String call() throws Exception {
+					mgr.beginTransaction("child");
+					mgr.newEvent("testType");
+					return mgr.peekTransaction().getParentId().toString();
+				}
+			}));
+		}
+
+		String parentId = mgr.peekTransaction().getEntityId().toString();
+		for (Future<String> f : results) {
+			assertEquals("Parent", parentId, f.get());
+		}
+		assertTrue("Shared", mgr.peekTransaction().isShared());
+		assertTrue("Session Not Shared", !mgr.getSession().isShared());
+		pool.shutdown();
+
+		mgr.endTransaction();
+		mgr.endSession();
+
+		JsonNode node = m_adapter.getObjectGraph();
+		JsonNode childs = node.get("child");
+		assertEquals("Length", 1, childs.size());
+
+		JsonNode grand = childs.get(0).get("child");
+		assertEquals("Grandchildren", 3, grand.size());
+		for (int i = 0; i < grand.size(); i++) {
+			assertEquals("Resource", "child",
+					grand.get(i).get(TransactionFields.ResourceId.getJsonKey())
+							.getTextValue());
+			assertEquals("Status", CompletionStatus.Unknown.toString(), grand
+					.get(i).get(ExecInfoFields.Status.getJsonKey())
+					.getTextValue());
+		}
+	}
+
+	@Test
+	public void testHandoffLimits() throws Exception {
+		final List<GlobalInfo> sent = new ArrayList<GlobalInfo>();
+		final TelemetryContext mgr = newConfinedContext(sent);
+		mgr.setMaxDepth(1);
+		ExecutorService pool = mgr.wrap(Executors.newSingleThreadExecutor());
+
+		final ExecInfo session = mgr.getSession();
+		TelemetryTransaction parent = mgr.beginTransaction("parent");
+		pool.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				assertSame("Session", session, mgr.getSession());
+				mgr.beginTransaction("child");
+				mgr.endSession();
+				mgr.endTransaction();
+				return null;
+			}
+		}).get();
+		assertSame("Parent", parent, mgr.peekTransaction());
+		pool.shutdown();
+
+		mgr.endTransaction();
+		mgr.endSession();
+
+		assertEquals("Session Count", 1, sent.size());
+		ExecInfo trans = (ExecInfo) ((ExecInfo) sent.get(0)).getChildren()
+				.iterator().next();
+		assertEquals("Summarized", 1, trans.getChildCount());
+		assertEquals("Summary", 1L, trans.getSummary().getCount());
+	}
+
+	@Test
+	public void testHandoffRecording() throws Exception {
+		final List<GlobalInfo> sent = new ArrayList<GlobalInfo>();
+		final TelemetryContext mgr = newConfinedContext(sent);
+		mgr.setRecording(true);
+		ExecutorService pool = mgr.wrap(Executors.newSingleThreadExecutor());
+
+		mgr.beginTransaction("parent");
+		pool.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				mgr.beginTransaction("child").putLong("rows", 3L);
+				mgr.newEvent("testType");
+				return null;
+			}
+		}).get();
+		pool.shutdown();
+		mgr.endTransaction();
+		mgr.endSession();
+
+		assertEquals("Session Count", 1, sent.size());
+		ExecInfo parent = (ExecInfo) ((ExecInfo) sent.get(0)).getChildren()
+				.iterator().next();
+		assertEquals("Children", 1, parent.getChildCount());
+		TelemetryTransaction child = (TelemetryTransaction) parent.getChildren()
+				.iterator().next();
+		assertEquals("Resource", "child", child.getResourceId());
+		assertEquals("Rows", 3L, child.getLong("rows"));
+		assertEquals("Parent", parent.getEntityId(), child.getParentId());
+		assertEquals("Event", 1, child.getChildCount());
+	}
+
+	@Test
+	public void testHandoffUnsampled() throws Exception {
+		final List<GlobalInfo> sent = new ArrayList<GlobalInfo>();
+		final TelemetryContext mgr = newConfinedContext(sent);
+		mgr.setSessionSampler(new ProbabilitySampler(0.0));
+		ExecutorService pool = mgr.wrap(Executors.newSingleThreadExecutor());
+
+		mgr.beginTransaction("parent");
+		TelemetryTransaction child = pool.submit(
+				new Callable<TelemetryTransaction>() {
+					public TelemetryTransaction call() throws Exception {
+						return mgr.beginTransaction("child");
+					}
+				}).get();
+		pool.shutdown();
+		mgr.endSession();
+
+		assertTrue("Sampled", !child.isSampled());
+		assertEquals("Session Count", 0, sent.size());
+	}
+
+	@Test
+	public void testPooling() throws Exception {
+		m_adapter.clear();
+
+		TelemetryContext mgr = (TelemetryContext) m_context
+				.getBean("pooledManager");
+
+		ExecInfo session = mgr.getSession();
+		TelemetryTransaction trans = mgr.beginTransaction("first");
+		trans.setStatus(CompletionStatus.Success);
+		mgr.endTransaction();
+		UUID firstId = trans.getEntityId();
+		mgr.endSession();
+
+		assertSame("Session Reused", session, mgr.getSession());
+		TelemetryTransaction next = mgr.beginTransaction("second");
+		mgr.endTransaction();
+		assertSame("Transaction Reused", trans, next);
+		assertTrue("New Identifier", !firstId.equals(next.getEntityId()));
+		assertEquals("Parent", session.getEntityId(), next.getParentId());
+		assertEquals("Status", CompletionStatus.Unknown, next.getStatus());
+		assertEquals("Children", 1, session.getChildren().size());
+		mgr.endSession();
+
+		List<JsonNode> nodes = m_adapter.getAllObjects();
+		assertEquals("Session Count", 2, nodes.size());
+		JsonNode child = nodes.get(1).get("child").get(0);
+		assertEquals("Resource", "second",
+				child.get(TransactionFields.ResourceId.getJsonKey()).getTextValue());
+	}
+
+	@Test
+	public void testPooledAllocation() throws Exception {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(bean.isThreadAllocatedMemorySupported()
+				&& bean.isThreadAllocatedMemoryEnabled());
+
+		TelemetryContext mgr = new TelemetryContext();
+		mgr.setOperationName("testName");
+		mgr.setPooling(true);
+		mgr.setDeliveryAdapter(new DiscardingAdapter());
+		mgr.afterPropertiesSet();
+
+		// The first round fills the pool. Each artifact is still given a new
+		// identifier, so a pair costs a little more than one UUID.
+		//
+		final int pairs = 10000;
+		final long thread = Thread.currentThread().getId();
+		long allocated = 0;
+		for (int round = 0; round < 2; round++) {
+			final long before = bean.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < pairs; i++) {
+				mgr.beginTransaction("test:url");
+				mgr.endTransaction();
+				if (i % 10 == 9) {
+					mgr.endSession();
+				}
+			}
+			allocated = bean.getThreadAllocatedBytes(thread) - before;
+		}
+
+		assertTrue("Allocated " + allocated, allocated / pairs < 64);
+	}
+
+	@Test
+	public void testBoundedSession() throws Exception {
+		m_adapter.clear();
+
+		TelemetryContext mgr = (TelemetryContext) m_context
+				.getBean("boundedManager");
+
+		for (int i = 0; i < 10; i++) {
+			TelemetryTransaction trans = mgr.beginTransaction("row:" + i);
+			trans.setStatus(i % 2 == 0 ? CompletionStatus.Success
+					: CompletionStatus.Failure);
+			mgr.beginTransaction("nested");
+			mgr.beginTransaction("deep");
+			mgr.endTransaction();
+			mgr.endTransaction();
+			mgr.endTransaction();
+		}
+		mgr.endSession();
+
+		List<JsonNode> nodes = m_adapter.getAllObjects();
+		assertEquals("Session Count", 1, nodes.size());
+
+		JsonNode childs = nodes.get(0).get("child");
+		assertEquals("Children", 4, childs.size());
+		JsonNode summary = childs.get(3);
+		assertEquals("Summary Type", "SU",
+				summary.get(JsonConstants.EntityType).getTextValue());
+		assertEquals("Count", 21, summary.get(JsonConstants.Count)
+				.getLongValue());
+		assertEquals("Success", 3, summary.get(JsonConstants.SuccessCount)
+				.getLongValue());
+		assertEquals("Failure", 4, summary.get(JsonConstants.FailureCount)
+				.getLongValue());
+
+		JsonNode nested = childs.get(0).get("child").get(0);
+		assertEquals("Depth", 1, nested.get("child").size());
+		assertEquals("Deep Summary", "SU", nested.get("child").get(0).get(
+				JsonConstants.EntityType).getTextValue());
+	}
+
+	@Test
+	public void testIncremental() throws Exception {
+		m_adapter.clear();
+
+		TelemetryContext mgr = (TelemetryContext) m_context
+				.getBean("incrementalManager");
+
+		String sessionId = mgr.getSession().getEntityId().toString();
+		TelemetryTransaction outer = mgr.beginTransaction("outer");
+		mgr.beginTransaction("inner");
+		mgr.newEvent("testType");
+		mgr.endTransaction();
+
+		List<JsonNode> nodes = m_adapter.getAllObjects();
+		assertEquals("Inner Delivered", 1, nodes.size());
+		assertEquals("Inner Parent", outer.getEntityId().toString(), nodes
+				.get(0).get(JsonConstants.ParentEntity).getTextValue());
+		assertEquals("Inner Event", 1, nodes.get(0).get("child").size());
+		assertTrue("Outer Empty", outer.getChildren().isEmpty());
+
+		mgr.endTransaction();
+		assertTrue("Session Empty", mgr.getSession().getChildren().isEmpty());
+		mgr.endSession();
+
+		nodes = m_adapter.getAllObjects();
+		assertEquals("Delivered", 3, nodes.size());
+		assertEquals("Outer Parent", sessionId, nodes.get(1).get(
+				JsonConstants.ParentEntity).getTextValue());
+		assertEquals("Session", "SE", nodes.get(2).get(
+				JsonConstants.EntityType).getTextValue());
+		assertTrue("Session Children", nodes.get(2).get("child") == null);
+	}
+
 	@Test
 	public void testMultiSession() throws Exception {
 		m_adapter.clear();
@@ -83,8 +412,8 @@ public class AppTest {
 
 		assertEquals("CompletionStatus", CompletionStatus.Success.toString(),
 				node.get(ExecInfoFields.Status.getJsonKey()).getTextValue());
-		int dur = Integer.parseInt(node.get(
-				ExecInfoFields.Duration.getJsonKey()).getTextValue());
+		long dur = node.get(ExecInfoFields.Duration.getJsonKey())
+				.getLongValue();
 		assertTrue("Duration", dur >= 5000000);
 		assertEquals("OperationName", m_mgr.getOperationName(),
 				node.get(ExecInfoFields.OperationName.getJsonKey())
@@ -170,4 +499,20 @@ public class AppTest {
 		assertEquals("Param b", "b", pnode.get(1).getTextValue());
 
 	}
+
+	private TelemetryContext newConfinedContext(final List<GlobalInfo> sent) {
+		TelemetryContext mgr = new TelemetryContext();
+		mgr.setOperationName("testName");
+		mgr.setThreadConfined(true);
+		mgr.setDeliveryAdapter(new DeliveryAdapter() {
+			public void sendTelemetry(GlobalInfo telemetry) {
+				sent.add(telemetry);
+			}
+
+			public void setExceptionHandler(ExceptionHandler handler) {
+			}
+		});
+
+		return mgr;
+	}
 }
@@ -15,6 +15,8 @@ import org.addsimplicity.anicetus.entity.TelemetryEvent;
 import org.addsimplicity.anicetus.entity.TelemetrySession;
 import org.addsimplicity.anicetus.entity.TelemetryState;
 import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.addsimplicity.anicetus.io.compress.LzBlockCodec;
+import org.addsimplicity.anicetus.io.jms.JsonMessageConverter;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.context.ApplicationContext;
@@ -34,6 +36,50 @@ public class JMSTest {
 		m_mgr = (TelemetryContext) m_context.getBean("manager");
 	}
 
+	@Test
+	public void testBytesMessage() throws Exception {
+		JsonMessageConverter conv = (JsonMessageConverter) m_context
+				.getBean("msgConv");
+		conv.setBytesMessage(true);
+
+		ExecInfo s = m_mgr.getSession();
+		TelemetryTransaction t = m_mgr.beginTransaction("test:uri");
+		t.setMessage("caf\u00e9");
+		m_mgr.endSession();
+
+		JmsTemplate tmpl = (JmsTemplate) m_context.getBean("consumeTempl");
+		Object obj = tmpl.receiveAndConvert();
+		assertTrue("Type", obj instanceof TelemetrySession);
+
+		ExecInfo rsess = (ExecInfo) obj;
+		assertEquals("EntityId", s.getEntityId(), rsess.getEntityId());
+
+		GlobalInfo ch = rsess.getChildren().iterator().next();
+		assertEquals("Message", "caf\u00e9", ch.getMessage());
+	}
+
+	@Test
+	public void testCompressedMessage() throws Exception {
+		JsonMessageConverter conv = (JsonMessageConverter) m_context
+				.getBean("msgConv");
+		conv.setBytesMessage(true);
+		conv.setBlockCodec(new LzBlockCodec());
+
+		ExecInfo s = m_mgr.getSession();
+		for (int i = 0; i < 10; i++) {
+			m_mgr.beginTransaction("test:uri").setMessage("repeated message");
+			m_mgr.endTransaction();
+		}
+		m_mgr.endSession();
+
+		JmsTemplate tmpl = (JmsTemplate) m_context.getBean("consumeTempl");
+		ExecInfo rsess = (ExecInfo) tmpl.receiveAndConvert();
+		assertEquals("EntityId", s.getEntityId(), rsess.getEntityId());
+		assertEquals("Children", 10, rsess.getChildCount());
+		assertEquals("Message", "repeated message", rsess.getChildren()
+				.iterator().next().getMessage());
+	}
+
 	@Test
 	public void testEventBeacon() throws Exception {
 		SubTypedInfo ev = new TelemetryEvent();
@@ -0,0 +1,155 @@
+package org.addsimplicity.anicetus.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.addsimplicity.anicetus.io.JsonEncoder;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+/**
+ * Tests of the telemetry entities.
+ */
+public class EntityTest {
+
+	@Test
+	public void testChildrenCopy() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		new TelemetryEvent(session);
+		assertSame("View", session.getChildren(), session.getChildren());
+
+		session.markShared();
+		Collection<GlobalInfo> children = session.getChildren();
+		Iterator<GlobalInfo> walk = children.iterator();
+		new TelemetryEvent(session);
+		assertNotNull("Iterated", walk.next());
+		assertEquals("Copy", 1, children.size());
+		assertEquals("Added", 2, session.getChildCount());
+
+		ExecInfo snap = session.snapshot();
+		assertSame("Fixed", snap.getChildren(), snap.getChildren());
+	}
+
+	@Test
+	public void testEntityIdOrder() throws Exception {
+		UUID last = new TelemetryEvent().getEntityId();
+		for (int i = 0; i < 10000; i++) {
+			UUID next = new TelemetryEvent().getEntityId();
+			assertTrue("Ordered", last.compareTo(next) < 0);
+			assertTrue("String Ordered",
+					last.toString().compareTo(next.toString()) < 0);
+			assertEquals("Version", 7, next.version());
+			assertEquals("Variant", 2, next.variant());
+			last = next;
+		}
+	}
+
+	@Test
+	public void testMapContract() throws Exception {
+		TelemetryTransaction trans = new TelemetryTransaction();
+		int base = trans.size();
+		assertTrue("Id Key", trans.containsKey(GlobalInfoFields.EntityId.name()));
+
+		trans.setResourceId("test:url");
+		trans.put("custom", "value");
+		trans.put(GlobalInfoFields.Message.name(), null);
+		assertEquals("Size", base + 3, trans.size());
+		assertTrue("Null Key", trans.containsKey(GlobalInfoFields.Message.name()));
+		assertEquals("Resource", "test:url", trans.get(TransactionFields.ResourceId.name()));
+		assertEquals("Custom", "value", trans.get("custom"));
+
+		int count = 0;
+		for (Map.Entry<String, Object> entry : trans.entrySet()) {
+			assertEquals("Entry " + entry.getKey(), trans.get(entry.getKey()), entry.getValue());
+			count++;
+		}
+		assertEquals("Entries", trans.size(), count);
+
+		Iterator<String> keys = trans.keySet().iterator();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			if (key.equals("custom") || key.equals(GlobalInfoFields.Message.name())) {
+				keys.remove();
+			}
+		}
+		assertEquals("Removed", base + 1, trans.size());
+		assertTrue("No Message", !trans.containsKey(GlobalInfoFields.Message.name()));
+		assertEquals("Remove", "test:url", trans.remove(TransactionFields.ResourceId.name()));
+		assertEquals("Base", base, trans.size());
+	}
+
+	@Test
+	public void testPrimitiveAttributes() throws Exception {
+		TelemetryTransaction trans = new TelemetryTransaction();
+		trans.putLong("rows", 42L);
+		trans.putDouble("ratio", 0.5);
+		trans.putInt("retries", 3);
+		trans.putBoolean("cached", true);
+		assertEquals("Boxed", Long.valueOf(42L), trans.get("rows"));
+		assertEquals("Int", 3, trans.getInt("retries"));
+
+		JsonNode node = new ObjectMapper().readTree(new String(new JsonEncoder()
+				.encode(trans)));
+		assertTrue("Rows Number", node.get("rows").isIntegralNumber());
+		assertEquals("Rows", 42L, node.get("rows").getLongValue());
+		assertEquals("Ratio", 0.5, node.get("ratio").getDoubleValue(), 0.0);
+		assertEquals("Retries", 3, node.get("retries").getIntValue());
+		assertTrue("Cached", node.get("cached").getBooleanValue());
+		assertTrue("Time Stamp Number", node.get(
+				GlobalInfoFields.TimeStamp.getJsonKey()).isIntegralNumber());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		Object params[] = new Object[] { "a", "b" };
+		trans.setParameters(params);
+		trans.putLong("rows", 1L);
+		Set<String> tags = new HashSet<String>(Arrays.asList("x", "y"));
+		trans.put("tags", tags);
+		trans.put("names", new ArrayList<String>(Arrays.asList("z")));
+
+		ExecInfo snap = session.snapshot();
+		assertTrue("Frozen", snap.isFrozen());
+		assertTrue("Original", !session.isFrozen());
+		assertSame("Idempotent", snap, snap.snapshot());
+		assertEquals("Identity", session.getEntityId(), snap.getEntityId());
+
+		params[0] = "changed";
+		tags.add("w");
+		trans.putLong("rows", 2L);
+		new TelemetryEvent(session);
+
+		assertEquals("Children", 1, snap.getChildren().size());
+		TelemetryTransaction child = (TelemetryTransaction) snap.getChildren()
+				.iterator().next();
+		assertTrue("Child Frozen", child.isFrozen());
+		assertEquals("Params", "a", child.getParameters()[0]);
+		assertEquals("Rows", 1L, child.getLong("rows"));
+		assertEquals("Tags", new HashSet<String>(Arrays.asList("x", "y")), child
+				.get("tags"));
+		assertTrue("Names", child.get("names") instanceof List<?>);
+
+		try {
+			child.setResourceId("other");
+			assertTrue("Immutable", false);
+		}
+		catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.addsimplicity.anicetus.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryEvent;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryState;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.addsimplicity.anicetus.entity.TransactionFields;
+import org.junit.Test;
+
+/**
+ * Tests of the binary encoder and decoder.
+ */
+public class BinaryCodecTest {
+
+	@Test
+	public void testBinaryRoundTrip() throws Exception {
+		EntityTypeRegistry.addBeanType(SampleBean.class);
+
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setResourceId("test:url");
+		trans.setParameters(new String[] { "a", "b" });
+		trans.setStatus(CompletionStatus.PartialSuccess);
+		trans.putLong("rows", -42L);
+		trans.putDouble("ratio", 0.5);
+		trans.put("field", TransactionFields.ResourceId);
+		trans.put("bean", new SampleBean());
+		TelemetryEvent event = new TelemetryEvent(trans);
+		event.setType("testType");
+		event.setMessage("na\u00efve \u6f22\u5b57");
+		new TelemetryState(session).put("tags", new HashSet<String>(Arrays
+				.asList("x", "y")));
+		session.summarize(new TelemetryEvent());
+
+		BinaryEncoder encoder = new BinaryEncoder();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		encoder.encodeTo(session, stream);
+		assertTrue("Compact", stream.size() < new JsonEncoder().encode(session).length);
+
+		ExecInfo decoded = (ExecInfo) new BinaryDecoder().decode(ByteBuffer
+				.wrap(stream.toByteArray()));
+		assertEquals("Session", session.getEntityId(), decoded.getEntityId());
+		assertEquals("Time", session.getTimeStamp(), decoded.getTimeStamp());
+		assertEquals("Children", 3, decoded.getChildCount());
+		assertNotNull("Summary", decoded.getSummary());
+		assertEquals("Summary Count", 1L, decoded.getSummary().getCount());
+
+		Iterator<GlobalInfo> children = decoded.getChildren().iterator();
+		TelemetryTransaction t = (TelemetryTransaction) children.next();
+		assertEquals("Trans", trans.getEntityId(), t.getEntityId());
+		assertEquals("Parent", session.getEntityId(), t.getParentId());
+		assertEquals("Trans Time", trans.getTimeStamp(), t.getTimeStamp());
+		assertEquals("Resource", "test:url", t.getResourceId());
+		assertEquals("Status", CompletionStatus.PartialSuccess, t.getStatus());
+		assertTrue("Params", Arrays.equals(trans.getParameters(), t
+				.getParameters()));
+		assertEquals("Rows", -42L, t.getLong("rows"));
+		assertEquals("Ratio", 0.5, t.getDouble("ratio"), 0.0);
+		assertSame("Field", TransactionFields.ResourceId, t.get("field"));
+		assertTrue("Bean", t.get("bean") instanceof SampleBean);
+		assertEquals("Message", "na\u00efve \u6f22\u5b57", t.getChildren()
+				.iterator().next().getMessage());
+
+		GlobalInfo state = children.next();
+		assertEquals("Tags", new HashSet<String>(Arrays.asList("x", "y")),
+				state.get("tags"));
+
+		char[] chars = encoder.encode(session);
+		assertEquals("Chars", stream.size(), chars.length);
+		assertEquals("Char Decode", session.getEntityId(), new BinaryDecoder()
+				.decode(chars).getEntityId());
+	}
+
+	@Test
+	public void testCorruptRecords() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setResourceId("test:url");
+		trans.putLong("rows", 42L);
+		new TelemetryEvent(trans).setMessage("message");
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new BinaryEncoder().encodeTo(session, stream);
+		byte[] encoded = stream.toByteArray();
+
+		final List<Throwable> caught = new ArrayList<Throwable>();
+		BinaryDecoder decoder = new BinaryDecoder();
+		decoder.setExceptionHandler(new ExceptionHandler() {
+			public void exceptionCaught(Throwable exception) {
+				caught.add(exception);
+			}
+		});
+
+		for (int i = 0; i < encoded.length; i++) {
+			decoder.decode(ByteBuffer.wrap(encoded, 0, i));
+			for (int b = 0; b < 256; b++) {
+				byte[] corrupt = encoded.clone();
+				corrupt[i] = (byte) b;
+				decoder.decode(ByteBuffer.wrap(corrupt));
+			}
+		}
+		assertTrue("Reported", !caught.isEmpty());
+	}
+
+	@Test
+	public void testDictionaryStream() throws Exception {
+		BinaryEncoder encoder = new BinaryEncoder();
+		encoder.setDictionarySize(4);
+		FileDeliveryAdapter adapter = new FileDeliveryAdapter();
+		adapter.setTranslator(encoder);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		adapter.setOutputStream(stream);
+
+		List<UUID> sent = new ArrayList<UUID>();
+		int[] sizes = new int[3];
+		for (int i = 0; i < sizes.length; i++) {
+			TelemetryTransaction trans = new TelemetryTransaction();
+			trans.setOperationName("repeated operation");
+			trans.setResourceId("test:url");
+			trans.setReportingNode("node-" + i);
+			trans.put("sql", "select * from telemetry where id = ?");
+			int before = stream.size();
+			adapter.sendTelemetry(trans);
+			sizes[i] = stream.size() - before;
+			sent.add(trans.getEntityId());
+		}
+		assertTrue("Dictionary Smaller", sizes[1] < sizes[0]);
+
+		BinaryDecoder decoder = new BinaryDecoder();
+		ByteBuffer in = ByteBuffer.wrap(stream.toByteArray());
+		for (int i = 0; i < sizes.length; i++) {
+			TelemetryTransaction trans = (TelemetryTransaction) decoder.decode(in);
+			assertEquals("Id", sent.get(i), trans.getEntityId());
+			assertEquals("Operation", "repeated operation", trans
+					.getOperationName());
+			assertEquals("Node", "node-" + i, trans.getReportingNode());
+			assertEquals("Sql", "select * from telemetry where id = ?", trans
+					.get("sql"));
+		}
+		assertEquals("Consumed", 0, in.remaining());
+
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		adapter.setOutputStream(second);
+		TelemetryTransaction trans = new TelemetryTransaction();
+		trans.setOperationName("repeated operation");
+		adapter.sendTelemetry(trans);
+		assertEquals("New Stream", "repeated operation",
+				((ExecInfo) new BinaryDecoder().decode(ByteBuffer.wrap(second
+						.toByteArray()))).getOperationName());
+	}
+
+	@Test
+	public void testTemplateStream() throws Exception {
+		BinaryEncoder encoder = new BinaryEncoder();
+		encoder.setDictionarySize(64);
+		encoder.setTemplateCount(1);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		List<TelemetrySession> sent = new ArrayList<TelemetrySession>();
+		int[] sizes = new int[4];
+		for (int i = 0; i < sizes.length; i++) {
+			TelemetrySession session = new TelemetrySession();
+			session.setOperationName(i == 2 ? "other" : "checkout");
+			for (int t = 0; t < 2; t++) {
+				TelemetryTransaction trans = new TelemetryTransaction(session);
+				trans.setResourceId("db:orders");
+				trans.putLong("rows", i * 10 + t);
+				if (i == 2) {
+					trans.putBoolean("cached", true);
+				}
+			}
+			int before = stream.size();
+			encoder.encodeTo(session, stream);
+			sizes[i] = stream.size() - before;
+			sent.add(session);
+		}
+		assertTrue("Template Smaller", sizes[1] < sizes[0] / 2);
+		assertTrue("Evicted", sizes[3] > sizes[1]);
+
+		BinaryDecoder decoder = new BinaryDecoder();
+		ByteBuffer in = ByteBuffer.wrap(stream.toByteArray());
+		for (TelemetrySession expected : sent) {
+			ExecInfo session = (ExecInfo) decoder.decode(in);
+			assertEquals("Id", expected.getEntityId(), session.getEntityId());
+			assertEquals("Operation", expected.getOperationName(), session
+					.getOperationName());
+			Iterator<GlobalInfo> children = session.getChildren().iterator();
+			for (GlobalInfo child : expected.getChildren()) {
+				GlobalInfo decoded = children.next();
+				assertEquals("Child", child.getEntityId(), decoded.getEntityId());
+				assertEquals("Child Time", child.getTimeStamp(), decoded
+						.getTimeStamp());
+				assertEquals("Rows", child.getLong("rows"), decoded.getLong("rows"));
+				assertEquals("Resource", "db:orders",
+						((TelemetryTransaction) decoded).getResourceId());
+			}
+		}
+		assertEquals("Consumed", 0, in.remaining());
+	}
+}
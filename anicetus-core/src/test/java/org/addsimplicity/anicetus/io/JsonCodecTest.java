@@ -0,0 +1,431 @@
+package org.addsimplicity.anicetus.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.EntityTypeRegistry;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.ExecInfoFields;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.JsonConstants;
+import org.addsimplicity.anicetus.entity.TelemetryEvent;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+/**
+ * Tests of the JSON encoder and decoder.
+ */
+public class JsonCodecTest {
+
+	@Test
+	public void testBeanProperties() throws Exception {
+		EntityTypeRegistry.addBeanType(SampleBean.class);
+
+		TelemetryTransaction trans = new TelemetryTransaction();
+		trans.put("bean", new SampleBean());
+
+		JsonNode bean = new ObjectMapper().readTree(
+				new String(new JsonEncoder().encode(trans))).get("bean");
+		assertEquals("Type", "SampleBean", bean.get(JsonConstants.EntityType)
+				.getTextValue());
+		assertEquals("Count", 3L, bean.get("Count").getLongValue());
+		assertTrue("Count Number", bean.get("Count").isIntegralNumber());
+		assertTrue("Active", bean.get("Active").getBooleanValue());
+		assertEquals("Name", "sample", bean.get("Name").getTextValue());
+		assertEquals("Tags", 2, bean.get("Tags").size());
+		assertTrue("Missing", bean.get("Missing").isNull());
+		assertTrue("No Class", bean.get("Class") == null);
+		assertTrue("No Indexed", bean.get("Indexed") == null);
+	}
+
+	@Test
+	public void testEncodeTo() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setMessage("na\u00efve \u6f22\u5b57");
+		trans.putLong("rows", 7L);
+
+		JsonEncoder encoder = new JsonEncoder();
+		byte[] expected = new String(encoder.encode(session)).getBytes("UTF-8");
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		encoder.encodeTo(session, stream);
+		assertTrue("Stream", Arrays.equals(expected, stream.toByteArray()));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 8);
+		buffer.putInt(42);
+		encoder.encodeTo(session, buffer);
+		assertEquals("Position", expected.length + 4, buffer.position());
+
+		byte[] written = new byte[expected.length];
+		buffer.flip();
+		buffer.getInt();
+		buffer.get(written);
+		assertTrue("Buffer", Arrays.equals(expected, written));
+
+		try {
+			encoder.encodeTo(session, ByteBuffer.allocate(16));
+			assertTrue("Overflow", false);
+		}
+		catch (BufferOverflowException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCharacterEncoder() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		session.setMessage("na\u00efve \u6f22\u5b57");
+
+		final JsonEncoder json = new JsonEncoder();
+		FileDeliveryAdapter adapter = new FileDeliveryAdapter();
+		adapter.setTranslator(new TelemetryEncoder() {
+			public char[] encode(GlobalInfo telemetry) {
+				return json.encode(telemetry);
+			}
+		});
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		adapter.setOutputStream(stream);
+		adapter.sendTelemetry(session);
+
+		assertTrue("UTF-8", Arrays.equals(new String(json.encode(session))
+				.getBytes("UTF-8"), stream.toByteArray()));
+	}
+
+	@Test
+	public void testRemappedKey() throws Exception {
+		TelemetryTransaction trans = new TelemetryTransaction();
+		trans.putLong("remapped", 3L);
+		JsonEncoder encoder = new JsonEncoder();
+		ObjectMapper mapper = new ObjectMapper();
+
+		EntityTypeRegistry.addJsonPropertyMapping("remapped", "Rm");
+		JsonNode first = mapper.readTree(new String(encoder.encode(trans)));
+		assertEquals("First Key", 3L, first.get("Rm").getLongValue());
+
+		EntityTypeRegistry.addJsonPropertyMapping("remapped", "Rp");
+		JsonNode second = mapper.readTree(new String(encoder.encode(trans)));
+		assertEquals("Second Key", 3L, second.get("Rp").getLongValue());
+		assertTrue("Stale Key", second.get("Rm") == null);
+	}
+
+	@Test
+	public void testLazyChildren() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setResourceId("test:url");
+		new TelemetryEvent(trans).setMessage("na\u00efve \u6f22\u5b57");
+		new TelemetryTransaction(session).setResourceId("test:other");
+
+		char[] json = new JsonEncoder().encode(session);
+		byte[] utf8 = new String(json).getBytes("UTF-8");
+		byte[] framed = new byte[utf8.length + 6];
+		System.arraycopy(utf8, 0, framed, 3, utf8.length);
+
+		JsonDecoder decoder = new JsonDecoder();
+		decoder.setLazyChildren(true);
+		assertTrue("Eager", !((ExecInfo) decoder.decode(json))
+				.hasDeferredChildren());
+
+		ExecInfo root = (ExecInfo) decoder.decode(framed, 3, utf8.length);
+		assertTrue("Deferred", root.hasDeferredChildren());
+		assertEquals("Session", session.getEntityId(), root.getEntityId());
+		assertEquals("Children", 2, root.getChildCount());
+		assertTrue("Loaded", !root.hasDeferredChildren());
+
+		Iterator<GlobalInfo> children = root.getChildren().iterator();
+		TelemetryTransaction t = (TelemetryTransaction) children.next();
+		assertEquals("Parent", session.getEntityId(), t.getParentId());
+		assertEquals("Resource", trans.getResourceId(), t.getResourceId());
+		assertTrue("Nested Deferred", t.hasDeferredChildren());
+		assertEquals("Message", "na\u00efve \u6f22\u5b57", t.getChildren()
+				.iterator().next().getMessage());
+		assertEquals("Second", "test:other", ((TelemetryTransaction) children
+				.next()).getResourceId());
+
+		assertTrue("Re-encoded", Arrays.equals(json, new JsonEncoder()
+				.encode(decoder.decode(utf8))));
+	}
+
+	@Test
+	public void testStreamOfObjects() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonEncoder encoder = new JsonEncoder();
+		for (String name : new String[] { "one", "two" }) {
+			TelemetrySession session = new TelemetrySession();
+			session.setOperationName(name);
+			encoder.encodeTo(session, out);
+			out.write('\n');
+		}
+
+		JsonDecoder decoder = new JsonDecoder();
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertEquals("First", "one", ((ExecInfo) decoder.decode(in))
+				.getOperationName());
+		assertEquals("Second", "two", ((ExecInfo) decoder.decode(in))
+				.getOperationName());
+	}
+
+	@Test
+	public void testLazyUtf16() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		new TelemetryTransaction(session).setResourceId("test:url");
+
+		JsonDecoder decoder = new JsonDecoder();
+		decoder.setLazyChildren(true);
+		ExecInfo root = (ExecInfo) decoder.decode(new String(new JsonEncoder()
+				.encode(session)).getBytes("UTF-16BE"));
+		assertTrue("Eager", !root.hasDeferredChildren());
+		assertEquals("Children", 1, root.getChildren().size());
+		assertEquals("Resource", "test:url", ((TelemetryTransaction) root
+				.getChildren().iterator().next()).getResourceId());
+	}
+
+	@Test
+	public void testLazySnapshot() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setResourceId("test:url");
+		new TelemetryEvent(trans).setMessage("deferred");
+
+		JsonDecoder decoder = new JsonDecoder();
+		decoder.setLazyChildren(true);
+		ExecInfo root = (ExecInfo) decoder.decode(new String(new JsonEncoder()
+				.encode(session)).getBytes("UTF-8"));
+		assertTrue("Deferred", root.hasDeferredChildren());
+
+		ExecInfo snap = root.snapshot();
+		assertTrue("Snapshot Loaded", !snap.hasDeferredChildren());
+		assertEquals("Children", 1, snap.getChildCount());
+		TelemetryTransaction t = (TelemetryTransaction) snap.getChildren()
+				.iterator().next();
+		assertTrue("Frozen", t.isFrozen());
+		assertTrue("Nested Loaded", !t.hasDeferredChildren());
+		assertEquals("Resource", "test:url", t.getResourceId());
+		assertEquals("Message", "deferred", t.getChildren().iterator().next()
+				.getMessage());
+		assertEquals("Original", 1, root.getChildCount());
+	}
+
+	@Test
+	public void testProjection() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		session.setOperationName("scan");
+		session.setMessage("not projected");
+		new TelemetryTransaction(session).setResourceId("test:url");
+
+		TelemetryProjection projection = new TelemetryProjection();
+		projection.setFields(Arrays.asList(JsonConstants.OperationName,
+				ExecInfoFields.Status.name()));
+		projection.setChildren(false);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		new BinaryEncoder().encodeTo(session, binary);
+		ByteBuffer[] encoded = new ByteBuffer[] {
+				ByteBuffer.wrap(new String(new JsonEncoder().encode(session))
+						.getBytes("UTF-8")), ByteBuffer.wrap(binary.toByteArray()) };
+		StreamingTelemetryDecoder[] decoders = new StreamingTelemetryDecoder[] {
+				new JsonDecoder(), new BinaryDecoder() };
+
+		for (int i = 0; i < decoders.length; i++) {
+			ExecInfo root = (ExecInfo) decoders[i].decode(encoded[i], projection);
+			assertEquals("Consumed", 0, encoded[i].remaining());
+			assertEquals("Operation", "scan", root.getOperationName());
+			assertEquals("Time", session.getTimeStamp(), root.getTimeStamp());
+			assertTrue("No Message", root.getMessage() == null);
+			assertEquals("Session", session.getEntityId(), root.getEntityId());
+			assertEquals("No Children", 0, root.getChildCount());
+		}
+
+		projection.setFields(null);
+		projection.setChildren(true);
+		projection.setPredicate(new TelemetryPredicate() {
+			public boolean accept(GlobalInfo root) {
+				return "other".equals(((ExecInfo) root).getOperationName());
+			}
+		});
+		for (int i = 0; i < decoders.length; i++) {
+			encoded[i].rewind();
+			assertTrue("Rejected", decoders[i].decode(encoded[i], projection) == null);
+			assertEquals("Skipped", 0, encoded[i].remaining());
+		}
+
+		session.setOperationName("other");
+		ExecInfo accepted = (ExecInfo) new JsonDecoder().decode(ByteBuffer
+				.wrap(new String(new JsonEncoder().encode(session))
+						.getBytes("UTF-8")), projection);
+		assertEquals("Accepted", session.getEntityId(), accepted.getEntityId());
+		assertEquals("Children", 1, accepted.getChildCount());
+	}
+
+	@Test
+	public void testPropertyCodecs() throws Exception {
+		final String json = "{\"" + JsonConstants.EntityType
+				+ "\":\"TR\",\"bean\":{\"" + JsonConstants.EntityType + "\":\""
+				+ CodecBean.class.getName()
+				+ "\",\"count\":\"5\",\"label\":\"x\",\"tag\":[\"a\",\"b\"]}}";
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<GlobalInfo>> results = new ArrayList<Future<GlobalInfo>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(pool.submit(new Callable<GlobalInfo>() {
+				public GlobalInfo call() throws Exception {
+					return new JsonDecoder().decode(json.toCharArray());
+				}
+			}));
+		}
+		pool.shutdown();
+
+		for (Future<GlobalInfo> result : results) {
+			CodecBean bean = (CodecBean) result.get().get("bean");
+			assertEquals("Count", 5, bean.getCount());
+			assertEquals("Label", "x", bean.getLabel());
+			assertEquals("Tags", Arrays.asList("a", "b"), bean.getTag());
+		}
+	}
+
+	@Test
+	public void testSharedDecoder() throws Exception {
+		final List<Throwable> caught = new ArrayList<Throwable>();
+		final JsonDecoder decoder = new JsonDecoder();
+		decoder.setExceptionHandler(new ExceptionHandler() {
+			public void exceptionCaught(Throwable exception) {
+				caught.add(exception);
+			}
+		});
+
+		String custom = "{\"" + JsonConstants.EntityType + "\":\"CX\"}";
+		assertTrue("Unresolved", decoder.decode(custom.toCharArray()) == null);
+		assertEquals("Reported", 1, caught.size());
+
+		EntityTypeRegistry.addClassShortName(CustomEvent.class, "CX");
+		assertTrue("Resolved",
+				decoder.decode(custom.toCharArray()) instanceof CustomEvent);
+
+		TelemetrySession session = new TelemetrySession();
+		for (int i = 0; i < 10; i++) {
+			new TelemetryTransaction(session).setResourceId("test:" + i);
+		}
+		final char[] json = new JsonEncoder().encode(session);
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<GlobalInfo>> results = new ArrayList<Future<GlobalInfo>>();
+		for (int i = 0; i < 32; i++) {
+			results.add(pool.submit(new Callable<GlobalInfo>() {
+				public GlobalInfo call() throws Exception {
+					return decoder.decode(json);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		for (Future<GlobalInfo> result : results) {
+			assertEquals("Children", 10, ((ExecInfo) result.get()).getChildCount());
+		}
+		assertEquals("No Errors", 1, caught.size());
+	}
+
+	@Test
+	public void testStreamingJsonDecode() throws Exception {
+		TelemetrySession session = new TelemetrySession();
+		TelemetryTransaction trans = new TelemetryTransaction(session);
+		trans.setResourceId("test:url");
+		trans.setParameters(new String[] { "a", "b" });
+		trans.setStatus(CompletionStatus.Failure);
+		trans.putLong("rows", 7L);
+		trans.putBoolean("cached", true);
+		new TelemetryEvent(trans).setMessage("na\u00efve \u6f22\u5b57");
+
+		byte[] json = new String(new JsonEncoder().encode(session))
+				.getBytes("UTF-8");
+		JsonDecoder decoder = new JsonDecoder();
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+		direct.put(json).flip();
+		GlobalInfo[] decoded = new GlobalInfo[] { decoder.decode(json),
+				decoder.decode(direct),
+				decoder.decode(new ByteArrayInputStream(json)) };
+		assertEquals("Consumed", 0, direct.remaining());
+
+		for (GlobalInfo info : decoded) {
+			ExecInfo s = (ExecInfo) info;
+			assertEquals("Session", session.getEntityId(), s.getEntityId());
+			assertEquals("Children", 1, s.getChildCount());
+
+			TelemetryTransaction t = (TelemetryTransaction) s.getChildren()
+					.iterator().next();
+			assertEquals("Resource", "test:url", t.getResourceId());
+			assertEquals("Status", CompletionStatus.Failure, t.getStatus());
+			assertTrue("Params", Arrays.equals(trans.getParameters(), t
+					.getParameters()));
+			assertEquals("Rows", 7L, t.getLong("rows"));
+			assertTrue("Cached", t.getBoolean("cached"));
+			assertEquals("Message", "na\u00efve \u6f22\u5b57", t.getChildren()
+					.iterator().next().getMessage());
+		}
+
+		String late = "{\"" + JsonConstants.ResourceIdentifier
+				+ "\":\"late:url\",\"" + JsonConstants.Parameters
+				+ "\":[],\"ratio\":0.25,\"" + JsonConstants.EntityType
+				+ "\":\"TR\"}";
+		TelemetryTransaction t = (TelemetryTransaction) decoder.decode(late
+				.toCharArray());
+		assertEquals("Late Resource", "late:url", t.getResourceId());
+		assertEquals("Empty Params", 0, t.getParameters().length);
+		assertEquals("Ratio", 0.25, t.getDouble("ratio"), 0.0);
+		assertTrue("No Type", t.get(JsonConstants.EntityType) == null);
+	}
+
+	/**
+	 * A bean with properties of each kind.
+	 */
+	public static class CodecBean {
+		private int m_count;
+		private String m_label;
+		private final List<String> m_tags = new ArrayList<String>();
+
+		public void addTag(String tag) {
+			m_tags.add(tag);
+		}
+
+		public int getCount() {
+			return m_count;
+		}
+
+		public String getLabel() {
+			return m_label;
+		}
+
+		public List<String> getTag() {
+			return m_tags;
+		}
+
+		public void setCount(int count) {
+			m_count = count;
+		}
+
+		public void setLabel(String label) {
+			m_label = label;
+		}
+	}
+
+	public static class CustomEvent extends TelemetryEvent {
+	}
+}
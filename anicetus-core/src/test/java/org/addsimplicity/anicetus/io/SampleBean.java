@@ -0,0 +1,30 @@
+package org.addsimplicity.anicetus.io;
+
+/**
+ * A bean with properties of each kind read by the encoders.
+ */
+public class SampleBean {
+	public Boolean getActive() {
+		return Boolean.TRUE;
+	}
+
+	public int getCount() {
+		return 3;
+	}
+
+	public String getIndexed(int index) {
+		return "none";
+	}
+
+	public String getMissing() {
+		return null;
+	}
+
+	public String getName() {
+		return "sample";
+	}
+
+	public String[] getTags() {
+		return new String[] { "a", "b" };
+	}
+}
@@ -0,0 +1,67 @@
+package org.addsimplicity.anicetus.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.junit.Test;
+
+/**
+ * Tests of reading newline delimited archives.
+ */
+public class TelemetryFileReaderTest {
+
+	@Test
+	public void testParallelFileRead() throws Exception {
+		File archive = File.createTempFile("anicetus", ".json");
+		archive.deleteOnExit();
+
+		FileDeliveryAdapter adapter = new FileDeliveryAdapter();
+		adapter.setRecordDelimited(true);
+		adapter.setFile(archive.getPath());
+		for (int i = 0; i < 200; i++) {
+			TelemetrySession session = new TelemetrySession();
+			session.setOperationName("op" + i);
+			TelemetryTransaction trans = new TelemetryTransaction();
+			trans.setResourceId("test:" + i);
+			session.addChild(trans);
+			adapter.sendTelemetry(session);
+		}
+		adapter.close();
+
+		TelemetryFileReader reader = new TelemetryFileReader();
+		reader.setChunkSize(1024);
+		List<GlobalInfo> telemetry = reader.read(archive.getPath());
+		assertEquals("Records", 200, telemetry.size());
+		for (int i = 0; i < telemetry.size(); i++) {
+			ExecInfo session = (ExecInfo) telemetry.get(i);
+			assertEquals("Order", "op" + i, session.getOperationName());
+			assertEquals("Child", "test:" + i, ((TelemetryTransaction) session
+					.getChildren().iterator().next()).getResourceId());
+		}
+
+		TelemetryProjection projection = new TelemetryProjection();
+		projection.setChildren(false);
+		projection.setPredicate(new TelemetryPredicate() {
+			public boolean accept(GlobalInfo root) {
+				return ((ExecInfo) root).getOperationName().endsWith("7");
+			}
+		});
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		reader.setExecutor(pool);
+		telemetry = reader.read(archive.getPath(), projection);
+		pool.shutdown();
+		assertEquals("Accepted", 20, telemetry.size());
+		assertEquals("First", "op7", ((ExecInfo) telemetry.get(0))
+				.getOperationName());
+		assertEquals("No Children", 0, ((ExecInfo) telemetry.get(0))
+				.getChildCount());
+	}
+}
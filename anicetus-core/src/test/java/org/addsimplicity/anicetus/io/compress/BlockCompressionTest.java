@@ -0,0 +1,80 @@
+package org.addsimplicity.anicetus.io.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.addsimplicity.anicetus.io.FileDeliveryAdapter;
+import org.addsimplicity.anicetus.io.JsonEncoder;
+import org.junit.Test;
+
+/**
+ * Tests of the block compressed streams.
+ */
+public class BlockCompressionTest {
+
+	@Test
+	public void testBlockCompression() throws Exception {
+		JsonEncoder encoder = new JsonEncoder();
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		List<GlobalInfo> sent = new ArrayList<GlobalInfo>();
+		for (int i = 0; i < 50; i++) {
+			TelemetryTransaction trans = new TelemetryTransaction();
+			trans.setOperationName("checkout");
+			trans.setResourceId("db:orders");
+			trans.putLong("rows", i);
+			encoder.encodeTo(trans, raw);
+			sent.add(trans);
+		}
+
+		BlockCodec[] codecs = { new LzBlockCodec(), new DeflateBlockCodec() };
+		for (BlockCodec codec : codecs) {
+			FileDeliveryAdapter adapter = new FileDeliveryAdapter();
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			adapter.setOutputStream(stream);
+			adapter.setBlockSize(1024);
+			adapter.setBlockCodec(codec);
+			for (GlobalInfo trans : sent) {
+				adapter.sendTelemetry(trans);
+			}
+			adapter.flush();
+			assertTrue("Compressed", stream.size() < raw.size() / 2);
+
+			ByteArrayOutputStream read = new ByteArrayOutputStream();
+			BlockInputStream in = new BlockInputStream(new ByteArrayInputStream(
+					stream.toByteArray()));
+			byte[] chunk = new byte[100];
+			for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+				read.write(chunk, 0, n);
+			}
+			assertTrue("Round Trip", Arrays.equals(raw.toByteArray(), read
+					.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testStoredBlocks() throws Exception {
+		byte[] noise = new byte[5000];
+		new Random(7).nextBytes(noise);
+		ByteArrayOutputStream stored = new ByteArrayOutputStream();
+		BlockOutputStream out = new BlockOutputStream(stored, new LzBlockCodec(),
+				2048);
+		out.write(noise);
+		out.close();
+		byte[] read = new byte[noise.length];
+		DataInputStream in = new DataInputStream(new BlockInputStream(
+				new ByteArrayInputStream(stored.toByteArray())));
+		in.readFully(read);
+		assertEquals("End", -1, in.read());
+		assertTrue("Stored", Arrays.equals(noise, read));
+	}
+}
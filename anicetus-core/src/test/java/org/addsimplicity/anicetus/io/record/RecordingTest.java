@@ -0,0 +1,136 @@
+package org.addsimplicity.anicetus.io.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.addsimplicity.anicetus.TelemetryContext;
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.ExecInfoFields;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.addsimplicity.anicetus.io.DeliveryAdapter;
+import org.addsimplicity.anicetus.io.ExceptionHandler;
+import org.addsimplicity.anicetus.sampling.RateLimitingSampler;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of sessions recorded into a record arena.
+ */
+public class RecordingTest {
+	List<GlobalInfo> m_sent;
+	TelemetryContext m_mgr;
+
+	@Before
+	public void init() throws Exception {
+		m_sent = new ArrayList<GlobalInfo>();
+
+		m_mgr = new TelemetryContext();
+		m_mgr.setOperationName("testName");
+		m_mgr.setRecording(true);
+		m_mgr.setRecordCapacity(128);
+		m_mgr.setDeliveryAdapter(new DeliveryAdapter() {
+			public void sendTelemetry(GlobalInfo telemetry) {
+				m_sent.add(telemetry);
+			}
+
+			public void setExceptionHandler(ExceptionHandler handler) {
+			}
+		});
+		m_mgr.afterPropertiesSet();
+	}
+
+	@Test
+	public void testRecording() throws Exception {
+		String sessionId = m_mgr.getSession().getEntityId().toString();
+		TelemetryTransaction trans = m_mgr.beginTransaction("test:url");
+		trans.setParameters(new Object[] { "a", "b" });
+		trans.putLong("rows", 42L);
+		trans.put("names", new String[] { "x" });
+		trans.put("tags", new HashSet<String>(Arrays.asList("y", "z")));
+		trans.setStatus(CompletionStatus.Success);
+		m_mgr.newEvent("testType").setMessage("r\u00e9sum\u00e9");
+		m_mgr.endTransaction();
+		m_mgr.newState().putBoolean("cached", true);
+		assertTrue("Not Retained", m_mgr.getSession().getChildren().isEmpty());
+		m_mgr.endSession();
+
+		assertEquals("Sessions", 1, m_sent.size());
+		ExecInfo session = (ExecInfo) m_sent.get(0);
+		assertEquals("Session", sessionId, session.getEntityId().toString());
+		assertEquals("OperationName", "testName", session.getOperationName());
+		assertEquals("Children", 2, session.getChildCount());
+
+		Iterator<GlobalInfo> children = session.getChildren().iterator();
+		TelemetryTransaction child = (TelemetryTransaction) children.next();
+		assertEquals("Trans Id", trans.getEntityId(), child.getEntityId());
+		assertEquals("Status", CompletionStatus.Success, child.getStatus());
+		assertEquals("Rows", 42L, child.getLong("rows"));
+		assertTrue("Params", Arrays.equals(new Object[] { "a", "b" }, child
+				.getParameters()));
+		assertTrue("Names", child.get("names") instanceof String[]);
+		assertEquals("Tags", new HashSet<String>(Arrays.asList("y", "z")), child
+				.get("tags"));
+		assertEquals("Message", "r\u00e9sum\u00e9", child.getChildren().iterator()
+				.next().getMessage());
+		assertTrue("Cached", children.next().getBoolean("cached"));
+
+		final List<GlobalInfo> received = new ArrayList<GlobalInfo>();
+		m_mgr.setDeliveryAdapter(new RecordDeliveryAdapter() {
+			public void sendRecords(ByteBuffer records) {
+				received.add(new RecordDecoder().decode(records));
+			}
+
+			public void sendTelemetry(GlobalInfo telemetry) {
+			}
+
+			public void setExceptionHandler(ExceptionHandler handler) {
+			}
+		});
+		m_mgr.beginTransaction("second");
+		m_mgr.endSession();
+
+		assertEquals("Records", 1, received.size());
+		session = (ExecInfo) received.get(0);
+		assertEquals("Record Children", 1, session.getChildren().size());
+		assertEquals("Record Resource", "second",
+				((TelemetryTransaction) session.getChildren().iterator().next())
+						.getResourceId());
+	}
+
+	@Test
+	public void testSampledRecords() throws Exception {
+		final List<GlobalInfo> received = new ArrayList<GlobalInfo>();
+		m_mgr.setDeliveryAdapter(new RecordDeliveryAdapter() {
+			public void sendRecords(ByteBuffer records) {
+				received.add(new RecordDecoder().decode(records));
+			}
+
+			public void sendTelemetry(GlobalInfo telemetry) {
+			}
+
+			public void setExceptionHandler(ExceptionHandler handler) {
+			}
+		});
+		RateLimitingSampler sampler = new RateLimitingSampler();
+		sampler.setSessionsPerSecond(1.0);
+		m_mgr.setTailSampler(sampler);
+
+		m_mgr.beginTransaction("sampled");
+		m_mgr.endSession();
+
+		assertEquals("Records", 1, received.size());
+		ExecInfo session = (ExecInfo) received.get(0);
+		assertTrue("Sample Rate", session.containsKey(ExecInfoFields.SampleRate
+				.name()));
+		assertEquals("Kept", 1.0, session.getSampleRate(), 0.0);
+	}
+}
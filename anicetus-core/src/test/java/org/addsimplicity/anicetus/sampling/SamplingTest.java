@@ -0,0 +1,159 @@
+package org.addsimplicity.anicetus.sampling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.addsimplicity.anicetus.TelemetryContext;
+import org.addsimplicity.anicetus.entity.CompletionStatus;
+import org.addsimplicity.anicetus.entity.ExecInfo;
+import org.addsimplicity.anicetus.entity.ExecInfoFields;
+import org.addsimplicity.anicetus.entity.GlobalInfo;
+import org.addsimplicity.anicetus.entity.TelemetrySession;
+import org.addsimplicity.anicetus.entity.TelemetryTransaction;
+import org.addsimplicity.anicetus.io.DeliveryAdapter;
+import org.addsimplicity.anicetus.io.ExceptionHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the session and tail samplers.
+ */
+public class SamplingTest {
+	List<GlobalInfo> m_sent;
+
+	@Before
+	public void init() {
+		m_sent = new ArrayList<GlobalInfo>();
+	}
+
+	@Test
+	public void testUnsampledSession() throws Exception {
+		TelemetryContext mgr = newContext();
+		mgr.setSessionSampler(new ProbabilitySampler(0.0));
+		mgr.afterPropertiesSet();
+
+		TelemetryTransaction t = mgr.beginTransaction("test:url");
+		t.setOperationName("xyzz");
+		assertSame("Shared", t, mgr.beginTransaction("test:url"));
+		mgr.newEvent("testType");
+		mgr.newState().put("x", "y");
+		mgr.endTransaction();
+		mgr.endSession();
+
+		assertEquals("Session Count", 0, m_sent.size());
+		assertTrue("Sampled", !mgr.getSession().isSampled());
+		assertTrue("Children", mgr.getSession().getChildren().isEmpty());
+	}
+
+	@Test
+	public void testTailSampling() throws Exception {
+		OutcomeSampler sampler = new OutcomeSampler();
+		sampler.setHealthyRate(0.0);
+		sampler.setLatencyThreshold(10000);
+		TelemetryContext mgr = newContext();
+		mgr.setTailSampler(sampler);
+		mgr.afterPropertiesSet();
+
+		mgr.beginTransaction("healthy").setStatus(CompletionStatus.Success);
+		mgr.getSession().setStatus(CompletionStatus.Success);
+		mgr.endSession();
+
+		mgr.beginTransaction("failed").setStatus(CompletionStatus.Failure);
+		mgr.getSession().setStatus(CompletionStatus.Success);
+		mgr.endSession();
+
+		mgr.newEvent("testType").setExceptionAsMessage(new Exception("test"));
+		mgr.endSession();
+
+		assertEquals("Session Count", 2, m_sent.size());
+		assertEquals("Failed", "failed", ((TelemetryTransaction) firstChild(m_sent
+				.get(0))).getResourceId());
+		assertNotNull("Message", firstChild(m_sent.get(1)).getMessage());
+	}
+
+	@Test
+	public void testSummarizedFailure() throws Exception {
+		OutcomeSampler sampler = new OutcomeSampler();
+		sampler.setHealthyRate(0.0);
+		sampler.setLatencyThreshold(10000);
+		TelemetryContext mgr = newContext();
+		mgr.setTailSampler(sampler);
+		mgr.setMaxChildren(1);
+		mgr.afterPropertiesSet();
+
+		mgr.beginTransaction("first").setStatus(CompletionStatus.Success);
+		mgr.endTransaction();
+		mgr.beginTransaction("second").setStatus(CompletionStatus.Failure);
+		mgr.endTransaction();
+		mgr.getSession().setStatus(CompletionStatus.Success);
+		mgr.endSession();
+
+		assertEquals("Session Count", 1, m_sent.size());
+		ExecInfo session = (ExecInfo) m_sent.get(0);
+		assertEquals("Failures", 1L, session.getSummary().getFailureCount());
+	}
+
+	@Test
+	public void testEffectiveRate() throws Exception {
+		RateLimitingSampler sampler = new RateLimitingSampler();
+		sampler.setSessionsPerSecond(10.0);
+
+		int kept = 0;
+		for (int i = 0; i < 30; i++) {
+			TelemetrySession session = new TelemetrySession();
+			session.setOperationName("burst");
+			if (sampler.keepSession(session)) {
+				assertEquals("Before Rejection", 1.0, session.getSampleRate(), 0.0);
+				kept++;
+			}
+		}
+		assertEquals("Bucket", 10, kept);
+
+		Thread.sleep(150);
+		TelemetrySession session = new TelemetrySession();
+		session.setOperationName("burst");
+		assertTrue("Refilled", sampler.keepSession(session));
+		assertEquals("Accepted Share", 11.0 / 31.0, session.getSampleRate(), 1e-9);
+	}
+
+	@Test
+	public void testRateLimiting() throws Exception {
+		RateLimitingSampler sampler = new RateLimitingSampler();
+		sampler.setSessionsPerSecond(1.0);
+		TelemetryContext mgr = newContext();
+		mgr.setTailSampler(sampler);
+		mgr.afterPropertiesSet();
+
+		for (int i = 0; i < 20; i++) {
+			mgr.endSession();
+		}
+
+		assertTrue("Session Count", m_sent.size() >= 1 && m_sent.size() <= 2);
+		assertTrue("Sample Rate", m_sent.get(0).containsKey(
+				ExecInfoFields.SampleRate.name()));
+	}
+
+	private GlobalInfo firstChild(GlobalInfo session) {
+		return ((ExecInfo) session).getChildren().iterator().next();
+	}
+
+	private TelemetryContext newContext() {
+		TelemetryContext mgr = new TelemetryContext();
+		mgr.setOperationName("testName");
+		mgr.setDeliveryAdapter(new DeliveryAdapter() {
+			public void sendTelemetry(GlobalInfo telemetry) {
+				m_sent.add(telemetry);
+			}
+
+			public void setExceptionHandler(ExceptionHandler handler) {
+			}
+		});
+
+		return mgr;
+	}
+}